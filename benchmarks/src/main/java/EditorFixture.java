@@ -0,0 +1,337 @@
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.RepaintManager;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.GapContent;
+import javax.swing.text.PlainDocument;
+
+import notepadpro.benchmarks.Editor;
+
+/**
+ * 'EditorFixture' implements the benchmarks' 'Editor' with an 'EditorDocument'
+ * set up as 'NotepadUserInterface' sets up a tab, with the default font of the
+ * notepad window. Without a window nothing is shown, so the scroll pane is laid
+ * out by hand and painted into an image.
+ */
+public final class EditorFixture implements Editor {
+
+    // The font of a new notepad window.
+    static final String FONT_FAMILY = "Arial";
+    static final int FONT_SIZE = 22;
+
+    // The number of characters 'load' inserts at once.
+    static final int LOAD_BLOCK_SIZE = 1 << 20;
+
+    // The document listener of the notepad window updates the status bar; here nobody listens.
+    private static final DocumentListener NO_LISTENER = new DocumentListener() {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+        }
+    };
+
+    // The image the viewport is painted into, standing in for the screen.
+    private final BufferedImage screen = new BufferedImage(VIEWPORT_WIDTH, VIEWPORT_HEIGHT,
+            BufferedImage.TYPE_INT_RGB);
+
+    private Font font = FontCache.get(FONT_FAMILY, Font.PLAIN, FONT_SIZE);
+    private EditorDocument document;
+
+    // The text area of a "GapContent" document ('load'), or else the one of 'document'.
+    private JTextArea textArea;
+
+    public EditorFixture() {
+        // Without a window there is no screen to buffer for; components paint straight into the image.
+        onEventThread(() -> RepaintManager.currentManager((Component) null).setDoubleBufferingEnabled(false));
+    }
+
+    @Override
+    public void newDocument() {
+        close();
+        onEventThread(() -> {
+            document = new EditorDocument(font, e -> {
+            }, NO_LISTENER, e -> {
+            });
+            textArea = document.textArea;
+            document.scrollPane.setSize(VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+            layout(document.scrollPane);
+        });
+    }
+
+    @Override
+    public void open(Path file) throws IOException, InterruptedException {
+        File opened = file.toFile();
+        if (opened.length() >= LargeFileView.LARGE_FILE_THRESHOLD) {
+            onEventThread(() -> {
+                try {
+                    document.largeFileView = new LargeFileView(opened, font);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                document.scrollPane.setViewportView(document.largeFileView);
+                document.scrollPane.setRowHeaderView(null);
+                layout(document.scrollPane);
+            });
+            paint();
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        onEventThread(() -> {
+            document.fileName = opened.getName();
+            document.fileAddress = opened.getParent() + File.separator;
+            try {
+                document.openWorker = new FileOpenWorker(null, document, opened);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            document.openWorker.addPropertyChangeListener((PropertyChangeEvent event) -> {
+                if (event.getNewValue() == SwingWorker.StateValue.DONE) {
+                    done.countDown();
+                }
+            });
+            document.openWorker.execute();
+        });
+        done.await();
+        // 'publish' hands the last blocks to the event thread up to a frame after the worker is done.
+        long length = Files.size(file);
+        while (getLength() < length) {
+            Thread.sleep(1);
+        }
+        onEventThread(() -> layout(document.scrollPane));
+        paint();
+    }
+
+    @Override
+    public void load(Path file, String content) throws IOException {
+        if (content.equals("PieceTableContent")) {
+            newDocument();
+            onEventThread(() -> {
+                document.editJournal.setRecording(false);
+                document.undoHistory.setRecording(false);
+            });
+            insertText(file);
+            onEventThread(() -> {
+                document.undoHistory.setRecording(true);
+                document.editJournal.setRecording(true);
+                layout(document.scrollPane);
+            });
+        } else if (content.equals("GapContent")) {
+            close();
+            int length = (int) Files.size(file);
+            onEventThread(() -> {
+                // Sized for the text and a block of edits, so the gap isn't grown while loading.
+                textArea = new JTextArea(new PlainDocument(new GapContent(length + LOAD_BLOCK_SIZE)));
+                textArea.setFont(font);
+                JScrollPane scrollPane = new JScrollPane(textArea);
+                scrollPane.setSize(VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+                layout(scrollPane);
+            });
+            insertText(file);
+        } else {
+            throw new IllegalArgumentException("Unknown content: " + content);
+        }
+    }
+
+    // Appends the text of 'file' to 'textArea' in blocks, so no copy of the whole text is made.
+    private void insertText(Path file) throws IOException {
+        char[] block = new char[LOAD_BLOCK_SIZE];
+        try (Reader reader = Files.newBufferedReader(file, Charset.defaultCharset())) {
+            int read;
+            while ((read = reader.read(block)) > 0) {
+                String text = new String(block, 0, read);
+                onEventThread(() -> {
+                    Document loaded = textArea.getDocument();
+                    try {
+                        loaded.insertString(loaded.getLength(), text, null);
+                    } catch (BadLocationException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+            }
+        }
+    }
+
+    @Override
+    public int getLength() {
+        int[] length = new int[1];
+        onEventThread(() -> length[0] = textArea.getDocument().getLength());
+        return length[0];
+    }
+
+    @Override
+    public int getLineCount() {
+        int[] lines = new int[1];
+        onEventThread(() -> lines[0] = document.lineIndex.getLineCount());
+        return lines[0];
+    }
+
+    @Override
+    public void showLine(int line) {
+        onEventThread(() -> {
+            if (document.largeFileView != null) {
+                document.largeFileView.scrollToLine(line);
+                return;
+            }
+            try {
+                int offset = document.lineIndex.getLineStart(Math.min(line, document.lineIndex.getLineCount() - 1));
+                int y = (int) document.textArea.modelToView2D(offset).getY();
+                int bottom = Math.max(0, document.textArea.getHeight() - VIEWPORT_HEIGHT);
+                document.scrollPane.getViewport().setViewPosition(new Point(0, Math.min(y, bottom)));
+            } catch (BadLocationException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @Override
+    public void paint() {
+        onEventThread(() -> {
+            Graphics2D g = screen.createGraphics();
+            try {
+                document.scrollPane.paint(g);
+            } finally {
+                g.dispose();
+            }
+        });
+    }
+
+    @Override
+    public void setWordWrap(boolean wordWrap) {
+        onEventThread(() -> {
+            document.setWordWrap(wordWrap);
+            layout(document.scrollPane);
+        });
+        paint();
+    }
+
+    @Override
+    public void setFontSize(int size) {
+        onEventThread(() -> {
+            font = FontCache.resize(font, size);
+            document.textArea.setFont(font);
+            layout(document.scrollPane);
+        });
+        paint();
+    }
+
+    @Override
+    public void insertTemplate(String fileFormat) {
+        onEventThread(() -> {
+            document.fileFormat = fileFormat;
+            document.syntaxHighlighter.setLanguage(fileFormat);
+            BoilerplateTemplate template = TemplateRegistry.get(fileFormat);
+            document.textArea.setText(template.render(BoilerplateTemplate.valuesFor("Demo." + fileFormat, null)));
+            layout(document.scrollPane);
+        });
+        paint();
+    }
+
+    @Override
+    public void append(String text, int times) {
+        onEventThread(() -> {
+            Document edited = textArea.getDocument();
+            try {
+                for (int i = 0; i < times; i++) {
+                    edited.insertString(edited.getLength(), text, null);
+                }
+            } catch (BadLocationException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @Override
+    public void insert(int[] offsets, String text) {
+        onEventThread(() -> {
+            Document edited = textArea.getDocument();
+            try {
+                for (int offset : offsets) {
+                    edited.insertString(Math.min(offset, edited.getLength()), text, null);
+                }
+            } catch (BadLocationException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @Override
+    public long save(Path target, String lineSeparator) throws IOException {
+        PieceTableContent.Snapshot[] snapshot = new PieceTableContent.Snapshot[1];
+        onEventThread(() -> snapshot[0] = document.content.snapshot());
+        // Nothing else saves meanwhile, so this thread may stand in for the save thread.
+        long[] offsets = DocumentSaver.write(snapshot[0], lineSeparator, Charset.defaultCharset(), target);
+        return offsets[offsets.length - 1];
+    }
+
+    @Override
+    public void close() {
+        onEventThread(() -> {
+            textArea = null;
+            if (document == null) {
+                return;
+            }
+            if (document.openWorker != null) {
+                document.openWorker.cancel(false);
+            }
+            if (document.largeFileView != null) {
+                document.largeFileView.close();
+            }
+            document.editJournal.discard();
+            document = null;
+        });
+    }
+
+    // Lays out a component tree the way validating the window would.
+    private static void layout(Container container) {
+        container.doLayout();
+        for (Component child : container.getComponents()) {
+            if (child instanceof Container) {
+                layout((Container) child);
+            }
+        }
+    }
+
+    // Runs 'task' on the event thread and waits for it.
+    private static void onEventThread(Runnable task) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            task.run();
+            return;
+        }
+        try {
+            SwingUtilities.invokeAndWait(task);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package notepadpro.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * 'Corpus' generates the text files the benchmarks open, from 1 KB to 1 GB.
+ *
+ * A corpus is ASCII text with "\n" line breaks: mostly lines of 20 to 100
+ * characters, some empty or indented lines, and every twentieth line a long
+ * paragraph of up to 2000 characters, which word wrap breaks into many rows.
+ * The text only depends on the size, so every run measures the same files.
+ * They are written to -Dnotepadpro.corpus=<dir> (by default "notepadpro-corpus"
+ * in the temporary directory) and reused as long as they have the right size.
+ */
+final class Corpus {
+
+    static final Path DIRECTORY = Paths.get(System.getProperty("notepadpro.corpus",
+            Paths.get(System.getProperty("java.io.tmpdir"), "notepadpro-corpus").toString()));
+
+    private static final String[] WORDS = { "the", "editor", "opens", "a", "file", "and", "saves", "it", "line",
+            "text", "word", "wrap", "font", "of", "to", "in", "document", "search", "replace", "template", "java",
+            "class", "public", "static", "void", "return", "if", "else", "for", "while", "new", "int", "String",
+            "value", "count", "index", "buffer", "piece", "table", "view", "layout", "paint", "row", "column" };
+
+    private Corpus() {
+    }
+
+    /**
+     * Returns the corpus of 'size' ("1KB", "64MB", "1GB", ...), generating it
+     * first if needed.
+     */
+    static Path file(String size) throws IOException {
+        long bytes = parseSize(size);
+        Path file = DIRECTORY.resolve("corpus-" + size + ".txt");
+        if (Files.isRegularFile(file) && Files.size(file) == bytes) {
+            return file;
+        }
+        Files.createDirectories(DIRECTORY);
+        Path temporary = Files.createTempFile(DIRECTORY, "corpus-" + size, ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16)) {
+            write(out, bytes);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        return file;
+    }
+
+    // "1KB" is 1024 bytes, "1MB" 1024 KB and "1GB" 1024 MB.
+    static long parseSize(String size) {
+        String unit = size.substring(size.length() - 2);
+        long number = Long.parseLong(size.substring(0, size.length() - 2));
+        switch (unit) {
+        case "KB":
+            return number << 10;
+        case "MB":
+            return number << 20;
+        case "GB":
+            return number << 30;
+        default:
+            throw new IllegalArgumentException("Unknown size: " + size);
+        }
+    }
+
+    // Writes exactly 'bytes' bytes of text, the last one being a line break.
+    private static void write(OutputStream out, long bytes) throws IOException {
+        Random random = new Random(bytes);
+        byte[] line = new byte[4096];
+        long written = 0;
+        for (int n = 0; written < bytes; n++) {
+            int length = 0;
+            int target = n % 20 == 19 ? 300 + random.nextInt(1700)
+                    : random.nextInt(10) == 0 ? 0 : 20 + random.nextInt(80);
+            if (target > 0 && random.nextInt(4) == 0) {
+                for (int i = 0; i < 4; i++) {
+                    line[length++] = ' ';
+                }
+            }
+            while (length < target) {
+                String word = WORDS[random.nextInt(WORDS.length)];
+                for (int i = 0; i < word.length(); i++) {
+                    line[length++] = (byte) word.charAt(i);
+                }
+                line[length++] = ' ';
+            }
+            line[length++] = '\n';
+            if (written + length >= bytes) {
+                length = (int) (bytes - written);
+                line[length - 1] = '\n';
+            }
+            out.write(line, 0, length);
+            written += length;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package notepadpro.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Typing into a loaded corpus: appending lines at the end and inserting
+ * characters at random places. Each invocation makes 'EDITS' edits in one
+ * trip to the event thread; the times are per edit. The corpus is loaded
+ * again before every iteration, so the edits never pile up.
+ *
+ * The text is stored either in the notepad's 'PieceTableContent' or in the
+ * 'GapContent' of Swing's 'PlainDocument', which the notepad used before
+ * (see 'Editor.load'); 512 MB is the size of the large logs the piece table
+ * was made for, loaded although the notepad opens it read-only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xmx4g" })
+public class EditBenchmark {
+
+    static final int EDITS = 100;
+
+    @Param({ "1KB", "1MB", "64MB", "512MB" })
+    public String size;
+
+    @Param({ "PieceTableContent", "GapContent" })
+    public String content;
+
+    private final Random random = new Random(42);
+    private final int[] offsets = new int[EDITS];
+    private Editor editor;
+
+    @Setup(Level.Trial)
+    public void createEditor() throws Exception {
+        editor = Editor.create();
+    }
+
+    @Setup(Level.Iteration)
+    public void load() throws Exception {
+        editor.load(Corpus.file(size), content);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EDITS)
+    public void append() {
+        editor.append("another line appended to the document\n", EDITS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EDITS)
+    public void insert() {
+        int length = editor.getLength();
+        for (int i = 0; i < EDITS; i++) {
+            offsets[i] = random.nextInt(length + 1);
+        }
+        editor.insert(offsets, "x");
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        editor.close();
+    }
+}
@@ -0,0 +1,114 @@
+package notepadpro.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * 'Editor' is the part of the notepad the benchmarks drive: one document, set
+ * up like a tab of the notepad window but without the window, whose text area
+ * is laid out in a viewport of 'VIEWPORT_WIDTH' x 'VIEWPORT_HEIGHT' pixels
+ * and painted into an image.
+ *
+ * The classes of the notepad live in the default package and JMH doesn't
+ * accept benchmarks there, so the benchmarks reach them through this
+ * interface, implemented by 'EditorFixture' in the default package.
+ *
+ * Every method does its work on the event thread, as the notepad does, and
+ * returns once it is done.
+ */
+public interface Editor {
+
+    int VIEWPORT_WIDTH = 1000;
+    int VIEWPORT_HEIGHT = 700;
+
+    /**
+     * Returns a new editor without a document; 'newDocument' adds one.
+     */
+    static Editor create() throws ReflectiveOperationException {
+        return (Editor) Class.forName("EditorFixture").getDeclaredConstructor().newInstance();
+    }
+
+    /**
+     * Replaces the document with an empty, untitled one.
+     */
+    void newDocument();
+
+    /**
+     * Opens 'file' in the document the way the notepad does: large files are
+     * memory-mapped, all others are loaded by a 'FileOpenWorker'. Returns once
+     * the whole text is in the document and the viewport is painted. The file
+     * must be ASCII text (as every 'Corpus' is), so its length in characters
+     * is its size.
+     */
+    void open(Path file) throws IOException, InterruptedException;
+
+    /**
+     * Replaces the document with one holding the text of 'file', stored in
+     * 'content': "PieceTableContent", as the notepad stores it, or
+     * "GapContent", the content of Swing's 'PlainDocument', which the text
+     * area of the notepad used before, in a plain text area. Unlike 'open',
+     * files above the large file threshold are loaded too, so they can be
+     * edited; the text is inserted in blocks that aren't journaled or
+     * undoable. Only 'getLength', 'append', 'insert' and 'close' work on a
+     * "GapContent" document.
+     */
+    void load(Path file, String content) throws IOException;
+
+    /**
+     * Returns the number of characters of the document.
+     */
+    int getLength();
+
+    /**
+     * Returns the number of lines of the document.
+     */
+    int getLineCount();
+
+    /**
+     * Scrolls the viewport to 'line' (0-based).
+     */
+    void showLine(int line);
+
+    /**
+     * Paints the viewport, as the screen is painted after every change.
+     */
+    void paint();
+
+    /**
+     * Turns word wrap on or off, then lays out and paints the viewport.
+     */
+    void setWordWrap(boolean wordWrap);
+
+    /**
+     * Changes the size of the font, then lays out and paints the viewport.
+     */
+    void setFontSize(int size);
+
+    /**
+     * Replaces the text with the boilerplate template of 'fileFormat', as the
+     * language menu does for an untitled document, then paints the viewport.
+     */
+    void insertTemplate(String fileFormat);
+
+    /**
+     * Appends 'text' to the document 'times' times.
+     */
+    void append(String text, int times);
+
+    /**
+     * Inserts 'text' at every offset of 'offsets', one after the other.
+     */
+    void insert(int[] offsets, String text);
+
+    /**
+     * Writes the document to 'target' as a save does on the save thread
+     * ('DocumentSaver.write'), with 'lineSeparator' for every line break.
+     * Returns the size of the written file.
+     */
+    long save(Path target, String lineSeparator) throws IOException;
+
+    /**
+     * Closes the document, deleting its edit journal.
+     */
+    void close();
+}
@@ -0,0 +1,77 @@
+package notepadpro.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Laying out an opened corpus, scrolled to its middle: turning word wrap on
+ * and off again, changing the font size, and jumping to a random line. Every
+ * change ends with painting the viewport.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xmx3g" })
+public class LayoutBenchmark {
+
+    @Param({ "1KB", "1MB", "64MB" })
+    public String size;
+
+    @Param({ "false", "true" })
+    public boolean wordWrap;
+
+    private final Random random = new Random(42);
+    private Editor editor;
+    private boolean larger;
+
+    @Setup(Level.Trial)
+    public void open() throws Exception {
+        editor = Editor.create();
+        editor.newDocument();
+        editor.open(Corpus.file(size));
+        editor.setWordWrap(wordWrap);
+        editor.showLine(editor.getLineCount() / 2);
+    }
+
+    /**
+     * Toggles word wrap twice, leaving it as it was; the time is for both.
+     */
+    @Benchmark
+    public void toggleWordWrap() {
+        editor.setWordWrap(!wordWrap);
+        editor.setWordWrap(wordWrap);
+    }
+
+    @Benchmark
+    public void changeFontSize() {
+        larger = !larger;
+        editor.setFontSize(larger ? 24 : 22);
+    }
+
+    @Benchmark
+    public void showRandomLine() {
+        editor.showLine(random.nextInt(editor.getLineCount()));
+        editor.paint();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        editor.close();
+    }
+}
@@ -0,0 +1,60 @@
+package notepadpro.benchmarks;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Opening a file, from the user's choice until its whole text is painted. The
+ * 1 GB corpus is above 'LargeFileView.LARGE_FILE_THRESHOLD' and is therefore
+ * memory-mapped; the others are loaded into a fresh document.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xmx3g" })
+public class OpenBenchmark {
+
+    @Param({ "1KB", "1MB", "64MB", "1GB" })
+    public String size;
+
+    private Path file;
+    private Editor editor;
+
+    @Setup(Level.Trial)
+    public void createCorpus() throws Exception {
+        file = Corpus.file(size);
+        editor = Editor.create();
+    }
+
+    @Setup(Level.Invocation)
+    public void newDocument() {
+        editor.newDocument();
+    }
+
+    @Benchmark
+    public int open() throws Exception {
+        editor.open(file);
+        return editor.getLength();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        editor.close();
+    }
+}
@@ -0,0 +1,70 @@
+package notepadpro.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Saving an opened corpus under a new name, as 'saveAs' and 'writeFile' do on
+ * the save thread: unmodified, after one edit in the middle, and converted to
+ * "\r\n" line breaks, which encodes every piece instead of copying it from the
+ * opened file. Every save is forced to disk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xmx3g" })
+public class SaveBenchmark {
+
+    @Param({ "1KB", "1MB", "64MB" })
+    public String size;
+
+    @Param({ "false", "true" })
+    public boolean edited;
+
+    private Path target;
+    private Editor editor;
+
+    @Setup(Level.Trial)
+    public void open() throws Exception {
+        editor = Editor.create();
+        editor.newDocument();
+        editor.open(Corpus.file(size));
+        if (edited) {
+            editor.insert(new int[] { editor.getLength() / 2 }, "edited\n");
+        }
+        target = Files.createTempFile(Corpus.DIRECTORY, "saved-" + size, ".txt");
+    }
+
+    @Benchmark
+    public long saveAs() throws Exception {
+        return editor.save(target, "\n");
+    }
+
+    @Benchmark
+    public long saveAsWindowsLineEndings() throws Exception {
+        return editor.save(target, "\r\n");
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        editor.close();
+        Files.deleteIfExists(target);
+    }
+}
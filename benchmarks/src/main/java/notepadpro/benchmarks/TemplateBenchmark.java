@@ -0,0 +1,51 @@
+package notepadpro.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Picking a language from the language menu for an untitled document: the
+ * boilerplate template replaces the text, highlighted in that language.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true" })
+public class TemplateBenchmark {
+
+    @Param({ "java", "c", "cpp", "html" })
+    public String fileFormat;
+
+    private Editor editor;
+
+    @Setup(Level.Trial)
+    public void newDocument() throws Exception {
+        editor = Editor.create();
+        editor.newDocument();
+    }
+
+    @Benchmark
+    public void insertTemplate() {
+        editor.insertTemplate(fileFormat);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        editor.close();
+    }
+}
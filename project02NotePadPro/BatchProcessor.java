@@ -0,0 +1,579 @@
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException; // Handles input/output exceptions.
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels; // Streams the files through a decoder and an encoder.
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor; // Processes the files in parallel, fed through a bounded queue.
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 'BatchProcessor' is the headless mode of the notepad, for scripting its
+ * operations over many files. 'NotepadUserAppDriver' runs it instead of
+ * opening a window when it is given options; it never touches AWT or Swing.
+ *
+ * The files named, and the files in the directories named (hidden
+ * directories and binary files are skipped), are processed in parallel by
+ * 'threads' workers. They are fed through a bounded queue, so walking a large
+ * tree never gets far ahead of them. Every file is streamed line by line:
+ * searched, its matches replaced, its line endings and charset converted, and
+ * written to a temporary file next to it, which replaces the file only if
+ * something changed. A file that doesn't decode in the source charset, or
+ * holds characters the target charset can't encode, is reported and left as
+ * it is. A line must fit in memory.
+ *
+ * Templates are written into the files named that are missing or empty, as
+ * the language menu writes them into a document.
+ *
+ * The path from 'run' to the first file avoids lambdas and string
+ * concatenation: bootstrapping them takes tens of milliseconds, more than the
+ * rest of the startup.
+ */
+final class BatchProcessor {
+
+    static final String USAGE = "usage: NotepadUserAppDriver [options] <file or directory>...\n"
+            + "  --find <text>            print the lines holding <text>, as <file>:<line>: <text>\n"
+            + "  --replace <text>         replace every match of --find with <text> instead\n"
+            + "  --regex                  --find is a regular expression; --replace may use $1, ${name}\n"
+            + "  --match-case             match upper and lower case exactly\n"
+            + "  --line-endings <ending>  convert the line endings to lf, crlf or cr\n"
+            + "  --from <charset>         the charset the files are in (default: the platform's)\n"
+            + "  --to <charset>           convert the files to <charset>\n"
+            + "  --template <language>    write the boilerplate of <language> (java, c, cpp, html, or auto\n"
+            + "                           for the language of each file's extension) into the files named\n"
+            + "                           that are missing or empty\n"
+            + "  --threads <n>            number of files processed at once (default: one per processor)\n"
+            + "  --help                   print this help\n"
+            + "Exits with 1 if a file failed, 2 if the options are wrong.";
+
+    // Number of characters decoded per read.
+    static final int BUFFER_SIZE = 1 << 16;
+
+    // Number of bytes sniffed for NUL bytes to detect binary files, as 'FindInFilesDialog' does.
+    static final int SNIFF_SIZE = 8192;
+
+    // Number of files queued per worker before the walk waits for them.
+    static final int QUEUED_PER_THREAD = 4;
+
+    // The matching lines of a file are printed in batches of about this many characters.
+    static final int LISTING_BATCH = 1 << 16;
+
+    private String find, replacement, template, lineSeparator;
+    private boolean regex, matchCase, help;
+    private Charset from = Charset.defaultCharset(), to;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private final List<Path> paths = new ArrayList<>();
+
+    // The search of --find, or null.
+    private DocumentSearch search;
+
+    // The matching lines go to standard output, buffered; 'System.out' flushes every line.
+    private final PrintStream out = new PrintStream(
+            new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+
+    private final AtomicInteger filesProcessed = new AtomicInteger(), filesChanged = new AtomicInteger(),
+            filesStamped = new AtomicInteger(), filesFailed = new AtomicInteger();
+    private final AtomicLong matchCount = new AtomicLong();
+
+    private BatchProcessor() {
+    }
+
+    /**
+     * Returns true if the arguments ask for the headless mode, i.e. hold an option.
+     */
+    static boolean isBatch(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the headless mode with the command line 'args'.
+     *
+     * @return The exit code: 0 on success, 1 if a file failed, 2 if the
+     *         options are wrong.
+     */
+    static int run(String[] args) {
+        BatchProcessor batch = new BatchProcessor();
+        try {
+            batch.parse(args);
+        } catch (IllegalArgumentException e) {
+            // Also thrown for invalid numbers, charsets and regular expressions.
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+        if (batch.help) {
+            System.out.println(USAGE);
+            return 0;
+        }
+        try {
+            return batch.process();
+        } catch (InterruptedException e) {
+            return 1;
+        }
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+            case "--find":
+                find = valueOf(args, ++i);
+                break;
+            case "--replace":
+                replacement = valueOf(args, ++i);
+                break;
+            case "--regex":
+                regex = true;
+                break;
+            case "--match-case":
+                matchCase = true;
+                break;
+            case "--line-endings":
+                lineSeparator = separatorOf(valueOf(args, ++i));
+                break;
+            case "--from":
+                from = Charset.forName(valueOf(args, ++i));
+                break;
+            case "--to":
+                to = Charset.forName(valueOf(args, ++i));
+                break;
+            case "--template":
+                template = valueOf(args, ++i);
+                break;
+            case "--threads":
+                threads = Integer.parseInt(valueOf(args, ++i));
+                if (threads < 1) {
+                    throw new IllegalArgumentException("--threads must be at least 1");
+                }
+                break;
+            case "--help":
+                help = true;
+                return;
+            default:
+                if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                }
+                paths.add(Paths.get(arg));
+            }
+        }
+        if (to == null) {
+            to = from;
+        }
+        if (replacement != null && find == null) {
+            throw new IllegalArgumentException("--replace needs --find");
+        }
+        if (find != null) {
+            if (find.isEmpty()) {
+                throw new IllegalArgumentException("--find needs a text to find");
+            }
+            search = regex ? DocumentSearch.forRegex(find, matchCase) : DocumentSearch.forLiteral(find, matchCase);
+        }
+        if (template != null && !template.equals("auto") && TemplateRegistry.get(template) == null) {
+            throw new IllegalArgumentException("No template for " + template);
+        }
+        if (!editsFiles() && template == null) {
+            throw new IllegalArgumentException("Nothing to do");
+        }
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("No files given");
+        }
+    }
+
+    // True if the files themselves are searched or converted, not only stamped.
+    private boolean editsFiles() {
+        return find != null || lineSeparator != null || !to.equals(from);
+    }
+
+    private static String valueOf(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(args[i - 1] + " needs a value");
+        }
+        return args[i];
+    }
+
+    private static String separatorOf(String ending) {
+        switch (ending.toLowerCase()) {
+        case "lf":
+            return "\n";
+        case "crlf":
+            return "\r\n";
+        case "cr":
+            return "\r";
+        default:
+            throw new IllegalArgumentException("Unknown line ending " + ending + " (lf, crlf or cr)");
+        }
+    }
+
+    /**
+     * Processes every file on the worker pool and prints a summary.
+     */
+    private int process() throws InterruptedException {
+        // When the queue is full the walk runs a file itself, which keeps it from getting ahead.
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUED_PER_THREAD * threads), new WorkerFactory(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        for (Path path : paths) {
+            if (template != null && isMissingOrEmpty(path)) {
+                workers.execute(new Task(path, true));
+            } else if (Files.isDirectory(path)) {
+                if (editsFiles()) {
+                    walk(path, workers);
+                }
+            } else if (Files.isRegularFile(path)) {
+                if (editsFiles()) {
+                    workers.execute(new Task(path, false));
+                }
+            } else {
+                fail(path, "no such file");
+            }
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        out.flush();
+        System.err.println(new StringBuilder().append(filesProcessed).append(" file(s) processed, ").append(matchCount)
+                .append(" match(es), ").append(filesChanged).append(" changed, ").append(filesStamped)
+                .append(" stamped, ").append(filesFailed).append(" failed"));
+        return filesFailed.get() > 0 ? 1 : 0;
+    }
+
+    private void walk(Path root, ThreadPoolExecutor workers) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    // Hidden directories (.git, ...) hold no files worth processing.
+                    String name = dir.getFileName() == null ? "" : dir.getFileName().toString();
+                    return !dir.equals(root) && name.startsWith(".") ? FileVisitResult.SKIP_SUBTREE
+                            : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    // The temporary files of the rewrites run meanwhile are passed over.
+                    if (attrs.isRegularFile() && attrs.size() > 0 && !DocumentSaver.isTemporaryFile(file)) {
+                        workers.execute(new Task(file, false));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // Such a temporary file may be gone by the time it is looked at.
+                    if (!DocumentSaver.isTemporaryFile(file)) {
+                        fail(file, e.toString());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            fail(root, e.toString());
+        }
+    }
+
+    /**
+     * 'Task' stamps or processes one file on a worker.
+     */
+    private final class Task implements Runnable {
+        private final Path file;
+        private final boolean stamp;
+
+        Task(Path file, boolean stamp) {
+            this.file = file;
+            this.stamp = stamp;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (stamp) {
+                    stamp(file);
+                } else {
+                    processFile(file);
+                }
+            } catch (RuntimeException e) {
+                // E.g. a replacement naming a group the expression doesn't have.
+                fail(file, e.toString());
+            }
+        }
+    }
+
+    /**
+     * 'WorkerFactory' names the worker threads; they are daemons so a failed
+     * run can't hang on them.
+     */
+    private static final class WorkerFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "NotepadPro-batch");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static boolean isMissingOrEmpty(Path path) {
+        try {
+            return !Files.exists(path) || Files.isRegularFile(path) && Files.size(path) == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void fail(Path file, String reason) {
+        filesFailed.incrementAndGet();
+        System.err.println(new StringBuilder().append(file).append(": ").append(reason));
+    }
+
+    /**
+     * Writes the template into a missing or empty file, in the line endings
+     * and charset asked for (the platform's by default).
+     */
+    private void stamp(Path file) {
+        String fileName = file.getFileName().toString();
+        String language = template.equals("auto") ? SyntaxLexer.languageOf(fileName) : template;
+        BoilerplateTemplate boilerplate = TemplateRegistry.get(language);
+        if (boilerplate == null) {
+            fail(file, "no template for " + language);
+            return;
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        String text = boilerplate.render(BoilerplateTemplate.valuesFor(fileName, directory.toString()));
+        String separator = lineSeparator != null ? lineSeparator : System.lineSeparator();
+        try {
+            Files.createDirectories(directory);
+            Files.writeString(file, separator.equals("\n") ? text : text.replace("\n", separator), to);
+            filesStamped.incrementAndGet();
+        } catch (CharacterCodingException e) {
+            fail(file, "the template holds characters " + to + " can't encode");
+        } catch (IOException e) {
+            fail(file, e.toString());
+        }
+    }
+
+    private void processFile(Path file) {
+        try {
+            new FileJob(file).run();
+        } catch (IOException e) {
+            // The reasons given by 'FileJob' are plain messages.
+            fail(file, e.getClass() == IOException.class ? e.getMessage() : e.toString());
+        }
+    }
+
+    /**
+     * 'FileJob' streams one file through the search, the replacement and the
+     * conversions, one line at a time.
+     */
+    private final class FileJob {
+        private final Path file;
+
+        // The line being read, without its separator, and its number.
+        private final StringBuilder line = new StringBuilder();
+        private long lineNumber;
+
+        // The matching lines not printed yet.
+        private final StringBuilder listing = new StringBuilder();
+
+        // The temporary file's writer, or null if the file is only searched.
+        private Writer writer;
+
+        // True once the text written differs from the text read.
+        private boolean changed;
+
+        FileJob(Path file) {
+            this.file = file;
+        }
+
+        void run() throws IOException {
+            boolean rewrite = replacement != null || lineSeparator != null || !to.equals(from);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (isBinary(channel)) {
+                    return;
+                }
+                filesProcessed.incrementAndGet();
+                Reader reader = Channels.newReader(channel, from.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT),
+                        -1);
+                if (!rewrite) {
+                    copyLines(reader);
+                    return;
+                }
+                // Written like a saved document: a link keeps pointing to the
+                // file, which keeps its permissions, and is forced to disk.
+                Path target = DocumentSaver.realPath(file);
+                Path temporary = DocumentSaver.createTemporaryFile(target);
+                try {
+                    try (FileChannel output = FileChannel.open(temporary, StandardOpenOption.WRITE);
+                            Writer written = Channels.newWriter(output, to.newEncoder()
+                                    .onMalformedInput(CodingErrorAction.REPORT)
+                                    .onUnmappableCharacter(CodingErrorAction.REPORT),
+                                    -1)) {
+                        writer = written;
+                        copyLines(reader);
+                        written.flush();
+                        output.force(true);
+                    }
+                    if (changed || !to.equals(from)) {
+                        DocumentSaver.moveAtomically(temporary, target);
+                        filesChanged.incrementAndGet();
+                    }
+                } finally {
+                    Files.deleteIfExists(temporary);
+                }
+            } finally {
+                flushListing();
+            }
+        }
+
+        // True if the first block of the file holds a NUL byte; the channel is rewound.
+        private boolean isBinary(FileChannel channel) throws IOException {
+            ByteBuffer bytes = ByteBuffer.allocate(SNIFF_SIZE);
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                // Read the first block.
+            }
+            channel.position(0);
+            for (int i = 0; i < bytes.position(); i++) {
+                if (bytes.get(i) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Reads the file line by line, passing every line with its separator
+         * ("\n", "\r\n", "\r", or "" for a last line without one) to 'endLine'.
+         */
+        private void copyLines(Reader reader) throws IOException {
+            char[] chars = new char[BUFFER_SIZE];
+            // True if the last block ended with a '\r', which may start a "\r\n".
+            boolean carriageReturn = false;
+            int n;
+            while ((n = read(reader, chars)) >= 0) {
+                int i = 0, start = 0;
+                if (carriageReturn && n > 0) {
+                    carriageReturn = false;
+                    if (chars[0] == '\n') {
+                        i = start = 1;
+                        endLine("\r\n");
+                    } else {
+                        endLine("\r");
+                    }
+                }
+                for (; i < n; i++) {
+                    char c = chars[i];
+                    if (c != '\n' && c != '\r') {
+                        continue;
+                    }
+                    line.append(chars, start, i - start);
+                    start = i + 1;
+                    if (c == '\n') {
+                        endLine("\n");
+                    } else if (i + 1 == n) {
+                        carriageReturn = true;
+                    } else if (chars[i + 1] == '\n') {
+                        endLine("\r\n");
+                        start = ++i + 1;
+                    } else {
+                        endLine("\r");
+                    }
+                }
+                line.append(chars, start, n - start);
+            }
+            if (carriageReturn) {
+                endLine("\r");
+            } else if (line.length() > 0) {
+                endLine("");
+            }
+        }
+
+        private int read(Reader reader, char[] chars) throws IOException {
+            try {
+                return reader.read(chars);
+            } catch (CharacterCodingException e) {
+                throw new IOException("not " + from + " text", e);
+            }
+        }
+
+        /**
+         * Searches 'line', replaces its matches and writes it with its
+         * separator, converted if asked to.
+         */
+        private void endLine(String separator) throws IOException {
+            lineNumber++;
+            CharSequence text = line;
+            if (search != null) {
+                StringBuilder replaced = null;
+                int count = 0, position = 0, copied = 0;
+                int[] match;
+                while (position <= line.length() && (match = search.findNext(line, position)) != null) {
+                    count++;
+                    if (replacement != null) {
+                        if (replaced == null) {
+                            replaced = new StringBuilder(line.length() + 16);
+                        }
+                        replaced.append(line, copied, match[0])
+                                .append(search.replacementFor(line, match[0], match[1], replacement));
+                        copied = match[1];
+                    }
+                    // An empty match moves on by one character.
+                    position = match[1] > match[0] ? match[1] : match[1] + 1;
+                }
+                if (count > 0) {
+                    matchCount.addAndGet(count);
+                    if (replaced != null) {
+                        text = replaced.append(line, copied, line.length());
+                        changed = true;
+                    } else {
+                        listing.append(file).append(':').append(lineNumber).append(": ").append(line).append('\n');
+                        if (listing.length() >= LISTING_BATCH) {
+                            flushListing();
+                        }
+                    }
+                }
+            }
+            if (writer != null) {
+                String written = lineSeparator != null && !separator.isEmpty() ? lineSeparator : separator;
+                try {
+                    writer.append(text).write(written);
+                } catch (CharacterCodingException e) {
+                    throw new IOException("holds characters " + to + " can't encode", e);
+                }
+                changed |= !written.equals(separator);
+            }
+            line.setLength(0);
+        }
+
+        private void flushListing() {
+            if (listing.length() > 0) {
+                synchronized (out) {
+                    out.append(listing);
+                }
+                listing.setLength(0);
+            }
+        }
+    }
+}
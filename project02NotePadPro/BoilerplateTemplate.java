@@ -0,0 +1,230 @@
+import java.io.File;
+import java.io.IOException; // Handles input/output exceptions.
+import java.nio.charset.Charset;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 'BoilerplateTemplate' is a boilerplate code template with placeholders,
+ * parsed once into a list of segments.
+ *
+ * A placeholder is written "${name}"; "$${" stands for a literal "${".
+ * Placeholders without a value are rendered as written, so code that uses
+ * the same notation itself (JavaScript, shell) comes out unchanged. The
+ * values 'valuesFor' provides are:
+ *
+ * - ${fileName}: the name of the file, e.g. "Main.java"
+ * - ${className}: the file name without its extension, as an identifier
+ * - ${package}: the package of the file's directory (below "src/main/java" or
+ *   "src"), or ""
+ * - ${packageDeclaration}: "package <package>;" and a blank line, or ""
+ * - ${date}: today's date, e.g. "2024-01-31"
+ * - ${author}: the name of the user
+ *
+ * Rendering only appends the literal segments and the values into one
+ * 'StringBuilder'; 'stampFiles' renders a template into many files in one
+ * batch, reusing that builder.
+ */
+final class BoilerplateTemplate {
+
+    // The literal text before each placeholder, then the text after the last one.
+    private final String[] literals;
+
+    // The placeholder names, and how each was written (rendered when it has no value).
+    private final String[] names;
+    private final String[] written;
+
+    // The length of the literal text, to size the output.
+    private final int literalLength;
+
+    private BoilerplateTemplate(List<String> literals, List<String> names, List<String> written) {
+        this.literals = literals.toArray(new String[0]);
+        this.names = names.toArray(new String[0]);
+        this.written = written.toArray(new String[0]);
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Parses 'text' into a template.
+     */
+    static BoilerplateTemplate compile(String text) {
+        List<String> literals = new ArrayList<>(), names = new ArrayList<>(), written = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int position = 0;
+        while (position < text.length()) {
+            int dollar = text.indexOf("${", position);
+            if (dollar < 0) {
+                break;
+            }
+            int close = text.indexOf('}', dollar + 2);
+            if (dollar > position && text.charAt(dollar - 1) == '$') {
+                // "$${" is an escaped "${".
+                literal.append(text, position, dollar - 1).append("${");
+                position = dollar + 2;
+            } else if (close < 0 || text.indexOf('\n', dollar) < close) {
+                // Not closed on its line: not a placeholder.
+                literal.append(text, position, dollar + 2);
+                position = dollar + 2;
+            } else {
+                literal.append(text, position, dollar);
+                literals.add(literal.toString());
+                literal.setLength(0);
+                names.add(text.substring(dollar + 2, close).trim());
+                written.add(text.substring(dollar, close + 1));
+                position = close + 1;
+            }
+        }
+        literal.append(text, position, text.length());
+        literals.add(literal.toString());
+        return new BoilerplateTemplate(literals, names, written);
+    }
+
+    /**
+     * Renders the template with 'values' (placeholder name to value).
+     */
+    String render(Map<String, String> values) {
+        StringBuilder out = new StringBuilder(literalLength + 16 * names.length);
+        renderTo(out, values);
+        return out.toString();
+    }
+
+    /**
+     * Appends the template rendered with 'values' to 'out'.
+     */
+    void renderTo(StringBuilder out, Map<String, String> values) {
+        for (int i = 0; i < names.length; i++) {
+            out.append(literals[i]);
+            String value = values.get(names[i]);
+            out.append(value != null ? value : written[i]);
+        }
+        out.append(literals[names.length]);
+    }
+
+    /**
+     * Returns the placeholder values for a file named 'fileName' in
+     * 'directory' (which may be null for an untitled file).
+     */
+    static Map<String, String> valuesFor(String fileName, String directory) {
+        Map<String, String> values = new HashMap<>();
+        String className = fileName.indexOf('.') > 0 ? fileName.substring(0, fileName.lastIndexOf('.')) : fileName;
+        String packageName = directory == null ? "" : packageOf(directory);
+        values.put("fileName", fileName);
+        values.put("className", identifier(className));
+        values.put("package", packageName);
+        values.put("packageDeclaration", packageName.isEmpty() ? "" : "package " + packageName + ";\n\n");
+        values.put("date", LocalDate.now().toString());
+        values.put("author", System.getProperty("user.name", ""));
+        return values;
+    }
+
+    // Turns a file name into a valid identifier.
+    private static String identifier(String name) {
+        StringBuilder identifier = new StringBuilder(name.length() + 1);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            identifier.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        if (identifier.length() == 0 || !Character.isJavaIdentifierStart(identifier.charAt(0))) {
+            identifier.insert(0, '_');
+        }
+        return identifier.toString();
+    }
+
+    // The package of a source directory: the folders below "src/main/java" or "src".
+    private static String packageOf(String directory) {
+        List<String> folders = Arrays.asList(directory.replace(File.separatorChar, '/').split("/"));
+        int root = folders.lastIndexOf("src");
+        int java = folders.lastIndexOf("java");
+        if (java >= 2 && folders.get(java - 1).equals("main") && folders.get(java - 2).equals("src")) {
+            root = java;
+        }
+        if (root < 0) {
+            return "";
+        }
+        StringBuilder packageName = new StringBuilder();
+        for (String folder : folders.subList(root + 1, folders.size())) {
+            if (folder.isEmpty()) {
+                continue;
+            }
+            if (!identifier(folder).equals(folder)) {
+                return "";
+            }
+            packageName.append(packageName.length() == 0 ? "" : ".").append(folder);
+        }
+        return packageName.toString();
+    }
+
+    /**
+     * Renders the template once per name into 'directory', as
+     * "<name><extension>", with the values of that file. Like the batch
+     * mode's --template ('BatchProcessor'), only missing or empty files are
+     * written; a file holding text is left as it is and reported.
+     *
+     * @return The number of files written.
+     * @throws IOException If a file can't be written; the files before it are kept.
+     */
+    int stampFiles(Path directory, String extension, Iterable<String> names) throws IOException {
+        Files.createDirectories(directory);
+        Charset charset = Charset.defaultCharset();
+        Map<String, String> values = valuesFor("untitled" + extension, directory.toAbsolutePath().toString());
+        StringBuilder out = new StringBuilder(literalLength + 256);
+        int count = 0;
+        for (String name : names) {
+            String fileName = name + extension;
+            // Only the values depending on the name change from file to file.
+            values.put("fileName", fileName);
+            values.put("className", identifier(name));
+            out.setLength(0);
+            renderTo(out, values);
+            Path file = directory.resolve(fileName);
+            byte[] text = out.toString().getBytes(charset);
+            try {
+                Files.write(file, text, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            } catch (FileAlreadyExistsException e) {
+                if (Files.size(file) > 0) {
+                    System.err.println(file + ": not empty, skipped");
+                    continue;
+                }
+                Files.write(file, text, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Batch mode: renders the template file 'args[0]' into the directory
+     * 'args[1]' once for every further argument, which names the file (and
+     * class) without its extension; the extension is the one of the template
+     * file's language ("javaBoilerPlateCode.txt" gives ".java").
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("usage: BoilerplateTemplate <template file> <output directory> <name>...");
+            System.exit(2);
+        }
+        Path templateFile = Paths.get(args[0]);
+        BoilerplateTemplate template = compile(new String(Files.readAllBytes(templateFile), Charset.defaultCharset())
+                .replace("\r\n", "\n"));
+        String language = templateFile.getFileName().toString();
+        language = language.endsWith(TemplateRegistry.SUFFIX)
+                ? language.substring(0, language.length() - TemplateRegistry.SUFFIX.length())
+                : "txt";
+        int count = template.stampFiles(Paths.get(args[1]), "." + language,
+                Arrays.asList(args).subList(2, args.length));
+        System.out.println(count + " file(s) written to " + args[1]);
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 'ConsoleBuffer' keeps the last lines written by the commands of a
+ * 'ConsolePane', in a ring of 'capacity' lines: once it is full, every new
+ * line replaces the oldest one. A command printing without end therefore
+ * costs a bounded amount of memory, at most 'capacity' lines of at most
+ * 'MAX_LINE_LENGTH' characters; longer lines are cut.
+ *
+ * The threads reading the output of a command append whole blocks of lines
+ * while the event thread paints, so every method holds the lock of the
+ * buffer, and only briefly.
+ */
+final class ConsoleBuffer {
+
+    // The kinds of lines: written to the standard output or error of a
+    // command, or by the console itself (commands, exit codes).
+    static final byte OUTPUT = 0;
+    static final byte ERROR = 1;
+    static final byte INFO = 2;
+
+    static final int MAX_LINE_LENGTH = 2000;
+
+    private final String[] lines;
+    private final byte[] kinds;
+
+    // The slot of the oldest line, and the number of lines kept.
+    private int first;
+    private int count;
+
+    // The length of the longest line appended since the last 'clear'.
+    private int longest;
+
+    // Counts the changes, so the console only repaints after one.
+    private long version;
+
+    ConsoleBuffer(int capacity) {
+        lines = new String[capacity];
+        kinds = new byte[capacity];
+    }
+
+    /**
+     * Appends 'line' (without its line break), replacing the oldest line if
+     * the buffer is full.
+     */
+    synchronized void append(String line, byte kind) {
+        add(line, kind);
+        version++;
+    }
+
+    /**
+     * Appends 'block' as 'append' appends every line of it, at once.
+     */
+    synchronized void append(List<String> block, byte kind) {
+        for (int i = 0; i < block.size(); i++) {
+            add(block.get(i), kind);
+        }
+        version++;
+    }
+
+    private void add(String line, byte kind) {
+        if (line.length() > MAX_LINE_LENGTH) {
+            line = line.substring(0, MAX_LINE_LENGTH);
+        }
+        int slot = (first + count) % lines.length;
+        if (count == lines.length) {
+            first = (first + 1) % lines.length;
+        } else {
+            count++;
+        }
+        lines[slot] = line;
+        kinds[slot] = kind;
+        longest = Math.max(longest, line.length());
+    }
+
+    /**
+     * Copies up to 'wanted' lines, from the 'from'th oldest line on, into
+     * 'into' and their kinds into 'kindsInto'.
+     *
+     * @return The number of lines copied.
+     */
+    synchronized int copy(int from, int wanted, String[] into, byte[] kindsInto) {
+        int copied = Math.max(0, Math.min(wanted, count - from));
+        for (int i = 0; i < copied; i++) {
+            int slot = (first + from + i) % lines.length;
+            into[i] = lines[slot];
+            kindsInto[i] = kinds[slot];
+        }
+        return copied;
+    }
+
+    synchronized int getLineCount() {
+        return count;
+    }
+
+    synchronized int getLongestLine() {
+        return longest;
+    }
+
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Removes all lines.
+     */
+    synchronized void clear() {
+        Arrays.fill(lines, null);
+        first = 0;
+        count = 0;
+        longest = 0;
+        version++;
+    }
+}
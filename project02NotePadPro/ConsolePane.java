@@ -0,0 +1,412 @@
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import javax.swing.JButton;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollBar;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * 'ConsolePane' runs commands in the directory of the selected document and
+ * shows what they write, below the documents.
+ *
+ * A line typed in the field at the bottom is run by the system's shell
+ * ("/bin/sh -c" or "cmd.exe /c"); the "shell" button starts the shell itself,
+ * and while a command runs, the lines typed are written to its standard input
+ * instead. "stop" ends the command and everything it started.
+ *
+ * The standard output and error of a command are read by a thread each, into
+ * a 'ConsoleBuffer' keeping the last 'CAPACITY' lines. The event thread never
+ * waits for a command: a timer looks for new lines 'REFRESH_MS' after the
+ * last look, and only the lines in the visible rows are painted. A command
+ * printing a million lines thus costs as much memory as 'CAPACITY' lines, and
+ * about 30 repaints a second. The text of a line only shows once its line
+ * break has been written.
+ */
+final class ConsolePane extends JPanel {
+
+    // -Dnotepadpro.consoleLines=<n> keeps more (or fewer) lines of output.
+    static final int CAPACITY = Integer.getInteger("notepadpro.consoleLines", 10000);
+
+    static final int REFRESH_MS = 33;
+
+    // Space around the lines.
+    static final int MARGIN = 4;
+
+    // Colours of the console and of its kinds of lines.
+    static final Color BACKGROUND = new Color(0x1E, 0x1E, 0x1E);
+    static final Color OUTPUT_COLOR = new Color(0xD4, 0xD4, 0xD4);
+    static final Color ERROR_COLOR = new Color(0xF4, 0x87, 0x71);
+    static final Color INFO_COLOR = new Color(0x6A, 0xB0, 0xF3);
+
+    static final boolean WINDOWS = System.getProperty("os.name").startsWith("Windows");
+
+    private final ConsoleBuffer buffer = new ConsoleBuffer(CAPACITY);
+    private final ConsoleView view = new ConsoleView();
+    private final JScrollPane scrollPane = new JScrollPane(view);
+    private final JTextField input = new JTextField();
+    private final JButton shellButton = new JButton("shell");
+    private final JButton stopButton = new JButton("stop");
+    private final JButton clearButton = new JButton("clear");
+    private final Timer refreshTimer = new Timer(REFRESH_MS, e -> refresh());
+
+    // The directory of the selected document, or null if it has none.
+    private final Supplier<String> directory;
+
+    // The running command and its standard input, or null; only touched on
+    // the event thread.
+    private Process process;
+    private Writer processInput;
+
+    // Called once the running command has ended, or null.
+    private Runnable whenFinished;
+
+    // The version of 'buffer' last shown.
+    private long shownVersion = -1;
+
+    /**
+     * Creates the console; commands run in the directory 'directory' returns
+     * when they start, or in the user's home directory if it returns null.
+     */
+    ConsolePane(Supplier<String> directory) {
+        super(new BorderLayout());
+        this.directory = directory;
+
+        scrollPane.getViewport().setBackground(BACKGROUND);
+        add(scrollPane, BorderLayout.CENTER);
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 4, 0));
+        buttons.add(shellButton);
+        buttons.add(stopButton);
+        buttons.add(clearButton);
+        JPanel commandLine = new JPanel(new BorderLayout(4, 0));
+        commandLine.add(new JLabel(" > "), BorderLayout.WEST);
+        commandLine.add(input, BorderLayout.CENTER);
+        commandLine.add(buttons, BorderLayout.EAST);
+        add(commandLine, BorderLayout.SOUTH);
+
+        input.setFont(view.getFont());
+        input.addActionListener(e -> {
+            String line = input.getText();
+            input.setText("");
+            if (process != null) {
+                write(line);
+            } else if (!line.isBlank()) {
+                run(line, shellCommand(line), null);
+            }
+        });
+        shellButton.addActionListener(e -> run(shellName(), List.of(shellName()), null));
+        stopButton.addActionListener(e -> stop());
+        clearButton.addActionListener(e -> buffer.clear());
+        stopButton.setEnabled(false);
+
+        setPreferredSize(new Dimension(600, 220));
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        refreshTimer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        refreshTimer.stop();
+        super.removeNotify();
+    }
+
+    /**
+     * Moves the focus to the command field.
+     */
+    void focusInput() {
+        input.requestFocusInWindow();
+    }
+
+    /**
+     * Returns whether a command is running.
+     */
+    boolean isRunning() {
+        return process != null;
+    }
+
+    /**
+     * Shows 'line' in the console, as a line of 'kind' ('ConsoleBuffer.OUTPUT',
+     * 'ERROR' or 'INFO').
+     */
+    void print(String line, byte kind) {
+        buffer.append(line, kind);
+    }
+
+    /**
+     * Ends the running command, if any; called when the window closes.
+     */
+    void close() {
+        stop();
+        refreshTimer.stop();
+    }
+
+    // The shell running the commands typed while nothing runs.
+    private static List<String> shellCommand(String command) {
+        return WINDOWS ? List.of("cmd.exe", "/c", command) : List.of("/bin/sh", "-c", command);
+    }
+
+    private static String shellName() {
+        if (WINDOWS) {
+            return "cmd.exe";
+        }
+        String shell = System.getenv("SHELL");
+        return shell != null ? shell : "/bin/sh";
+    }
+
+    /**
+     * Starts 'commandLine' in the directory of the selected document, shown as
+     * 'title', unless a command is running. 'whenFinished' (if not null) is
+     * called on the event thread once the command has ended or failed to
+     * start.
+     */
+    void run(String title, List<String> commandLine, Runnable whenFinished) {
+        if (process != null) {
+            return;
+        }
+        String address = directory.get();
+        File workingDirectory = new File(address != null ? address : System.getProperty("user.home"));
+        buffer.append("> " + title + "    (" + workingDirectory + ")", ConsoleBuffer.INFO);
+
+        ProcessBuilder builder = new ProcessBuilder(commandLine).directory(workingDirectory);
+        // There is no terminal: programs asking what it can do get a plain answer.
+        builder.environment().put("TERM", "dumb");
+        Process started;
+        try {
+            started = builder.start();
+        } catch (IOException e) {
+            buffer.append(String.valueOf(e.getMessage()), ConsoleBuffer.ERROR);
+            if (whenFinished != null) {
+                whenFinished.run();
+            }
+            return;
+        }
+        process = started;
+        this.whenFinished = whenFinished;
+        processInput = new OutputStreamWriter(started.getOutputStream(), Charset.defaultCharset());
+        stopButton.setEnabled(true);
+        shellButton.setEnabled(false);
+
+        Thread output = startReader(started.getInputStream(), ConsoleBuffer.OUTPUT, "NotepadPro-console-out");
+        Thread error = startReader(started.getErrorStream(), ConsoleBuffer.ERROR, "NotepadPro-console-err");
+
+        // The exit code is shown below the last lines of the command.
+        Thread waiter = new Thread(() -> {
+            try {
+                output.join();
+                error.join();
+                int exitCode = started.waitFor();
+                buffer.append("[exit code " + exitCode + "]", ConsoleBuffer.INFO);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            SwingUtilities.invokeLater(() -> finished(started));
+        }, "NotepadPro-console-wait");
+        waiter.setDaemon(true);
+        waiter.start();
+    }
+
+    private Thread startReader(InputStream stream, byte kind, String name) {
+        Thread reader = new Thread(() -> drain(stream, kind, buffer), name);
+        reader.setDaemon(true);
+        reader.start();
+        return reader;
+    }
+
+    /**
+     * Reads 'stream' until its end, appending every block read to 'buffer' as
+     * lines of 'kind'. A line is cut at 'MAX_LINE_LENGTH' characters while it
+     * is read, so output without line breaks takes no more memory than a line.
+     */
+    static void drain(InputStream stream, byte kind, ConsoleBuffer buffer) {
+        char[] chars = new char[8192];
+        StringBuilder line = new StringBuilder();
+        List<String> block = new ArrayList<>();
+        try (Reader reader = new InputStreamReader(stream, Charset.defaultCharset())) {
+            int read;
+            while ((read = reader.read(chars)) >= 0) {
+                for (int i = 0; i < read; i++) {
+                    char c = chars[i];
+                    if (c == '\n') {
+                        block.add(line.toString());
+                        line.setLength(0);
+                    } else if (c != '\r' && line.length() < ConsoleBuffer.MAX_LINE_LENGTH) {
+                        line.append(c);
+                    }
+                }
+                if (!block.isEmpty()) {
+                    buffer.append(block, kind);
+                    block.clear();
+                }
+            }
+        } catch (IOException e) {
+            // The command was stopped.
+        }
+        if (line.length() > 0) {
+            buffer.append(line.toString(), kind);
+        }
+    }
+
+    // Writes 'line' to the standard input of the running command.
+    private void write(String line) {
+        buffer.append(line, ConsoleBuffer.INFO);
+        try {
+            processInput.write(line);
+            processInput.write(System.lineSeparator());
+            processInput.flush();
+        } catch (IOException e) {
+            buffer.append("The command doesn't read its input any more.", ConsoleBuffer.ERROR);
+        }
+    }
+
+    private void stop() {
+        if (process != null) {
+            process.descendants().forEach(ProcessHandle::destroy);
+            process.destroy();
+        }
+    }
+
+    private void finished(Process ended) {
+        if (process != ended) {
+            return;
+        }
+        try {
+            processInput.close();
+        } catch (IOException e) {
+            // The command has ended; nothing reads it any more.
+        }
+        process = null;
+        processInput = null;
+        stopButton.setEnabled(false);
+        shellButton.setEnabled(true);
+        if (whenFinished != null) {
+            Runnable finishing = whenFinished;
+            whenFinished = null;
+            finishing.run();
+        }
+    }
+
+    // Called by 'refreshTimer': resizes and repaints the lines if any came in,
+    // keeping the last line in sight if it was.
+    private void refresh() {
+        long version = buffer.getVersion();
+        if (version == shownVersion) {
+            return;
+        }
+        shownVersion = version;
+        JScrollBar bar = scrollPane.getVerticalScrollBar();
+        boolean following = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - view.lineHeight();
+        view.revalidate();
+        view.repaint();
+        if (following) {
+            // After the layout, which 'revalidate' has queued.
+            SwingUtilities.invokeLater(() -> view.scrollRectToVisible(new Rectangle(0, view.getHeight() - 1, 1, 1)));
+        }
+    }
+
+    /**
+     * 'ConsoleView' paints the lines of the buffer, one row each, as the view
+     * of the scroll pane. It is as high as all the lines but only copies and
+     * paints those inside the clip.
+     */
+    private final class ConsoleView extends JComponent implements Scrollable {
+
+        private String[] rows = new String[0];
+        private byte[] rowKinds = new byte[0];
+
+        ConsoleView() {
+            setOpaque(true);
+            setBackground(BACKGROUND);
+            setFont(FontCache.get(Font.MONOSPACED, Font.PLAIN, 14));
+        }
+
+        int lineHeight() {
+            return FontCache.metrics(getFont()).getHeight();
+        }
+
+        @Override
+        public Dimension getPreferredSize() {
+            FontMetrics metrics = FontCache.metrics(getFont());
+            return new Dimension(2 * MARGIN + buffer.getLongestLine() * metrics.charWidth('m'),
+                    2 * MARGIN + buffer.getLineCount() * metrics.getHeight());
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            Rectangle clip = g.getClipBounds();
+            g.setColor(getBackground());
+            g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+            FontMetrics metrics = FontCache.metrics(getFont());
+            int height = metrics.getHeight();
+            int first = Math.max(0, (clip.y - MARGIN) / height);
+            int count = (clip.y + clip.height - MARGIN) / height - first + 1;
+            if (rows.length < count) {
+                rows = new String[count];
+                rowKinds = new byte[count];
+            }
+            int copied = buffer.copy(first, count, rows, rowKinds);
+            g.setFont(getFont());
+            for (int i = 0; i < copied; i++) {
+                byte kind = rowKinds[i];
+                g.setColor(kind == ConsoleBuffer.ERROR ? ERROR_COLOR
+                        : kind == ConsoleBuffer.INFO ? INFO_COLOR : OUTPUT_COLOR);
+                g.drawString(rows[i], MARGIN, MARGIN + (first + i) * height + metrics.getAscent());
+            }
+        }
+
+        @Override
+        public Dimension getPreferredScrollableViewportSize() {
+            return getPreferredSize();
+        }
+
+        @Override
+        public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return orientation == SwingConstants.VERTICAL ? lineHeight() : FontCache.metrics(getFont()).charWidth('m');
+        }
+
+        @Override
+        public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+        }
+
+        // The view fills the viewport when its lines are shorter or fewer.
+        @Override
+        public boolean getScrollableTracksViewportWidth() {
+            return getParent().getWidth() > getPreferredSize().width;
+        }
+
+        @Override
+        public boolean getScrollableTracksViewportHeight() {
+            return getParent().getHeight() > getPreferredSize().height;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+import java.io.IOException; // Handles input/output exceptions.
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel; // Writes the encoded bytes and forces them to disk.
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder; // Encodes the document segments without building a String.
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities; // Hands the result of a save back to the event thread.
+
+/**
+ * 'DocumentSaver' writes document snapshots to disk on a dedicated save thread.
+ *
+ * A save never builds the whole text as a String: the snapshot segments of the
+ * 'PieceTableContent' are encoded straight into a reused direct buffer by a
+ * reused 'CharsetEncoder' and written to a 'FileChannel'. The bytes go to a
+ * temporary file next to the target, which is forced to disk and then moved
+ * over the target atomically, so a crash in the middle of a save leaves the
+ * previous version of the file intact. The temporary file takes the
+ * permissions and owner of the file it replaces, and a symbolic link is
+ * followed, so the file it points to is replaced and the link stays.
+ *
+ * Saves run one after the other, in the order they were requested.
+ */
+final class DocumentSaver {
+
+    // Size of the reused buffer the encoder writes into.
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The single save thread. It isn't a daemon, so a save requested right
+     * before the last window closes still completes, but it ends after a
+     * second of idleness so it never keeps the application alive on its own.
+     */
+    private static final ThreadPoolExecutor SAVE_THREAD = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> new Thread(runnable, "NotepadPro-save"));
+
+    static {
+        SAVE_THREAD.allowCoreThreadTimeOut(true);
+    }
+
+    // The encoder and buffer reused by every save; only touched by the save thread.
+    private static CharsetEncoder encoder;
+    private static final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    // A high surrogate left over at the end of a segment, waiting for its low surrogate.
+    private static final CharBuffer carry = CharBuffer.allocate(2);
+
+    private DocumentSaver() {
+    }
+
+    /**
+     * Saves a document snapshot to 'target' on the save thread.
+     * The callbacks are invoked on the event thread once the save is done;
+     * after a successful save the content is rebased onto the written file, so
+     * the next save can copy everything that stays untouched from it.
+     *
+     * @param content       The content the snapshot was taken from.
+     * @param snapshot      The snapshot of the document (see 'PieceTableContent.snapshot').
+     * @param lineSeparator The line separator written for every '\n' of the document.
+     * @param target        The file to write.
+     * @param onSaved       Called after the file was written successfully.
+     * @param onFailed      Called with the error if the file could not be written.
+     */
+    static void save(PieceTableContent content, PieceTableContent.Snapshot snapshot, String lineSeparator,
+            Path target, Runnable onSaved, Consumer<IOException> onFailed) {
+        Charset charset = Charset.defaultCharset();
+        SAVE_THREAD.execute(() -> {
+            try {
+                long[] offsets = write(snapshot, lineSeparator, charset, target);
+                PieceTableContent.SourceFile written = PieceTableContent.SourceFile.of(target, charset,
+                        lineSeparator);
+                SwingUtilities.invokeLater(() -> {
+                    try {
+                        content.rebase(snapshot, offsets, written);
+                    } catch (RuntimeException e) {
+                        // The file is written; the pieces keep their old source, so the next save encodes them.
+                        e.printStackTrace();
+                    }
+                    onSaved.run();
+                });
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> onFailed.accept(e));
+            } catch (RuntimeException e) {
+                // Not expected, but the user must still learn the file wasn't saved.
+                IOException failure = new IOException(e.toString(), e);
+                SwingUtilities.invokeLater(() -> onFailed.accept(failure));
+            }
+        });
+    }
+
+    /**
+     * Writes a document snapshot to 'target' atomically: the bytes are written
+     * to a temporary file in the same directory (see 'createTemporaryFile'),
+     * forced to disk, and the temporary file is then renamed over the target.
+     *
+     * Pieces still holding the bytes of the snapshot's source file (the file
+     * that was opened or last saved) are copied from it with
+     * 'FileChannel.transferTo', which stays inside the kernel and needs no
+     * decoding or encoding; only modified pieces are encoded. This requires the
+     * source file to be unchanged on disk and to use the same charset and line
+     * separator, otherwise every piece is encoded.
+     * Must only be called on the save thread.
+     *
+     * @return The byte offset at which each piece was written, followed by the
+     *         total size of the file.
+     */
+    static long[] write(PieceTableContent.Snapshot snapshot, String lineSeparator, Charset charset, Path target)
+            throws IOException {
+        PieceTableContent.SourceFile source = snapshot.source;
+        boolean copyFromSource = source != null && source.charset.equals(charset)
+                && source.getLineSeparator().equals(lineSeparator) && source.isUnchangedOnDisk();
+        long[] offsets = new long[snapshot.pieces.size() + 1];
+
+        target = realPath(target);
+        Path temporary = createTemporaryFile(target);
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+                    FileChannel sourceChannel = copyFromSource
+                            ? FileChannel.open(source.path, StandardOpenOption.READ)
+                            : null) {
+                CharsetEncoder encoder = encoderFor(charset);
+                CharBuffer separator = CharBuffer.wrap(lineSeparator);
+                buffer.clear();
+                carry.clear();
+                long position = 0;
+                for (int i = 0; i < snapshot.pieces.size(); i++) {
+                    PieceTableContent.Piece piece = snapshot.pieces.get(i);
+                    offsets[i] = position;
+                    if (copyFromSource && snapshot.isFromSource(piece)) {
+                        // Unchanged text: copy its bytes from the source file.
+                        finishEncoding(encoder, channel);
+                        encoder.reset();
+                        transfer(sourceChannel, piece.sourceOffset, piece.sourceLength, channel);
+                    } else {
+                        encodeSegment(snapshot.text(piece), separator, encoder, channel);
+                    }
+                    position = channel.position() + buffer.position();
+                }
+                finishEncoding(encoder, channel);
+                offsets[offsets.length - 1] = channel.position();
+                channel.force(true);
+            }
+            moveAtomically(temporary, target);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return offsets;
+    }
+
+    /**
+     * Flushes whatever the encoder still holds (e.g. a pending surrogate) and
+     * writes the buffered bytes to the channel.
+     */
+    private static void finishEncoding(CharsetEncoder encoder, FileChannel channel) throws IOException {
+        encode(CharBuffer.allocate(0), encoder, channel, true);
+        while (encoder.flush(buffer).isOverflow()) {
+            drain(channel);
+        }
+        drain(channel);
+    }
+
+    /**
+     * Copies 'count' bytes starting at 'offset' of the source channel to the
+     * end of the target channel.
+     */
+    private static void transfer(FileChannel source, long offset, long count, FileChannel target)
+            throws IOException {
+        long end = offset + count;
+        while (offset < end) {
+            long copied = source.transferTo(offset, end - offset, target);
+            if (copied <= 0) {
+                throw new IOException("Source file ended before " + end);
+            }
+            offset += copied;
+        }
+    }
+
+    /**
+     * Encodes one segment, writing 'separator' in place of every '\n'.
+     * When the separator is "\n" itself the segment is encoded in one go.
+     */
+    private static void encodeSegment(CharBuffer segment, CharBuffer separator, CharsetEncoder encoder,
+            FileChannel channel) throws IOException {
+        if (separator.length() == 1 && separator.get(0) == '\n') {
+            encode(segment, encoder, channel, false);
+            return;
+        }
+        int end = segment.limit();
+        for (int i = segment.position(); i < end; i++) {
+            if (segment.get(i) == '\n') {
+                segment.limit(i);
+                encode(segment, encoder, channel, false);
+                encode(separator.duplicate(), encoder, channel, false);
+                segment.limit(end);
+                segment.position(i + 1);
+            }
+        }
+        encode(segment, encoder, channel, false);
+    }
+
+    /**
+     * Encodes all remaining characters of 'in', writing the buffer to the
+     * channel every time it fills up.
+     *
+     * The encoder leaves a high surrogate at the end of the input unconsumed,
+     * since its low surrogate may start the next segment. Such a character is
+     * kept in 'carry' and encoded together with the start of the next segment.
+     */
+    private static void encode(CharBuffer in, CharsetEncoder encoder, FileChannel channel, boolean endOfInput)
+            throws IOException {
+        while (carry.position() > 0 && (in.hasRemaining() || endOfInput)) {
+            if (in.hasRemaining()) {
+                carry.put(in.get());
+            }
+            boolean last = endOfInput && !in.hasRemaining();
+            carry.flip();
+            encodeChars(carry, encoder, channel, last);
+            carry.compact();
+            if (last) {
+                break;
+            }
+        }
+        encodeChars(in, encoder, channel, endOfInput);
+        if (in.hasRemaining()) {
+            carry.put(in);
+        }
+    }
+
+    /**
+     * Runs the encoder over 'in' until it needs more input.
+     */
+    private static void encodeChars(CharBuffer in, CharsetEncoder encoder, FileChannel channel, boolean endOfInput)
+            throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(in, buffer, endOfInput);
+            if (result.isOverflow()) {
+                drain(channel);
+            } else if (result.isUnderflow()) {
+                return;
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    /**
+     * Writes the encoded bytes held in the buffer to the channel and clears it.
+     */
+    private static void drain(FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns the reused encoder, replacing it only when the charset changes.
+     * Characters the charset cannot represent are replaced, as 'FileWriter' did.
+     */
+    private static CharsetEncoder encoderFor(Charset charset) {
+        if (encoder == null || !encoder.charset().equals(charset)) {
+            encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        return encoder.reset();
+    }
+
+    /**
+     * Returns the file 'target' names once symbolic links are followed, so
+     * that replacing it keeps the links. A link to a file that doesn't exist
+     * yet is followed too.
+     */
+    static Path realPath(Path target) throws IOException {
+        target = target.toAbsolutePath();
+        if (Files.exists(target)) {
+            return target.toRealPath();
+        }
+        // Bounded, in case the links form a loop.
+        for (int i = 0; i < 40 && Files.isSymbolicLink(target); i++) {
+            target = target.getParent().resolve(Files.readSymbolicLink(target)).normalize();
+        }
+        return target;
+    }
+
+    /**
+     * Creates an empty temporary file in the directory of 'target', to be
+     * renamed over it by 'moveAtomically'. If 'target' exists, the temporary
+     * file takes its POSIX permissions, owner and group (the owner only if
+     * the process may give files away); otherwise it gets the permissions of
+     * any new file, unlike 'Files.createTempFile', which only lets the owner
+     * read it.
+     *
+     * @param target The real path of the file to replace (see 'realPath').
+     */
+    static Path createTemporaryFile(Path target) throws IOException {
+        Path directory = target.getParent();
+        Path temporary;
+        while (true) {
+            try {
+                temporary = Files.createFile(directory.resolve("." + target.getFileName()
+                        + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + ".tmp"));
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // Try another name.
+            }
+        }
+        PosixFileAttributeView original = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (original == null || !Files.exists(target)) {
+            return temporary;
+        }
+        try {
+            PosixFileAttributes attributes = original.readAttributes();
+            PosixFileAttributeView copy = Files.getFileAttributeView(temporary, PosixFileAttributeView.class);
+            // The owner before the permissions, since changing it may clear the set-user-ID bit.
+            try {
+                if (!attributes.owner().equals(Files.getOwner(temporary))) {
+                    copy.setOwner(attributes.owner());
+                }
+                copy.setGroup(attributes.group());
+            } catch (IOException e) {
+                // Only the superuser may give files away; the file then belongs to the user saving it.
+            }
+            copy.setPermissions(attributes.permissions());
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        return temporary;
+    }
+
+    /**
+     * Returns true if 'file' is named like the files 'createTemporaryFile'
+     * creates (".<name><number>.tmp"), e.g. so a walk over a directory being
+     * rewritten passes over them.
+     */
+    static boolean isTemporaryFile(Path file) {
+        String name = file.getFileName().toString();
+        int end = name.length() - ".tmp".length();
+        return name.length() >= ".x0.tmp".length() && name.charAt(0) == '.' && name.endsWith(".tmp")
+                && Character.isDigit(name.charAt(end - 1));
+    }
+
+    /**
+     * Renames 'source' over 'target', atomically when the file system allows
+     * it, and forces the directory to disk, so the rename survives a crash.
+     */
+    static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        try (FileChannel directory = FileChannel.open(target.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // Some systems (Windows) can't open a directory; their rename is as durable as it gets.
+        }
+    }
+}
@@ -0,0 +1,294 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool; // Searches the chunks of a large document in parallel.
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern; // Regular expressions are matched on the text view directly.
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 'DocumentSearch' finds a literal text or a regular expression in a
+ * document snapshot, reading the piece table buffers through a
+ * 'PieceTableContent.SnapshotText' instead of copying the text with
+ * 'getText()'.
+ *
+ * Literals are found with the Boyer-Moore-Horspool algorithm, regular
+ * expressions with 'java.util.regex'. 'findAll' splits large documents into
+ * chunks that are searched in parallel on the common 'ForkJoinPool'; the
+ * chunks overlap enough for matches crossing a chunk boundary to be found.
+ * The results are merged so that they are exactly the matches a single
+ * left-to-right search would report.
+ */
+final class DocumentSearch {
+
+    // Number of characters per chunk of a parallel search.
+    static final int CHUNK_SIZE = 1 << 20;
+
+    // Number of characters a regular expression match may extend past its chunk.
+    static final int REGEX_OVERLAP = 1 << 16;
+
+    /**
+     * 'Matches' holds the start and end offsets of the matches found.
+     */
+    static final class Matches {
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int count;
+
+        void add(int start, int end) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+    }
+
+    // The regular expression, or null for a literal search.
+    private final Pattern pattern;
+
+    // The literal searched for (case folded unless 'matchCase') and its Horspool shift table.
+    private final char[] literal;
+    private final boolean matchCase;
+    private final int[] shifts = new int[256];
+
+    private DocumentSearch(Pattern pattern, String literal, boolean matchCase) {
+        this.pattern = pattern;
+        this.matchCase = matchCase;
+        this.literal = literal == null ? null : literal.toCharArray();
+        if (this.literal != null) {
+            int m = this.literal.length;
+            for (int i = 0; i < m; i++) {
+                this.literal[i] = fold(this.literal[i]);
+            }
+            Arrays.fill(shifts, m);
+            // Characters sharing a table slot keep the smallest shift, which is always safe.
+            for (int i = 0; i < m - 1; i++) {
+                shifts[this.literal[i] & 0xFF] = m - 1 - i;
+            }
+        }
+    }
+
+    /**
+     * Creates a search for the literal 'text', which must not be empty.
+     */
+    static DocumentSearch forLiteral(String text, boolean matchCase) {
+        return new DocumentSearch(null, text, matchCase);
+    }
+
+    /**
+     * Creates a search for the regular expression 'regex'.
+     *
+     * @throws PatternSyntaxException If the expression is invalid.
+     */
+    static DocumentSearch forRegex(String regex, boolean matchCase) {
+        int flags = Pattern.MULTILINE | (matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        return new DocumentSearch(Pattern.compile(regex, flags), null, matchCase);
+    }
+
+    boolean isRegex() {
+        return pattern != null;
+    }
+
+    /**
+     * Returns the first match starting at or after 'from' as {start, end}, or
+     * null if there is none.
+     */
+    int[] findNext(CharSequence text, int from) {
+        if (pattern != null) {
+            Matcher matcher = matcher(text, from, text.length());
+            return matcher.find() ? new int[] { matcher.start(), matcher.end() } : null;
+        }
+        int start = indexOf(text, from, text.length());
+        return start < 0 ? null : new int[] { start, start + literal.length };
+    }
+
+    /**
+     * Returns every match in 'text', in order and without overlaps. Large
+     * texts are searched chunk by chunk in parallel.
+     */
+    Matches findAll(PieceTableContent.SnapshotText text) throws InterruptedException {
+        int length = text.length();
+        if (length <= 2 * CHUNK_SIZE) {
+            return findInChunk(text, 0, length);
+        }
+        List<Callable<Matches>> chunks = new ArrayList<>();
+        for (int from = 0; from < length; from += CHUNK_SIZE) {
+            int chunkStart = from, chunkEnd = Math.min(length, from + CHUNK_SIZE);
+            chunks.add(() -> findInChunk(text.view(), chunkStart, chunkEnd));
+        }
+        List<Future<Matches>> results = ForkJoinPool.commonPool().invokeAll(chunks);
+        Matches all = new Matches();
+        try {
+            for (Future<Matches> result : results) {
+                Matches chunk = result.get();
+                for (int i = 0; i < chunk.count; i++) {
+                    all.add(chunk.starts[i], chunk.ends[i]);
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return merge(text, all);
+    }
+
+    /**
+     * Returns the replacement text for the match between 'start' and 'end':
+     * 'replacement' itself for a literal search, or 'replacement' with its
+     * group references ($1, ${name}) expanded for a regular expression.
+     */
+    String replacementFor(CharSequence text, int start, int end, String replacement) {
+        if (pattern == null) {
+            return replacement;
+        }
+        Matcher matcher = matcher(text, start, text.length());
+        if (!matcher.lookingAt() || matcher.end() != end) {
+            return replacement;
+        }
+        StringBuilder expanded = new StringBuilder();
+        for (int i = 0; i < replacement.length(); i++) {
+            char c = replacement.charAt(i);
+            if (c == '\\' && i + 1 < replacement.length()) {
+                expanded.append(replacement.charAt(++i));
+            } else if (c == '$' && i + 1 < replacement.length()) {
+                String group;
+                if (replacement.charAt(i + 1) == '{' && replacement.indexOf('}', i) > 0) {
+                    group = matcher.group(replacement.substring(i + 2, replacement.indexOf('}', i)));
+                    i = replacement.indexOf('}', i);
+                } else if (Character.isDigit(replacement.charAt(i + 1))) {
+                    int number = replacement.charAt(++i) - '0';
+                    // Take more digits while they still name an existing group.
+                    while (i + 1 < replacement.length() && Character.isDigit(replacement.charAt(i + 1))
+                            && number * 10 + replacement.charAt(i + 1) - '0' <= matcher.groupCount()) {
+                        number = number * 10 + replacement.charAt(++i) - '0';
+                    }
+                    group = number <= matcher.groupCount() ? matcher.group(number) : "";
+                } else {
+                    group = "$";
+                }
+                expanded.append(group == null ? "" : group);
+            } else {
+                expanded.append(c);
+            }
+        }
+        return expanded.toString();
+    }
+
+    /**
+     * Finds the matches starting between 'from' and 'to', one after the other.
+     * A match may end after 'to'.
+     */
+    private Matches findInChunk(CharSequence text, int from, int to) {
+        Matches matches = new Matches();
+        if (pattern != null) {
+            int limit = (int) Math.min(text.length(), (long) to + REGEX_OVERLAP);
+            // The last chunk also takes an empty match at the very end of the text.
+            int lastStart = to == text.length() ? to : to - 1;
+            Matcher matcher = matcher(text, from, limit);
+            while (matcher.find() && matcher.start() <= lastStart) {
+                int start = matcher.start(), end = matcher.end();
+                if (matcher.hitEnd() && limit < text.length()) {
+                    // Matching looked at the end of the overlap, so the match might be longer;
+                    // 'a(b*c)?' stops short of it when the run of 'b' is cut off there.
+                    Matcher whole = matcher(text, start, text.length());
+                    whole.lookingAt();
+                    end = whole.end();
+                }
+                matches.add(start, end);
+                int next = end == start ? end + 1 : end;
+                if (next > limit) {
+                    break;
+                }
+                matcher.region(next, limit);
+            }
+        } else {
+            int start = indexOf(text, from, to + literal.length - 1);
+            while (start >= 0) {
+                matches.add(start, start + literal.length);
+                start = indexOf(text, start + literal.length, to + literal.length - 1);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Drops the chunk matches a single left-to-right search wouldn't report:
+     * a match running into the next chunk hides the matches it overlaps there,
+     * and the search continues after it. Where the chunk results disagree with
+     * that, the search is redone sequentially until both agree again.
+     */
+    private Matches merge(CharSequence text, Matches found) {
+        Matches merged = new Matches();
+        int i = 0, position = 0;
+        boolean synced = true;
+        while (true) {
+            if (synced) {
+                if (i == found.count) {
+                    break;
+                }
+                if (found.starts[i] >= position) {
+                    merged.add(found.starts[i], found.ends[i]);
+                    position = found.ends[i] == found.starts[i] ? found.ends[i] + 1 : found.ends[i];
+                    i++;
+                    continue;
+                }
+                synced = false;
+            }
+            int[] match = position <= text.length() ? findNext(text, position) : null;
+            if (match == null) {
+                break;
+            }
+            while (i < found.count && found.starts[i] < match[0]) {
+                i++;
+            }
+            merged.add(match[0], match[1]);
+            position = match[1] == match[0] ? match[1] + 1 : match[1];
+            if (i < found.count && found.starts[i] == match[0] && found.ends[i] == match[1]) {
+                i++;
+                synced = true;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Returns the start of the first occurrence of the literal that starts at
+     * or after 'from' and ends at or before 'to', or -1, using the
+     * Boyer-Moore-Horspool algorithm.
+     */
+    private int indexOf(CharSequence text, int from, int to) {
+        int m = literal.length;
+        to = Math.min(to, text.length());
+        char last = literal[m - 1];
+        int position = from;
+        while (position + m <= to) {
+            char c = fold(text.charAt(position + m - 1));
+            if (c == last) {
+                int k = m - 2;
+                while (k >= 0 && fold(text.charAt(position + k)) == literal[k]) {
+                    k--;
+                }
+                if (k < 0) {
+                    return position;
+                }
+            }
+            position += shifts[c & 0xFF];
+        }
+        return -1;
+    }
+
+    private char fold(char c) {
+        return matchCase ? c : Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    // A matcher over 'text' looking at the region between 'from' and 'to' only,
+    // while anchors and look-arounds still see the text around it.
+    private Matcher matcher(CharSequence text, int from, int to) {
+        return pattern.matcher(text).region(from, to).useTransparentBounds(true).useAnchoringBounds(false);
+    }
+}
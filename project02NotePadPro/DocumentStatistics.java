@@ -0,0 +1,126 @@
+import java.util.List;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener; // Applies the counts of every edit.
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Segment;
+
+/**
+ * 'DocumentStatistics' keeps the character and word counts of a document for
+ * the status bar, without ever reading the whole text.
+ *
+ * A word is a run of characters other than whitespace, so the number of words
+ * is the number of word characters preceded by whitespace (or by nothing).
+ * An edit only changes that for the characters it inserted or removed and for
+ * the character right after it, whose predecessor changed; the count is
+ * corrected by looking at those and at the character before the edit.
+ *
+ * The removed characters are no longer in the document when document
+ * listeners are told about a removal, so the words are counted when the
+ * piece table hands out the inserted or removed text ('EditRecorder') and
+ * added to the totals with the document event that follows.
+ */
+final class DocumentStatistics implements PieceTableContent.EditRecorder, DocumentListener {
+
+    private final PieceTableContent content;
+
+    private int characters, words;
+
+    // The change in words of the edit being made, applied with its document event.
+    private int pendingWords;
+
+    // Reused to read the characters around an edit.
+    private final Segment around = new Segment();
+
+    /**
+     * Creates the statistics of the empty document stored in 'content'. They
+     * must be added to the content as a recorder and to the document as a
+     * listener to follow the edits.
+     */
+    DocumentStatistics(PieceTableContent content) {
+        this.content = content;
+    }
+
+    int getCharacterCount() {
+        return characters;
+    }
+
+    int getWordCount() {
+        return words;
+    }
+
+    @Override
+    public void inserted(int where, PieceTableContent.Fragment text) {
+        boolean before = isWordAt(where - 1);
+        boolean last = before;
+        int starts = 0;
+        for (int i = text.start; i < text.start + text.length; i++) {
+            boolean word = !Character.isWhitespace(text.buffer[i]);
+            if (word && !last) {
+                starts++;
+            }
+            last = word;
+        }
+        // The character after the insert now follows its last character.
+        if (isWordAt(where + text.length)) {
+            starts += (last ? 0 : 1) - (before ? 0 : 1);
+        }
+        pendingWords += starts;
+    }
+
+    @Override
+    public void removed(int where, List<PieceTableContent.Fragment> text) {
+        boolean before = isWordAt(where - 1);
+        boolean last = before;
+        int starts = 0;
+        for (PieceTableContent.Fragment fragment : text) {
+            for (int i = fragment.start; i < fragment.start + fragment.length; i++) {
+                boolean word = !Character.isWhitespace(fragment.buffer[i]);
+                if (word && !last) {
+                    starts++;
+                }
+                last = word;
+            }
+        }
+        // The character after the removed range now follows the one before it.
+        int change = -starts;
+        if (isWordAt(where)) {
+            change += (before ? 0 : 1) - (last ? 0 : 1);
+        }
+        pendingWords += change;
+    }
+
+    // True if there is a character other than whitespace at 'offset'.
+    private boolean isWordAt(int offset) {
+        if (offset < 0 || offset >= content.length()) {
+            return false;
+        }
+        try {
+            content.getChars(offset, 1, around);
+        } catch (BadLocationException e) {
+            // The offset was checked against the length.
+            e.printStackTrace();
+            return false;
+        }
+        return !Character.isWhitespace(around.array[around.offset]);
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        characters += e.getLength();
+        words += pendingWords;
+        pendingWords = 0;
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        characters -= e.getLength();
+        words += pendingWords;
+        pendingWords = 0;
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Attribute changes don't change the text.
+    }
+}
@@ -0,0 +1,486 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException; // Handles input/output exceptions.
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel; // Appends the batched records and forces them to disk.
+import java.nio.channels.FileLock; // Marks a journal as owned by a running editor.
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener; // Receives every edit of the document.
+import javax.swing.text.BadLocationException;
+
+/**
+ * 'EditJournal' is the crash-recovery journal of one document.
+ *
+ * Every edit of the document is turned into a small record and queued; the
+ * event thread never touches the disk. A single writer thread, shared by all
+ * open documents, wakes up every 'COMMIT_INTERVAL_MS', appends the queued
+ * records of each journal in one write and forces them to disk (group
+ * commit).
+ *
+ * A journal starts with a header naming the file the edits apply to (empty
+ * for an untitled document). Once a save succeeds the journal is compacted:
+ * it is rewritten with the records made after the saved snapshot only. When
+ * the editor starts, journals left behind by a crash can be replayed on top
+ * of their file to recover the unsaved changes.
+ */
+class EditJournal implements DocumentListener {
+
+    // How often the writer thread commits the queued records.
+    static final long COMMIT_INTERVAL_MS = 200;
+
+    // The directory holding the journals of all documents.
+    static final Path JOURNAL_DIRECTORY = Paths.get(System.getProperty("user.home"), ".notepadpro", "journal");
+
+    // Marks the start of a journal file.
+    private static final int MAGIC = 0x4E504A31;
+
+    // Record types.
+    private static final byte INSERT = 'I', REMOVE = 'R';
+
+    // The writer thread shared by every journal, and the journals it serves.
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "NotepadPro-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Set<EditJournal> OPEN_JOURNALS = ConcurrentHashMap.newKeySet();
+
+    static {
+        WRITER.scheduleWithFixedDelay(EditJournal::commitAll, COMMIT_INTERVAL_MS, COMMIT_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 'Edit' is one queued insert or remove.
+     */
+    static final class Edit {
+        final byte type;
+        final int offset;
+        final int length;
+        final String text;
+
+        Edit(byte type, int offset, int length, String text) {
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+            this.text = text;
+        }
+    }
+
+    /**
+     * 'Marker' remembers how far the journal got when a save took its
+     * snapshot; the writer fills in the position when it reaches the marker.
+     */
+    static final class Marker {
+        long position = -1;
+    }
+
+    /**
+     * 'Compaction' asks the writer to drop every record before 'marker' and to
+     * name 'path' as the journal's file from now on.
+     */
+    static final class Compaction {
+        final Marker marker;
+        final String path;
+
+        Compaction(Marker marker, String path) {
+            this.marker = marker;
+            this.path = path;
+        }
+    }
+
+    /**
+     * 'Reset' asks the writer to drop every record and start over for 'path'.
+     */
+    static final class Reset {
+        final String path;
+
+        Reset(String path) {
+            this.path = path;
+        }
+    }
+
+    // Asks the writer to delete the journal.
+    private static final Object DISCARD = new Object();
+
+    // The journal file and the items waiting for the writer thread.
+    private final Path file;
+    private final ConcurrentLinkedQueue<Object> pending = new ConcurrentLinkedQueue<>();
+
+    // False while the document is filled with text that must not be journaled (e.g. a file being opened).
+    private volatile boolean recording = true;
+
+    // Only touched by the writer thread.
+    private FileChannel channel;
+    private FileLock lock;
+
+    private EditJournal(Path file, FileChannel channel, FileLock lock) {
+        this.file = file;
+        this.channel = channel;
+        this.lock = lock;
+        OPEN_JOURNALS.add(this);
+    }
+
+    /**
+     * Creates a new, empty journal for a document.
+     *
+     * @param path The file the document belongs to, or null if it is untitled.
+     */
+    static EditJournal create(String path) {
+        EditJournal journal = new EditJournal(JOURNAL_DIRECTORY.resolve(UUID.randomUUID() + ".journal"), null, null);
+        journal.reset(path);
+        return journal;
+    }
+
+    /**
+     * Stops or resumes recording edits.
+     */
+    void setRecording(boolean recording) {
+        this.recording = recording;
+    }
+
+    /**
+     * Drops every record; the journal now describes the unmodified 'path'.
+     */
+    void reset(String path) {
+        pending.add(new Reset(path));
+    }
+
+    /**
+     * Marks the current end of the journal; called when a save takes its snapshot.
+     */
+    Marker mark() {
+        Marker marker = new Marker();
+        pending.add(marker);
+        return marker;
+    }
+
+    /**
+     * Compacts the journal after a successful save: the records before
+     * 'marker' are part of the saved file now and are dropped.
+     *
+     * @param marker The marker taken with the saved snapshot.
+     * @param path   The file the document was saved to.
+     */
+    void compact(Marker marker, String path) {
+        pending.add(new Compaction(marker, path));
+    }
+
+    /**
+     * Deletes the journal; called when the document is closed on purpose.
+     */
+    void discard() {
+        recording = false;
+        pending.add(DISCARD);
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        if (recording) {
+            try {
+                pending.add(new Edit(INSERT, e.getOffset(), e.getLength(),
+                        e.getDocument().getText(e.getOffset(), e.getLength())));
+            } catch (BadLocationException e1) {
+                // The event describes text that is part of the document.
+                e1.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        if (recording) {
+            pending.add(new Edit(REMOVE, e.getOffset(), e.getLength(), null));
+        }
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Attribute changes don't alter the text.
+    }
+
+    /**
+     * Commits the queued items of every open journal. Runs on the writer thread.
+     */
+    private static void commitAll() {
+        for (EditJournal journal : OPEN_JOURNALS) {
+            try {
+                journal.commit();
+            } catch (IOException | RuntimeException e) {
+                // The journal is only a safety net; editing goes on without it.
+                // An exception leaving this task would cancel it for good.
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes the queued records of this journal in one write and forces them
+     * to disk. Runs on the writer thread.
+     */
+    private void commit() throws IOException {
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(batch);
+        Object item;
+        while ((item = pending.poll()) != null) {
+            if (item instanceof Edit) {
+                Edit edit = (Edit) item;
+                out.writeByte(edit.type);
+                out.writeInt(edit.offset);
+                if (edit.type == INSERT) {
+                    byte[] text = edit.text.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(text.length);
+                    out.write(text);
+                } else {
+                    out.writeInt(edit.length);
+                }
+                continue;
+            }
+            // Anything else changes the file itself, so write what is batched first.
+            flush(batch);
+            if (item instanceof Marker) {
+                ((Marker) item).position = channel.position();
+            } else if (item instanceof Compaction) {
+                Compaction compaction = (Compaction) item;
+                rewrite(compaction.path, compaction.marker.position);
+            } else if (item instanceof Reset) {
+                rewrite(((Reset) item).path, -1);
+            } else if (item == DISCARD) {
+                close();
+                Files.deleteIfExists(file);
+                OPEN_JOURNALS.remove(this);
+                pending.clear();
+                return;
+            }
+        }
+        if (flush(batch)) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Appends the batched bytes to the journal file.
+     *
+     * @return true if anything was written.
+     */
+    private boolean flush(ByteArrayOutputStream batch) throws IOException {
+        if (batch.size() == 0) {
+            return false;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(batch.toByteArray());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        batch.reset();
+        return true;
+    }
+
+    /**
+     * Rewrites the journal with a header for 'path' followed by the records
+     * written from 'from' on (none if 'from' is negative), replacing the old
+     * file atomically.
+     */
+    private void rewrite(String path, long from) throws IOException {
+        Files.createDirectories(JOURNAL_DIRECTORY);
+        Path temporary = JOURNAL_DIRECTORY.resolve(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(header);
+            data.writeInt(MAGIC);
+            data.writeUTF(path == null ? "" : path);
+            out.write(ByteBuffer.wrap(header.toByteArray()));
+            if (channel != null && from >= 0) {
+                long end = channel.position();
+                while (from < end) {
+                    long copied = channel.transferTo(from, end - from, out);
+                    if (copied <= 0) {
+                        break;
+                    }
+                    from += copied;
+                }
+            }
+            out.force(false);
+        }
+        close();
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        lock = channel.tryLock();
+    }
+
+    private void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            lock = null;
+        }
+    }
+
+    /**
+     * 'Recovery' is a journal left behind by an editor that didn't shut down
+     * cleanly, together with the document it describes.
+     */
+    static final class Recovery {
+        final Path journalFile;
+        final String path;
+        final String text;
+        final String lineSeparator;
+        final boolean hasEdits;
+        private final FileChannel channel;
+        private final FileLock lock;
+
+        Recovery(Path journalFile, String path, String text, String lineSeparator, boolean hasEdits,
+                FileChannel channel, FileLock lock) {
+            this.journalFile = journalFile;
+            this.path = path;
+            this.text = text;
+            this.lineSeparator = lineSeparator;
+            this.hasEdits = hasEdits;
+            this.channel = channel;
+            this.lock = lock;
+        }
+
+        /**
+         * Continues journaling into the recovered journal, which already
+         * describes the recovered text relative to its file.
+         */
+        EditJournal resume() throws IOException {
+            channel.position(channel.size());
+            return new EditJournal(journalFile, channel, lock);
+        }
+
+        /**
+         * Deletes the recovered journal without using it.
+         */
+        void delete() throws IOException {
+            channel.close();
+            Files.deleteIfExists(journalFile);
+        }
+    }
+
+    /**
+     * Finds the journals left behind by editors that are no longer running
+     * (i.e. whose journal file isn't locked) and replays each of them on top
+     * of the file it refers to. The journals of this editor are skipped: a
+     * file lock only keeps other processes out, and 'rewrite' briefly holds
+     * none.
+     */
+    static List<Recovery> findLeftovers() {
+        List<Recovery> leftovers = new ArrayList<>();
+        if (!Files.isDirectory(JOURNAL_DIRECTORY)) {
+            return leftovers;
+        }
+        try (DirectoryStream<Path> journals = Files.newDirectoryStream(JOURNAL_DIRECTORY, "*.journal")) {
+            for (Path journalFile : journals) {
+                if (isOpen(journalFile)) {
+                    continue;
+                }
+                FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                FileLock lock;
+                try {
+                    lock = channel.tryLock();
+                } catch (OverlappingFileLockException e) {
+                    lock = null;
+                }
+                if (lock == null) {
+                    // Still in use by a running editor.
+                    channel.close();
+                    continue;
+                }
+                try {
+                    leftovers.add(replay(journalFile, channel, lock));
+                } catch (IOException e) {
+                    // An unreadable journal can't be recovered.
+                    channel.close();
+                    Files.deleteIfExists(journalFile);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return leftovers;
+    }
+
+    // True if 'journalFile' belongs to a journal of this editor.
+    private static boolean isOpen(Path journalFile) {
+        for (EditJournal journal : OPEN_JOURNALS) {
+            if (journal.file.getFileName().equals(journalFile.getFileName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads a journal and applies its records to the text of its file.
+     * A record cut short by a crash ends the replay.
+     */
+    private static Recovery replay(Path journalFile, FileChannel channel, FileLock lock) throws IOException {
+        channel.position(0);
+        InputStream input = Channels.newInputStream(channel);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a journal: " + journalFile);
+        }
+        String path = in.readUTF();
+        StringBuilder text = new StringBuilder();
+        String lineSeparator = "\n";
+        if (!path.isEmpty() && Files.exists(Paths.get(path))) {
+            // Same line ending normalization as when the file is opened.
+            String original = new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+            int lineEnd = original.indexOf('\r');
+            if (lineEnd >= 0 && (original.indexOf('\n') < 0 || lineEnd < original.indexOf('\n'))) {
+                lineSeparator = original.startsWith("\r\n", lineEnd) ? "\r\n" : "\r";
+            }
+            text.append(original.replace("\r\n", "\n").replace('\r', '\n'));
+        }
+        boolean hasEdits = false;
+        try {
+            while (true) {
+                byte type = in.readByte();
+                int offset = in.readInt();
+                int length = in.readInt();
+                if (type == INSERT) {
+                    byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    text.insert(offset, new String(bytes, StandardCharsets.UTF_8));
+                } else if (type == REMOVE) {
+                    text.delete(offset, offset + length);
+                } else {
+                    break;
+                }
+                hasEdits = true;
+            }
+        } catch (EOFException | IndexOutOfBoundsException e) {
+            // The last record was cut short or doesn't fit; everything before it is recovered.
+        }
+        return new Recovery(journalFile, path.isEmpty() ? null : path, text.toString(), lineSeparator, hasEdits, channel,
+                lock);
+    }
+}
@@ -0,0 +1,169 @@
+import java.awt.Font;
+import java.awt.Insets;
+import java.awt.event.MouseWheelListener;
+
+import javax.swing.BorderFactory;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.event.CaretListener;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument; // The document model of the text area, here backed by a piece table.
+
+/**
+ * 'EditorDocument' is one document open in a tab of a 'NotepadUserInterface':
+ * its text area with the piece table, undo history, statistics, line index,
+ * line number gutter, highlighter and edit journal, and the file name, language mode and word wrap setting of
+ * that document.
+ *
+ * Everything else exists once per window and is shared by all of its
+ * documents: the frame, the menus and their listeners, the font, the caret
+ * position label, the find/replace window and the boilerplate templates. An
+ * open document therefore only costs the objects listed here and its text;
+ * 'getMemoryUsed' estimates that cost for the memory report.
+ */
+final class EditorDocument {
+
+    // Estimated size of the Swing objects of an empty document: the text area
+    // with its UI delegate, view, caret, highlighter and scroll pane (measured
+    // as the heap taken by 200 empty documents, less their buffers).
+    static final int COMPONENT_BYTES = 14 << 10;
+
+    // Estimated size of the element of one line, besides its two marks (counted by the content).
+    static final int LINE_BYTES = 48;
+
+    // The piece table storing the text of 'textArea'. Saving takes its snapshots from here.
+    final PieceTableContent content;
+
+    // The text area showing the document, and the scroll pane (the tab) holding it.
+    final JTextArea textArea;
+    final JScrollPane scrollPane;
+
+    // Records the edits of 'textArea' for undo and redo.
+    final UndoHistory undoHistory;
+
+    // The start offset of every line, for go-to-line, the line count and the caret position.
+    final LineIndex lineIndex;
+
+    // The character and word counts shown in the status bar.
+    final DocumentStatistics statistics;
+
+    // Shows the line numbers next to 'textArea', as the row header of 'scrollPane'.
+    final LineNumberGutter lineNumbers;
+
+    // Colours the text in the language mode 'fileFormat'.
+    final SyntaxHighlighter syntaxHighlighter;
+
+    // Records every edit for crash recovery; replaced when a journal is recovered into the document.
+    EditJournal editJournal;
+
+    // The name and directory of the file, "untitled" and null until it is saved or opened.
+    String fileName = "untitled", fileAddress;
+
+    // The selected language mode ("txt", "java", "c", "cpp" or "html").
+    String fileFormat = "txt";
+
+    // The title shown on the tab, and on the window while the document is selected.
+    String title = "untitled";
+
+    // Whether the lines of this document are wrapped.
+    boolean wordWrap;
+
+    // The worker loading a file into the text area, if any.
+    FileOpenWorker openWorker;
+
+    // The number of bytes of the file loaded into the text area by the last
+    // open, or -1; where following the file starts.
+    long loadedBytes = -1;
+
+    // Appends what is written to the file to the text area while it is followed, else null.
+    FileFollower follower;
+
+    // The read-only view shown instead of the text area while a large file is open, else null.
+    LargeFileView largeFileView;
+
+    /**
+     * Creates an empty, untitled document.
+     *
+     * @param font             The font of the window, shared by all documents.
+     * @param caretListener    Told when the caret of the text area moves.
+     * @param documentListener Told about every edit, after the line index and the statistics.
+     * @param wheelListener    Told about mouse wheel movements over the text area.
+     */
+    EditorDocument(Font font, CaretListener caretListener, DocumentListener documentListener,
+            MouseWheelListener wheelListener) {
+        // The document stores the text in a piece table ('PieceTableContent')
+        // instead of the default gap buffer, so edits far apart in large files
+        // don't have to move the whole text around.
+        content = new PieceTableContent();
+        textArea = new JTextArea(new PlainDocument(content));
+        Document document = textArea.getDocument();
+
+        // A document tells its listeners in the reverse order they were added, so
+        // the window's listener, added first, sees the line index and the word
+        // counts already updated.
+        document.addDocumentListener(documentListener);
+
+        // Edits are recorded for undo straight from the piece table.
+        undoHistory = new UndoHistory(textArea, content);
+
+        // The words are counted as the piece table inserts and removes text.
+        statistics = new DocumentStatistics(content);
+        content.addRecorder(statistics);
+        document.addDocumentListener(statistics);
+
+        // The line starts are kept up to date with every edit.
+        lineIndex = new LineIndex(document);
+        document.addDocumentListener(lineIndex);
+        lineNumbers = new LineNumberGutter(textArea, lineIndex);
+        document.addDocumentListener(lineNumbers);
+
+        // The text is highlighted in the selected language mode as it is painted.
+        syntaxHighlighter = new SyntaxHighlighter(textArea);
+        document.addDocumentListener(syntaxHighlighter);
+
+        // Every edit is queued for the journal; it is written in the background.
+        editJournal = EditJournal.create(null);
+        document.addDocumentListener(editJournal);
+
+        textArea.addCaretListener(caretListener);
+        textArea.addMouseWheelListener(wheelListener);
+
+        textArea.setFont(font);
+        textArea.setMargin(new Insets(15, 15, 15, 15));
+
+        scrollPane = new JScrollPane(textArea, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED,
+                JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        scrollPane.setBorder(BorderFactory.createEmptyBorder());
+        scrollPane.setRowHeaderView(lineNumbers);
+    }
+
+    /**
+     * Turns the wrapping of long lines on or off.
+     */
+    void setWordWrap(boolean wordWrap) {
+        this.wordWrap = wordWrap;
+        textArea.setWrapStyleWord(wordWrap);
+        textArea.setLineWrap(wordWrap);
+    }
+
+    /**
+     * Returns true for an untitled document without text, which opening a
+     * file may reuse instead of adding a tab.
+     */
+    boolean isBlank() {
+        return fileAddress == null && openWorker == null && largeFileView == null
+                && textArea.getDocument().getLength() == 0;
+    }
+
+    /**
+     * Returns the estimated number of bytes the document keeps alive: its
+     * text buffers and pieces, the undo history, the line index, the
+     * highlighter states, the line elements and the Swing objects. The undo
+     * history mostly refers to text of the buffers, so this is an upper bound.
+     */
+    long getMemoryUsed() {
+        return COMPONENT_BYTES + content.getMemoryUsed() + undoHistory.getMemoryUsed() + lineIndex.getMemoryUsed()
+                + syntaxHighlighter.getMemoryUsed() + (long) lineIndex.getLineCount() * LINE_BYTES;
+    }
+}
@@ -0,0 +1,26 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 'EdtStallEvent' is the JFR event of a stall of the event thread noticed by
+ * the 'EdtWatchdog': the time the thread didn't handle events, and where it
+ * was meanwhile.
+ */
+@Name("notepadpro.EdtStall")
+@Label("Event Thread Stall")
+@Category("NotepadPro")
+@Description("The event thread handled no events for longer than the stall threshold")
+@StackTrace(false) // The stack of the watchdog itself tells nothing; the samples are in 'stackSamples'.
+final class EdtStallEvent extends Event {
+
+    @Label("Stack Samples")
+    @Description("The distinct stacks of the event thread sampled during the stall, most frequent first")
+    String stackSamples;
+
+    @Label("Samples")
+    int sampleCount;
+}
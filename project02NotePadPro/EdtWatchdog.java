@@ -0,0 +1,162 @@
+import java.awt.EventQueue;
+import java.awt.Window;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 'EdtWatchdog' notices when the event thread stops handling events (a long
+ * operation on it, a lock, ...) and records where it was meanwhile.
+ *
+ * A daemon thread posts a ping to the event queue every 'PING_INTERVAL_MS'.
+ * If the ping isn't handled within 'STALL_THRESHOLD_MS', the stack of the
+ * event thread is sampled every 'SAMPLE_INTERVAL_MS' until it is. The stall
+ * is then recorded as an 'EdtStallEvent' (with the distinct stacks sampled)
+ * and in the "edt stall" histogram of 'Instrumentation'.
+ *
+ * The threshold is set with -Dnotepadpro.stallThreshold=<ms> (default 200);
+ * 0 turns the watchdog off.
+ *
+ * Pings are only posted while a window is shown: the event thread ends by
+ * itself once the last window is disposed and its queue is empty, which the
+ * pings would otherwise prevent.
+ */
+final class EdtWatchdog {
+
+    static final long STALL_THRESHOLD_MS = Long.getLong("notepadpro.stallThreshold", 200);
+    static final long PING_INTERVAL_MS = 100;
+    static final long SAMPLE_INTERVAL_MS = 20;
+
+    // Frames kept of every stack sample.
+    static final int SAMPLE_DEPTH = 16;
+
+    // Distinct stacks kept per stall.
+    static final int MAX_STACKS = 8;
+
+    // The event thread, as seen by the last ping.
+    private static volatile Thread eventThread;
+
+    private static boolean started;
+
+    private EdtWatchdog() {
+    }
+
+    /**
+     * 'Ping' is posted to the event queue and tells when it was handled.
+     */
+    private static final class Ping implements Runnable {
+        final CountDownLatch handled = new CountDownLatch(1);
+
+        @Override
+        public void run() {
+            eventThread = Thread.currentThread();
+            handled.countDown();
+        }
+
+        boolean await(long milliseconds) throws InterruptedException {
+            return handled.await(milliseconds, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Starts the watchdog thread, unless it runs already or is turned off.
+     */
+    static synchronized void start() {
+        if (started || STALL_THRESHOLD_MS <= 0) {
+            return;
+        }
+        started = true;
+        Thread thread = new Thread(() -> {
+            try {
+                boolean shown = false;
+                while (true) {
+                    if (isWindowShown()) {
+                        shown = true;
+                        watchOnePing();
+                    } else if (shown) {
+                        // The last window was closed.
+                        return;
+                    }
+                    Thread.sleep(PING_INTERVAL_MS);
+                }
+            } catch (InterruptedException e) {
+                // The editor is shutting down.
+            }
+        }, "NotepadPro-watchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Posts a ping and waits for it, sampling the event thread if it stalls.
+     */
+    private static void watchOnePing() throws InterruptedException {
+        // The event starts when the ping is posted; it is only committed for a stall.
+        EdtStallEvent event = new EdtStallEvent();
+        event.begin();
+        long posted = System.nanoTime();
+        Ping ping = new Ping();
+        EventQueue.invokeLater(ping);
+        if (ping.await(STALL_THRESHOLD_MS)) {
+            return;
+        }
+        // The stacks by how often they were sampled, in the order first seen.
+        Map<String, Integer> stacks = new LinkedHashMap<>();
+        int samples = 0;
+        do {
+            Thread thread = eventThread != null ? eventThread : findEventThread();
+            if (thread != null) {
+                samples++;
+                String stack = describe(thread.getStackTrace());
+                if (stacks.containsKey(stack) || stacks.size() < MAX_STACKS) {
+                    stacks.merge(stack, 1, Integer::sum);
+                }
+            }
+        } while (!ping.await(SAMPLE_INTERVAL_MS));
+        long stalled = System.nanoTime() - posted;
+
+        StringBuilder text = new StringBuilder();
+        stacks.entrySet().stream().sorted((a, b) -> b.getValue() - a.getValue()).forEach(entry -> text
+                .append(entry.getValue()).append(" sample(s):\n").append(entry.getKey()).append('\n'));
+        event.end();
+        if (event.shouldCommit()) {
+            event.stackSamples = text.toString();
+            event.sampleCount = samples;
+            event.commit();
+        }
+        Instrumentation.recordStall(stalled, text.toString());
+    }
+
+    // The event thread if no ping got through yet, found by its name.
+    private static Thread findEventThread() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("AWT-EventQueue")) {
+                return eventThread = thread;
+            }
+        }
+        return null;
+    }
+
+    // True if any window is displayable, i.e. keeps the event thread running.
+    private static boolean isWindowShown() {
+        for (Window window : Window.getWindows()) {
+            if (window.isDisplayable()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The top frames of a stack, one per line.
+    private static String describe(StackTraceElement[] frames) {
+        StringBuilder stack = new StringBuilder();
+        for (int i = 0; i < frames.length && i < SAMPLE_DEPTH; i++) {
+            stack.append("\tat ").append(frames[i]).append('\n');
+        }
+        if (frames.length > SAMPLE_DEPTH) {
+            stack.append("\t...\n");
+        }
+        return stack.toString();
+    }
+}
@@ -0,0 +1,309 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+/**
+ * 'FileFollower' is the follow mode of a document ("tail -f"): whatever is
+ * appended to its file is appended to its text area, while the document is
+ * read-only.
+ *
+ * A thread of its own ("NotepadPro-follow") waits until the directory's
+ * 'WatchService' reports a change, or 'POLL_MS' at the longest, since file
+ * systems such as network drives report nothing. It then reads the bytes
+ * from the last known offset to the end of the file, and nothing before,
+ * decodes them, and queues the text. The event thread appends the queued
+ * text every 'FLUSH_MS', in inserts of at most 'SLICE_CHARS', for at most
+ * 'FLUSH_BUDGET_MS' at a time: however fast the file grows, the keyboard and
+ * the screen are never kept waiting for longer. While text is queued it
+ * comes back after 'BACKLOG_FLUSH_MS' instead. If the event thread falls
+ * behind anyway, the reading thread waits once 'MAX_PENDING_CHARS' are
+ * queued, and catches up from the file later; nothing is dropped.
+ *
+ * With a cap on the lines ('maxLines'), the oldest lines are removed once the
+ * document holds a tenth more. A file that becomes shorter than the offset was
+ * truncated or replaced (rotated logs), and is read again from its start; its
+ * text is appended to the text of the old file. Either way the document is no
+ * longer the text of the file, which 'stop' tells.
+ */
+final class FileFollower {
+
+    // The longest wait for a change when the watch service reports none.
+    static final long POLL_MS = 250;
+
+    // The interval between two appends to the text area, and the time an
+    // append may take; shorter intervals while text is queued.
+    static final int FLUSH_MS = 100;
+    static final int BACKLOG_FLUSH_MS = 10;
+    static final long FLUSH_BUDGET_MS = 40;
+
+    // The most characters inserted at once, and queued at most.
+    static final int SLICE_CHARS = 256 << 10;
+    static final int MAX_PENDING_CHARS = 32 << 20;
+
+    // The number of bytes read at once; their text is inserted in one slice.
+    static final int READ_SIZE = SLICE_CHARS;
+
+    // -Dnotepadpro.followLines=<n> keeps only the last n lines of a followed file.
+    static final int LINE_CAP = Integer.getInteger("notepadpro.followLines", 0);
+
+    private final EditorDocument editorDocument;
+    private final Path file;
+    private final int maxLines;
+    private final Thread reader;
+    private final Timer flushTimer;
+
+    // The decoded text waiting for the event thread, and its length; guarded by 'this'.
+    private final ArrayDeque<String> pending = new ArrayDeque<>();
+    private int pendingChars;
+
+    private volatile boolean stopped;
+
+    // Whether lines were removed from the head of the document.
+    private boolean evicted;
+
+    // Whether the file was truncated or replaced; set by the reading thread.
+    private volatile boolean rotated;
+
+    // Only used by the reading thread: the offset of the next byte to read,
+    // the bytes of a character split by the end of a read, and whether the
+    // last character read was a '\r', whose '\n' may follow in the next read.
+    private long offset;
+    private final ByteBuffer bytes = ByteBuffer.allocate(READ_SIZE);
+    private final CharBuffer chars;
+    private final CharsetDecoder decoder;
+    private boolean carriageReturn;
+
+    /**
+     * Starts following 'file', whose first 'offset' bytes are the text of
+     * 'editorDocument'.
+     *
+     * @param maxLines The most lines the document keeps, or 0 to keep all.
+     */
+    FileFollower(EditorDocument editorDocument, Path file, long offset, int maxLines) {
+        this.editorDocument = editorDocument;
+        this.file = file;
+        this.offset = offset;
+        this.maxLines = maxLines;
+        decoder = Charset.defaultCharset().newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        chars = CharBuffer.allocate((int) (READ_SIZE * decoder.maxCharsPerByte()) + 1);
+
+        // Appended text isn't an edit of the user: it is neither journaled nor undone.
+        editorDocument.editJournal.setRecording(false);
+        editorDocument.undoHistory.setRecording(false);
+        editorDocument.textArea.setEditable(false);
+
+        flushTimer = new Timer(FLUSH_MS, e -> flush());
+        flushTimer.start();
+        reader = new Thread(this::follow, "NotepadPro-follow");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Stops following; what was read but not appended yet is dropped. The
+     * document becomes editable again.
+     *
+     * @return Whether lines were removed from the head of the document, or
+     *         the file was truncated or replaced while it was followed: the
+     *         document then no longer holds the text of the file.
+     */
+    boolean stop() {
+        stopped = true;
+        reader.interrupt();
+        flushTimer.stop();
+        synchronized (this) {
+            pending.clear();
+            pendingChars = 0;
+            notifyAll();
+        }
+        editorDocument.textArea.setEditable(true);
+        editorDocument.undoHistory.discardAllEdits();
+        editorDocument.undoHistory.setRecording(true);
+        editorDocument.editJournal.setRecording(true);
+        return evicted || rotated;
+    }
+
+    // The reading thread.
+    private void follow() {
+        WatchService watcher = null;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            file.toAbsolutePath().getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Polling alone then.
+            close(watcher);
+            watcher = null;
+        }
+        try {
+            while (!stopped) {
+                readAppended();
+                if (watcher == null) {
+                    Thread.sleep(POLL_MS);
+                } else {
+                    // Any change in the directory is worth a look at the file.
+                    WatchKey key = watcher.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        key.pollEvents();
+                        key.reset();
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped.
+        } finally {
+            close(watcher);
+        }
+    }
+
+    private static void close(WatchService watcher) {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                // Nothing is watched any more either way.
+            }
+        }
+    }
+
+    // Reads from 'offset' to the end of the file, queuing the text.
+    private void readAppended() throws InterruptedException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < offset) {
+                rotated = true;
+                offset = 0;
+                bytes.clear();
+                decoder.reset();
+                carriageReturn = false;
+            }
+            channel.position(offset);
+            int read;
+            while (!stopped && (read = channel.read(bytes)) > 0) {
+                offset += read;
+                bytes.flip();
+                chars.clear();
+                decoder.decode(bytes, chars, false);
+                bytes.compact();
+                chars.flip();
+                if (chars.hasRemaining()) {
+                    queue(normalizeLineEndings(chars));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // Rotated away; the next file of that name is read from its start.
+            rotated |= offset > 0;
+            offset = 0;
+        } catch (IOException e) {
+            // Tried again at the next change.
+        }
+    }
+
+    /**
+     * Converts "\r\n" and lone "\r" to "\n", as 'FileOpenWorker' does. A '\r'
+     * at the end of 'chars' is converted at once; a '\n' starting the next
+     * read is then skipped.
+     */
+    private String normalizeLineEndings(CharBuffer chars) {
+        char[] array = chars.array();
+        int start = chars.arrayOffset() + chars.position();
+        int end = chars.arrayOffset() + chars.limit();
+        // Converted in place: the text never gets longer.
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = array[i];
+            if (c == '\r') {
+                array[start + length++] = '\n';
+                carriageReturn = true;
+            } else {
+                if (c != '\n' || !carriageReturn) {
+                    array[start + length++] = c;
+                }
+                carriageReturn = false;
+            }
+        }
+        return new String(array, start, length);
+    }
+
+    // Queues 'text' for the event thread, waiting while too much is queued.
+    private synchronized void queue(String text) throws InterruptedException {
+        while (pendingChars >= MAX_PENDING_CHARS && !stopped) {
+            wait();
+        }
+        pending.addLast(text);
+        pendingChars += text.length();
+    }
+
+    // Called by 'flushTimer': appends the queued text for up to 'FLUSH_BUDGET_MS'.
+    private void flush() {
+        if (isEmpty()) {
+            flushTimer.setDelay(FLUSH_MS);
+            return;
+        }
+        Instrumentation.Operation operation = Instrumentation.begin("follow", file.toString());
+        long deadline = System.nanoTime() + FLUSH_BUDGET_MS * 1_000_000;
+        Document document = editorDocument.textArea.getDocument();
+        try {
+            String slice;
+            while (System.nanoTime() < deadline && (slice = takeSlice()) != null) {
+                // A caret at the end stays there, so the view follows the new lines.
+                document.insertString(document.getLength(), slice, null);
+            }
+            LineIndex lineIndex = editorDocument.lineIndex;
+            // Lines are removed a tenth of the cap at a time, since removing
+            // at the head moves the positions of all lines.
+            if (maxLines > 0 && lineIndex.getLineCount() > maxLines + maxLines / 10) {
+                document.remove(0, lineIndex.getLineStart(lineIndex.getLineCount() - maxLines));
+                editorDocument.content.compact();
+                evicted = true;
+            }
+        } catch (BadLocationException e) {
+            // The end and the start of a line are always valid locations.
+            e.printStackTrace();
+        }
+        operation.endAfterQueuedEvents();
+        flushTimer.setDelay(isEmpty() ? FLUSH_MS : BACKLOG_FLUSH_MS);
+    }
+
+    private synchronized boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    // Takes up to 'SLICE_CHARS' of the queued text, or returns null if nothing is queued.
+    private synchronized String takeSlice() {
+        if (pending.isEmpty()) {
+            return null;
+        }
+        String first = pending.pollFirst();
+        if (pending.isEmpty() || first.length() + pending.peekFirst().length() > SLICE_CHARS) {
+            pendingChars -= first.length();
+            notifyAll();
+            return first;
+        }
+        StringBuilder slice = new StringBuilder(SLICE_CHARS).append(first);
+        while (!pending.isEmpty() && slice.length() + pending.peekFirst().length() <= SLICE_CHARS) {
+            slice.append(pending.pollFirst());
+        }
+        pendingChars -= slice.length();
+        notifyAll();
+        return slice.toString();
+    }
+}
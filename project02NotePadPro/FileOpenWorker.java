@@ -0,0 +1,354 @@
+import java.io.File;
+import java.io.IOException; // Handles input/output exceptions.
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel; // Reads the file and reports how far the reading got.
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder; // Decodes the blocks, so the byte range of every block is known.
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.ProgressMonitor; // Shows the loading progress and offers a cancel button.
+import javax.swing.SwingWorker; // Runs the reading off the event thread and hands chunks back to it.
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultEditorKit;
+import javax.swing.text.Document;
+
+/**
+ * 'FileOpenWorker' loads a file into the text area of a document open in a
+ * 'NotepadUserInterface' without blocking the Swing event thread.
+ *
+ * The file is decoded in large blocks on a background thread. Each block is
+ * published to the event thread, where all blocks that arrived since the last
+ * update are inserted with as few document operations as possible. A progress
+ * monitor shows how much of the file was read and lets the user cancel the
+ * load. The edit journal and the undo history are paused while the file is
+ * loading.
+ *
+ * Every block remembers the byte range it was decoded from. Blocks that encode
+ * back to exactly the same bytes are inserted as clean pieces of the
+ * 'PieceTableContent', which a later save copies straight from the file.
+ */
+class FileOpenWorker extends SwingWorker<Void, FileOpenWorker.Chunk> {
+
+    // Number of bytes decoded per block.
+    static final int BLOCK_SIZE = 1 << 16;
+
+    /**
+     * 'Chunk' is one decoded block: its text with normalized line endings, the
+     * byte range it was decoded from, and whether encoding the text again
+     * gives exactly those bytes.
+     */
+    static final class Chunk {
+        final String text;
+        final long sourceOffset;
+        final long sourceLength;
+        final boolean clean;
+
+        Chunk(String text, long sourceOffset, long sourceLength, boolean clean) {
+            this.text = text;
+            this.sourceOffset = sourceOffset;
+            this.sourceLength = sourceLength;
+            this.clean = clean;
+        }
+    }
+
+    // The notepad window showing the progress, or null for a load without a window.
+    private final NotepadUserInterface notepad;
+
+    // The document (tab) whose text area receives the file content; it need not stay selected.
+    private final EditorDocument editorDocument;
+
+    // The file being opened.
+    private final File file;
+
+    // The file as seen by the piece table, so clean pieces can refer to it.
+    private final PieceTableContent.SourceFile sourceFile;
+
+    // Dialog showing the progress of the load, with a cancel button; null without a window.
+    private final ProgressMonitor progressMonitor;
+
+    // The document being filled; captured once so every chunk goes to the same one.
+    private final Document document;
+
+    // Measures the load, from the user's action until the text is shown.
+    private final Instrumentation.Operation operation;
+
+    // The line (0-based) the caret is put on once the file is loaded.
+    private int lineToShow;
+
+    // The number of bytes read, set once the end of the file was reached.
+    private volatile long bytesRead = -1;
+
+    // The line separator found in the file, stored on the document once loaded.
+    private String lineSeparator;
+
+    // The line endings seen in the current block, as a mask of the constants below.
+    private int blockLineEndings;
+    private static final int LF = 1, CRLF = 2, CR = 4;
+
+    /**
+     * Creates a worker that loads 'file' into the text area of 'editorDocument'.
+     * The text area is cleared and made read-only until the load finishes.
+     *
+     * @param notepad        The notepad window opening the file, or null to load
+     *                       it without showing any progress (the benchmarks do).
+     * @param editorDocument The document the file is opened in.
+     * @param file           The file to load.
+     * @throws IOException If the attributes of the file cannot be read.
+     */
+    FileOpenWorker(NotepadUserInterface notepad, EditorDocument editorDocument, File file) throws IOException {
+        this.notepad = notepad;
+        this.editorDocument = editorDocument;
+        this.file = file;
+        this.document = editorDocument.textArea.getDocument();
+        this.operation = Instrumentation.begin("open", file.getPath());
+
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        sourceFile = new PieceTableContent.SourceFile(file.toPath(), Charset.defaultCharset(), attributes);
+
+        // The loaded text is the file itself and must not be journaled or undone as edits.
+        editorDocument.editJournal.setRecording(false);
+        editorDocument.undoHistory.setRecording(false);
+        editorDocument.textArea.setText("");
+        editorDocument.textArea.setEditable(false);
+        editorDocument.content.setSource(null);
+
+        if (notepad == null) {
+            progressMonitor = null;
+            return;
+        }
+        // The monitor only pops up if the load takes noticeably long.
+        progressMonitor = new ProgressMonitor(notepad.mainFrame, "opening " + file.getName(), null, 0, 100);
+        addPropertyChangeListener(event -> {
+            if ("progress".equals(event.getPropertyName())) {
+                progressMonitor.setProgress((Integer) event.getNewValue());
+                if (progressMonitor.isCanceled()) {
+                    cancel(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets the line (0-based) the caret is put on once the file is loaded;
+     * the start of the file by default.
+     */
+    void setLineToShow(int line) {
+        lineToShow = line;
+    }
+
+    /**
+     * Reads the file block by block on the background thread, publishing each
+     * decoded block and updating the progress until the end of the file is
+     * reached or the load is cancelled.
+     */
+    @Override
+    protected Void doInBackground() throws IOException {
+        CharsetDecoder decoder = sourceFile.charset.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        int carriageReturnBytes = sourceFile.charset.encode("\r").remaining();
+        ByteBuffer bytes = ByteBuffer.allocate(BLOCK_SIZE);
+        CharBuffer chars = CharBuffer.allocate((int) (BLOCK_SIZE * decoder.maxCharsPerByte()) + 2);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long blockStart = 0;
+            boolean endOfFile = false;
+            // After 'compact' the buffer's position is the number of bytes left over.
+            while (!isCancelled() && !(endOfFile && bytes.position() == 0)) {
+                if (!endOfFile && channel.read(bytes) == -1) {
+                    endOfFile = true;
+                }
+                bytes.flip();
+                chars.clear();
+
+                // Decode the block; undecodable bytes are replaced and make the block unclean.
+                boolean clean = true;
+                while (true) {
+                    CoderResult result = decoder.decode(bytes, chars, endOfFile);
+                    if (result.isError() && chars.hasRemaining()) {
+                        chars.put('\uFFFD');
+                        bytes.position(bytes.position() + result.length());
+                        clean = false;
+                    } else {
+                        break;
+                    }
+                }
+                if (endOfFile && !bytes.hasRemaining()) {
+                    decoder.flush(chars);
+                }
+                chars.flip();
+
+                // Keep a trailing '\r' for the next block, so "\r\n" is never split.
+                if (!endOfFile && chars.limit() > 0 && chars.get(chars.limit() - 1) == '\r') {
+                    chars.limit(chars.limit() - 1);
+                    bytes.position(bytes.position() - carriageReturnBytes);
+                }
+
+                int consumed = bytes.position();
+                if (chars.hasRemaining()) {
+                    String text = normalizeLineEndings(chars);
+                    publish(new Chunk(text, blockStart, consumed, clean && separatorsMatch()));
+                }
+                blockStart += consumed;
+                bytes.compact();
+                setProgress(size == 0 ? 100 : (int) Math.min(100, blockStart * 100 / size));
+            }
+            if (!isCancelled()) {
+                bytesRead = blockStart;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Appends every block published since the last call to the document. Runs
+     * of clean blocks are inserted as one piece covering their byte range,
+     * runs of unclean blocks as one plain piece, so the text area is updated
+     * only a few times per batch.
+     */
+    @Override
+    protected void process(List<Chunk> chunks) {
+        if (isCancelled()) {
+            return;
+        }
+        PieceTableContent content = editorDocument.content;
+        int from = 0;
+        while (from < chunks.size()) {
+            boolean clean = chunks.get(from).clean;
+            int to = from;
+            long byteLength = 0;
+            StringBuilder batch = new StringBuilder();
+            while (to < chunks.size() && chunks.get(to).clean == clean) {
+                batch.append(chunks.get(to).text);
+                byteLength += chunks.get(to).sourceLength;
+                to++;
+            }
+            try {
+                if (clean) {
+                    content.setNextInsertSource(sourceFile, chunks.get(from).sourceOffset, byteLength);
+                }
+                document.insertString(document.getLength(), batch.toString(), null);
+            } catch (BadLocationException e) {
+                // Appending at the end of the document is always a valid location.
+                e.printStackTrace();
+            }
+            from = to;
+        }
+    }
+
+    /**
+     * Finishes the load on the event thread: closes the progress monitor and
+     * makes the text area editable again. A cancelled load leaves an untitled
+     * document behind, so the partial text can never be saved over the file.
+     */
+    @Override
+    protected void done() {
+        if (progressMonitor != null) {
+            progressMonitor.close();
+        }
+        operation.endAfterQueuedEvents();
+        if (editorDocument.openWorker != this) {
+            // A newer open replaced this load and now owns the text area.
+            return;
+        }
+        editorDocument.openWorker = null;
+        editorDocument.textArea.setEditable(true);
+        editorDocument.loadedBytes = -1;
+
+        if (isCancelled()) {
+            editorDocument.textArea.setText("");
+            editorDocument.content.setSource(null);
+            editorDocument.fileName = "untitled";
+            editorDocument.fileAddress = null;
+            if (notepad != null) {
+                notepad.setTitle(editorDocument, "untitled");
+            }
+            editorDocument.editJournal.reset(null);
+            editorDocument.editJournal.setRecording(true);
+            editorDocument.undoHistory.discardAllEdits();
+            editorDocument.undoHistory.setRecording(true);
+            return;
+        }
+        try {
+            get();
+            if (lineSeparator != null) {
+                document.putProperty(DefaultEditorKit.EndOfLineStringProperty, lineSeparator);
+                sourceFile.setLineSeparator(lineSeparator);
+            }
+            LineIndex lineIndex = editorDocument.lineIndex;
+            editorDocument.textArea.setCaretPosition(
+                    lineIndex.getLineStart(Math.min(lineToShow, lineIndex.getLineCount() - 1)));
+            // Edits from now on are journaled relative to the file on disk.
+            editorDocument.editJournal.reset(file.getAbsolutePath());
+            editorDocument.loadedBytes = bytesRead;
+        } catch (InterruptedException | ExecutionException e) {
+            // In case the file doesn't exist or cannot be read
+            editorDocument.content.setSource(null);
+            editorDocument.textArea.setText("FILE NOT FOUND..!");
+            editorDocument.editJournal.reset(null);
+        }
+        editorDocument.editJournal.setRecording(true);
+        editorDocument.undoHistory.discardAllEdits();
+        editorDocument.undoHistory.setRecording(true);
+    }
+
+    /**
+     * Converts "\r\n" and lone "\r" line endings to "\n", the only line
+     * separator a Swing document understands, and remembers the first
+     * separator seen so it can be restored on save.
+     * Runs on the background thread only.
+     */
+    private String normalizeLineEndings(CharBuffer chars) {
+        StringBuilder text = new StringBuilder(chars.remaining());
+        blockLineEndings = 0;
+        int end = chars.limit();
+        for (int i = chars.position(); i < end; i++) {
+            char c = chars.get(i);
+            if (c == '\r') {
+                text.append('\n');
+                if (i + 1 < end && chars.get(i + 1) == '\n') {
+                    i++;
+                    recordLineSeparator("\r\n", CRLF);
+                } else {
+                    recordLineSeparator("\r", CR);
+                }
+            } else {
+                if (c == '\n') {
+                    recordLineSeparator("\n", LF);
+                }
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Remembers the first line separator found in the file and notes the kind
+     * of line ending seen in the current block.
+     */
+    private void recordLineSeparator(String separator, int kind) {
+        if (lineSeparator == null) {
+            lineSeparator = separator;
+        }
+        blockLineEndings |= kind;
+    }
+
+    /**
+     * Returns true if every line ending of the current block is the file's
+     * line separator, i.e. saving the block gives back the same bytes.
+     */
+    private boolean separatorsMatch() {
+        if (blockLineEndings == 0) {
+            return true;
+        }
+        int expected = "\r\n".equals(lineSeparator) ? CRLF : "\r".equals(lineSeparator) ? CR : LF;
+        return blockLineEndings == expected;
+    }
+}
@@ -0,0 +1,465 @@
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.IOException; // Handles input/output exceptions.
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel; // Reads small files and maps large ones.
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.PatternSyntaxException;
+
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListModel;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JDialog; // The non-modal window holding the query and the results.
+import javax.swing.JLabel;
+import javax.swing.JList; // The results panel, filled while the search runs.
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.SwingWorker; // Walks the directory tree and hands the results to the event thread.
+
+/**
+ * 'FindInFilesDialog' searches every file below the directory of the current
+ * file of a 'NotepadUserInterface'.
+ *
+ * A 'SwingWorker' walks the directory tree and hands every file to a pool of
+ * scanning threads, so reading, sniffing and searching of many files overlap
+ * and keep the disk busy. Files of 'MAP_THRESHOLD' bytes or more are
+ * memory-mapped instead of read. A file holding a NUL byte in its first
+ * block is taken for a binary file and skipped.
+ *
+ * Case-sensitive literals are searched on the raw bytes, so only the lines
+ * holding a match are ever decoded; other searches decode the file and use
+ * 'DocumentSearch'. Results are published as they are found and appended to
+ * the results panel in batches. Double-clicking a result opens its file at
+ * that line.
+ */
+class FindInFilesDialog extends JDialog {
+
+    // Files at least this large are memory-mapped instead of read into the heap.
+    static final long MAP_THRESHOLD = 1L << 20;
+
+    // Number of bytes sniffed for NUL bytes to detect binary files.
+    static final int SNIFF_SIZE = 8192;
+
+    // The search stops after this many results.
+    static final int MAX_RESULTS = 10000;
+
+    // Number of characters of a matching line shown in the results.
+    static final int PREVIEW_LENGTH = 200;
+
+    // Number of scanning threads; more than the cores so reads can overlap.
+    static final int SCAN_THREADS = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * 'Hit' is one matching line.
+     */
+    static final class Hit {
+        final Path file;
+        final long line;
+        final String text;
+        private final String label;
+
+        Hit(Path root, Path file, long line, String text) {
+            this.file = file;
+            this.line = line;
+            this.text = text;
+            this.label = root.relativize(file) + ":" + (line + 1) + ":  " + text;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final NotepadUserInterface notepad;
+
+    private final JTextField findField = new JTextField(25);
+    private final JCheckBox matchCaseBox = new JCheckBox("match case", true);
+    private final JCheckBox regexBox = new JCheckBox("regular expression");
+    private final JLabel directoryLabel = new JLabel();
+    private final JButton findButton = new JButton("find");
+    private final JButton stopButton = new JButton("stop");
+    private final JLabel statusLabel = new JLabel(" ");
+    private final DefaultListModel<Hit> results = new DefaultListModel<>();
+    private final JList<Hit> resultList = new JList<>(results);
+
+    // The search running in the background, if any.
+    private SearchWorker running;
+
+    /**
+     * Creates the (hidden) find-in-files window of 'notepad'.
+     */
+    FindInFilesDialog(NotepadUserInterface notepad) {
+        super(notepad.mainFrame, "find in files", false);
+        this.notepad = notepad;
+
+        JPanel query = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        query.add(new JLabel("find :"));
+        query.add(findField);
+        query.add(matchCaseBox);
+        query.add(regexBox);
+        query.add(findButton);
+        query.add(stopButton);
+
+        JPanel north = new JPanel(new BorderLayout());
+        north.add(query, BorderLayout.NORTH);
+        north.add(directoryLabel, BorderLayout.SOUTH);
+
+        JPanel content = new JPanel(new BorderLayout(5, 5));
+        content.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        content.add(north, BorderLayout.NORTH);
+        content.add(new JScrollPane(resultList), BorderLayout.CENTER);
+        content.add(statusLabel, BorderLayout.SOUTH);
+        setContentPane(content);
+        setSize(800, 450);
+        setLocationRelativeTo(notepad.mainFrame);
+
+        stopButton.setEnabled(false);
+        findButton.addActionListener(e -> find());
+        findField.addActionListener(e -> find());
+        stopButton.addActionListener(e -> {
+            if (running != null) {
+                running.cancel(true);
+            }
+        });
+        getRootPane().setDefaultButton(findButton);
+
+        resultList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                Hit hit = resultList.getSelectedValue();
+                if (e.getClickCount() == 2 && hit != null) {
+                    open(hit);
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows the window, searching the directory of the current file.
+     */
+    void open() {
+        directoryLabel.setText("in : " + directory());
+        setVisible(true);
+        findField.requestFocusInWindow();
+        findField.selectAll();
+    }
+
+    // The directory searched: the one of the current file, or the working directory.
+    private Path directory() {
+        String fileAddress = notepad.document.fileAddress;
+        return fileAddress != null ? Paths.get(fileAddress) : Paths.get("").toAbsolutePath();
+    }
+
+    /**
+     * Starts a new search, replacing the results of the previous one.
+     */
+    void find() {
+        String text = findField.getText();
+        if (text.isEmpty() || running != null) {
+            return;
+        }
+        DocumentSearch search = null;
+        byte[] literal = null;
+        Charset charset = Charset.defaultCharset();
+        try {
+            if (regexBox.isSelected()) {
+                search = DocumentSearch.forRegex(text, matchCaseBox.isSelected());
+            } else if (matchCaseBox.isSelected() && charset.newEncoder().canEncode(text)) {
+                literal = text.getBytes(charset);
+            } else {
+                search = DocumentSearch.forLiteral(text, matchCaseBox.isSelected());
+            }
+        } catch (PatternSyntaxException e) {
+            statusLabel.setText("Invalid expression: " + e.getDescription());
+            return;
+        }
+        results.clear();
+        Path root = directory();
+        directoryLabel.setText("in : " + root);
+        statusLabel.setText("Searching...");
+        findButton.setEnabled(false);
+        stopButton.setEnabled(true);
+        running = new SearchWorker(root, charset, literal, search);
+        running.execute();
+    }
+
+    /**
+     * Opens the file of a result in the notepad, at the matching line; in its
+     * own tab, or the one already showing the file.
+     */
+    private void open(Hit hit) {
+        notepad.openInTab(hit.file.toFile(), hit.line);
+        notepad.mainFrame.toFront();
+    }
+
+    /**
+     * 'SearchWorker' walks the directory tree and scans the files on a pool of
+     * threads, publishing the hits as they are found.
+     */
+    final class SearchWorker extends SwingWorker<Void, Hit> {
+        private final Path root;
+        private final Charset charset;
+        private final byte[] literal;
+        private final DocumentSearch search;
+
+        private final AtomicInteger filesScanned = new AtomicInteger();
+        private final AtomicInteger hitCount = new AtomicInteger();
+
+        // Measures the search, until its summary is shown.
+        private final Instrumentation.Operation operation;
+
+        SearchWorker(Path root, Charset charset, byte[] literal, DocumentSearch search) {
+            this.root = root;
+            this.charset = charset;
+            this.literal = literal;
+            this.search = search;
+            this.operation = Instrumentation.begin("find in files", root.toString());
+        }
+
+        @Override
+        protected Void doInBackground() throws IOException, InterruptedException {
+            ExecutorService scanners = Executors.newFixedThreadPool(SCAN_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "NotepadPro-find");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        if (isCancelled() || hitCount.get() >= MAX_RESULTS) {
+                            return FileVisitResult.TERMINATE;
+                        }
+                        // Hidden directories (.git, ...) hold no files worth searching.
+                        String name = dir.getFileName() == null ? "" : dir.getFileName().toString();
+                        return !dir.equals(root) && name.startsWith(".") ? FileVisitResult.SKIP_SUBTREE
+                                : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (attrs.isRegularFile() && attrs.size() > 0 && attrs.size() <= Integer.MAX_VALUE) {
+                            scanners.execute(() -> scan(file, attrs.size()));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        // Unreadable files and directories are skipped.
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+                scanners.shutdown();
+                scanners.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } finally {
+                scanners.shutdownNow();
+            }
+            return null;
+        }
+
+        /**
+         * Scans one file on a pool thread.
+         */
+        private void scan(Path file, long size) {
+            if (isCancelled() || hitCount.get() >= MAX_RESULTS) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer bytes;
+                if (size >= MAP_THRESHOLD) {
+                    bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                } else {
+                    bytes = ByteBuffer.allocate((int) size);
+                    while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                        // Read the whole file.
+                    }
+                    bytes.flip();
+                }
+                if (isBinary(bytes)) {
+                    return;
+                }
+                if (literal != null) {
+                    scanBytes(file, bytes);
+                } else {
+                    scanChars(file, bytes);
+                }
+            } catch (IOException e) {
+                // Files that can't be read are skipped.
+            } finally {
+                filesScanned.incrementAndGet();
+            }
+        }
+
+        // True if the first block of the file holds a NUL byte.
+        private boolean isBinary(ByteBuffer bytes) {
+            int end = Math.min(bytes.limit(), SNIFF_SIZE);
+            for (int i = 0; i < end; i++) {
+                if (bytes.get(i) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Searches the encoded literal in the raw bytes with Boyer-Moore-Horspool.
+         * Only the lines holding a match are decoded.
+         */
+        private void scanBytes(Path file, ByteBuffer bytes) {
+            int m = literal.length, limit = bytes.limit();
+            int[] shifts = new int[256];
+            Arrays.fill(shifts, m);
+            for (int i = 0; i < m - 1; i++) {
+                shifts[literal[i] & 0xFF] = m - 1 - i;
+            }
+            long line = 0, lastHitLine = -1;
+            int counted = 0, position = 0;
+            while (position + m <= limit) {
+                byte b = bytes.get(position + m - 1);
+                if (b == literal[m - 1]) {
+                    int k = m - 2;
+                    while (k >= 0 && bytes.get(position + k) == literal[k]) {
+                        k--;
+                    }
+                    if (k < 0) {
+                        for (; counted < position; counted++) {
+                            if (bytes.get(counted) == '\n') {
+                                line++;
+                            }
+                        }
+                        if (line != lastHitLine) {
+                            lastHitLine = line;
+                            if (!report(file, line, lineText(bytes, position))) {
+                                return;
+                            }
+                        }
+                        position += m;
+                        continue;
+                    }
+                }
+                position += shifts[b & 0xFF];
+            }
+        }
+
+        // Decodes (the start of) the line around 'position'.
+        private String lineText(ByteBuffer bytes, int position) {
+            int start = position, end = position;
+            while (start > 0 && bytes.get(start - 1) != '\n') {
+                start--;
+            }
+            while (end < bytes.limit() && bytes.get(end) != '\n' && end - start < 4 * PREVIEW_LENGTH) {
+                end++;
+            }
+            ByteBuffer line = bytes.duplicate();
+            line.limit(end).position(start);
+            return preview(charset.decode(line));
+        }
+
+        /**
+         * Decodes the file and searches it with 'DocumentSearch'.
+         */
+        private void scanChars(Path file, ByteBuffer bytes) {
+            CharsetDecoder decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer text;
+            try {
+                text = decoder.decode(bytes);
+            } catch (IOException e) {
+                return;
+            }
+            long line = 0, lastHitLine = -1;
+            int counted = 0;
+            int[] match = search.findNext(text, 0);
+            while (match != null) {
+                for (; counted < match[0]; counted++) {
+                    if (text.get(counted) == '\n') {
+                        line++;
+                    }
+                }
+                if (line != lastHitLine) {
+                    lastHitLine = line;
+                    int start = match[0], end = match[0];
+                    while (start > 0 && text.get(start - 1) != '\n') {
+                        start--;
+                    }
+                    while (end < text.limit() && text.get(end) != '\n' && end - start < PREVIEW_LENGTH) {
+                        end++;
+                    }
+                    if (!report(file, line, preview(text.subSequence(start, end)))) {
+                        return;
+                    }
+                }
+                int next = match[1] == match[0] ? match[1] + 1 : match[1];
+                match = next <= text.length() ? search.findNext(text, next) : null;
+            }
+        }
+
+        private String preview(CharSequence line) {
+            String text = line.toString().replace('\t', ' ').replace('\r', ' ').trim();
+            return text.length() > PREVIEW_LENGTH ? text.substring(0, PREVIEW_LENGTH) : text;
+        }
+
+        /**
+         * Publishes a hit; returns false once the search should stop.
+         */
+        private boolean report(Path file, long line, String text) {
+            if (isCancelled() || hitCount.incrementAndGet() > MAX_RESULTS) {
+                return false;
+            }
+            publish(new Hit(root, file, line, text));
+            return true;
+        }
+
+        @Override
+        protected void process(List<Hit> hits) {
+            if (running != this) {
+                return;
+            }
+            for (Hit hit : hits) {
+                results.addElement(hit);
+            }
+            statusLabel.setText("Searching... " + filesScanned.get() + " files, " + results.size() + " matches");
+        }
+
+        @Override
+        protected void done() {
+            operation.end();
+            if (running != this) {
+                return;
+            }
+            running = null;
+            findButton.setEnabled(true);
+            stopButton.setEnabled(false);
+            String summary = filesScanned.get() + " files, " + results.size() + " matches";
+            if (isCancelled()) {
+                statusLabel.setText("Stopped: " + summary);
+            } else if (hitCount.get() >= MAX_RESULTS) {
+                statusLabel.setText("Stopped after " + MAX_RESULTS + " matches: " + summary);
+            } else {
+                statusLabel.setText("Done: " + summary);
+            }
+        }
+    }
+}
@@ -0,0 +1,363 @@
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.GridLayout;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.PatternSyntaxException;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JDialog; // The non-modal window holding the find and replace fields.
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.SwingWorker; // Runs the searches off the event thread.
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.JTextComponent;
+
+/**
+ * 'FindReplaceDialog' is the find/replace window of a 'NotepadUserInterface'.
+ *
+ * Every search runs on a snapshot of the document taken on the event thread,
+ * so the text is never copied and the window stays responsive while a large
+ * document is searched by 'DocumentSearch' in the background.
+ *
+ * "Replace all" finds every match in parallel, builds the replaced text of the
+ * range between the first and the last match off the event thread, and then
+ * applies it as a single document update (one undo step, one repaint). If the
+ * document was edited in the meantime the replacement is abandoned.
+ */
+class FindReplaceDialog extends JDialog {
+
+    private final NotepadUserInterface notepad;
+
+    private final JTextField findField = new JTextField(25);
+    private final JTextField replaceField = new JTextField(25);
+    private final JCheckBox matchCaseBox = new JCheckBox("match case");
+    private final JCheckBox regexBox = new JCheckBox("regular expression");
+    private final JButton findNextButton = new JButton("find next");
+    private final JButton replaceButton = new JButton("replace");
+    private final JButton replaceAllButton = new JButton("replace all");
+    private final JLabel statusLabel = new JLabel(" ");
+
+    // Counts the edits of the document searched last, to notice edits made while a search runs.
+    private long modificationCount;
+    private Document watchedDocument;
+    private final DocumentListener modificationCounter = new DocumentListener() {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            modificationCount++;
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            modificationCount++;
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+        }
+    };
+
+    /**
+     * 'Replacement' is the outcome of a "replace all": the number of matches
+     * and the new text of the range between the first and the last match.
+     */
+    static final class Replacement {
+        final int count, first, last;
+        final String text;
+
+        Replacement(int count, int first, int last, String text) {
+            this.count = count;
+            this.first = first;
+            this.last = last;
+            this.text = text;
+        }
+    }
+
+    // The search running in the background, if any.
+    private SwingWorker<?, ?> running;
+
+    // Measures the running search, until its result is shown.
+    private Instrumentation.Operation operation;
+
+    /**
+     * Creates the (hidden) find/replace window of 'notepad'. It works on the
+     * document selected when a search starts.
+     */
+    FindReplaceDialog(NotepadUserInterface notepad) {
+        super(notepad.mainFrame, "find / replace", false);
+        this.notepad = notepad;
+
+        JPanel fields = new JPanel(new GridLayout(2, 2, 5, 5));
+        fields.add(new JLabel("find :"));
+        fields.add(findField);
+        fields.add(new JLabel("replace with :"));
+        fields.add(replaceField);
+
+        JPanel options = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        options.add(matchCaseBox);
+        options.add(regexBox);
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(findNextButton);
+        buttons.add(replaceButton);
+        buttons.add(replaceAllButton);
+
+        JPanel south = new JPanel(new BorderLayout());
+        south.add(options, BorderLayout.NORTH);
+        south.add(statusLabel, BorderLayout.CENTER);
+        south.add(buttons, BorderLayout.SOUTH);
+
+        JPanel content = new JPanel(new BorderLayout(5, 5));
+        content.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        content.add(fields, BorderLayout.CENTER);
+        content.add(south, BorderLayout.SOUTH);
+        setContentPane(content);
+        pack();
+        setLocationRelativeTo(notepad.mainFrame);
+
+        findNextButton.addActionListener(e -> findNext());
+        findField.addActionListener(e -> findNext());
+        replaceButton.addActionListener(e -> replace());
+        replaceAllButton.addActionListener(e -> replaceAll());
+        getRootPane().setDefaultButton(findNextButton);
+    }
+
+    /**
+     * Returns the text area of the selected document, counting the edits of
+     * its document from now on. Only one document is watched at a time; a
+     * search still running keeps the dialog from switching.
+     */
+    private JTextComponent selectedTextComponent() {
+        JTextComponent textComponent = notepad.textAreaMainFrame;
+        if (textComponent.getDocument() != watchedDocument) {
+            if (watchedDocument != null) {
+                watchedDocument.removeDocumentListener(modificationCounter);
+            }
+            watchedDocument = textComponent.getDocument();
+            watchedDocument.addDocumentListener(modificationCounter);
+        }
+        return textComponent;
+    }
+
+    /**
+     * Shows the window with the selected text (if any) as the text to find.
+     */
+    void open() {
+        String selected = notepad.textAreaMainFrame.getSelectedText();
+        if (selected != null && !selected.isEmpty() && selected.indexOf('\n') < 0) {
+            findField.setText(selected);
+        }
+        setVisible(true);
+        findField.requestFocusInWindow();
+        findField.selectAll();
+    }
+
+    /**
+     * Creates the search for the current fields, or returns null (telling the
+     * user why) if there is nothing valid to search for.
+     */
+    private DocumentSearch createSearch() {
+        String text = findField.getText();
+        if (text.isEmpty()) {
+            statusLabel.setText("Nothing to find..!");
+            return null;
+        }
+        try {
+            return regexBox.isSelected() ? DocumentSearch.forRegex(text, matchCaseBox.isSelected())
+                    : DocumentSearch.forLiteral(text, matchCaseBox.isSelected());
+        } catch (PatternSyntaxException e) {
+            statusLabel.setText("Invalid expression: " + e.getDescription());
+            return null;
+        }
+    }
+
+    /**
+     * Selects the next match after the caret, wrapping around to the start of
+     * the document.
+     */
+    void findNext() {
+        DocumentSearch search = createSearch();
+        if (search == null || running != null) {
+            return;
+        }
+        JTextComponent textComponent = selectedTextComponent();
+        PieceTableContent.SnapshotText text = notepad.documentContent.snapshot().asCharSequence();
+        int from = textComponent.getSelectionEnd();
+        boolean nothingSelected = textComponent.getSelectionStart() == from;
+        long expected = modificationCount;
+        start("find", new SwingWorker<int[], Void>() {
+            @Override
+            protected int[] doInBackground() {
+                int[] match = search.findNext(text, from);
+                if (match != null && match[1] == from && nothingSelected && from < text.length()) {
+                    // Don't stay on an empty match at the caret.
+                    match = search.findNext(text, from + 1);
+                }
+                return match != null || from == 0 ? match : search.findNext(text, 0);
+            }
+
+            @Override
+            protected void done() {
+                finished();
+                int[] match = result(this);
+                if (modificationCount != expected) {
+                    statusLabel.setText("The text changed while searching..!");
+                } else if (match == null) {
+                    statusLabel.setText("Not found..!");
+                } else {
+                    statusLabel.setText(" ");
+                    textComponent.select(match[0], match[1]);
+                    if (match[0] == match[1]) {
+                        textComponent.setCaretPosition(match[0]);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces the selection if it is a match, then selects the next match.
+     */
+    void replace() {
+        DocumentSearch search = createSearch();
+        JTextComponent textComponent = selectedTextComponent();
+        if (search == null || running != null || isReadOnly(textComponent)) {
+            return;
+        }
+        UndoHistory undoHistory = notepad.undoHistory;
+        int start = textComponent.getSelectionStart(), end = textComponent.getSelectionEnd();
+        PieceTableContent.SnapshotText text = notepad.documentContent.snapshot().asCharSequence();
+        int[] match = start == end ? null : search.findNext(text, start);
+        if (match != null && match[0] == start && match[1] == end) {
+            String replacement = search.replacementFor(text, start, end, replaceField.getText());
+            try {
+                undoHistory.beginCompound();
+                ((AbstractDocument) textComponent.getDocument()).replace(start, end - start, replacement, null);
+            } catch (BadLocationException e) {
+                // The selection is always inside the document.
+                e.printStackTrace();
+            } finally {
+                undoHistory.endCompound();
+            }
+            textComponent.setCaretPosition(start + replacement.length());
+        }
+        findNext();
+    }
+
+    /**
+     * Checks whether the text of 'textComponent' cannot be replaced, telling
+     * the user why if so: a large file opened read-only, or a file still being
+     * loaded or followed, whose text area isn't editable.
+     */
+    private boolean isReadOnly(JTextComponent textComponent) {
+        if (notepad.readOnlyLargeFile()) {
+            return true;
+        }
+        if (!textComponent.isEditable()) {
+            statusLabel.setText("The document is read-only for now..!");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replaces every match. The matches are found in parallel and the new text
+     * is built in the background; the event thread then applies it in one go.
+     */
+    void replaceAll() {
+        DocumentSearch search = createSearch();
+        JTextComponent textComponent = selectedTextComponent();
+        if (search == null || running != null || isReadOnly(textComponent)) {
+            return;
+        }
+        UndoHistory undoHistory = notepad.undoHistory;
+        PieceTableContent.SnapshotText text = notepad.documentContent.snapshot().asCharSequence();
+        String replacement = replaceField.getText();
+        long expected = modificationCount;
+        statusLabel.setText("Replacing...");
+
+        start("replace all", new SwingWorker<Replacement, Void>() {
+            @Override
+            protected Replacement doInBackground() throws InterruptedException {
+                DocumentSearch.Matches matches = search.findAll(text);
+                if (matches.count == 0) {
+                    return new Replacement(0, 0, 0, "");
+                }
+                // Only the range between the first and the last match is rewritten.
+                int first = matches.starts[0], last = matches.ends[matches.count - 1];
+                StringBuilder replaced = new StringBuilder(last - first);
+                int position = first;
+                for (int i = 0; i < matches.count; i++) {
+                    text.appendTo(replaced, position, matches.starts[i]);
+                    replaced.append(search.replacementFor(text, matches.starts[i], matches.ends[i], replacement));
+                    position = matches.ends[i];
+                }
+                return new Replacement(matches.count, first, last, replaced.toString());
+            }
+
+            @Override
+            protected void done() {
+                finished();
+                Replacement result = result(this);
+                if (result == null) {
+                    return;
+                }
+                if (modificationCount != expected) {
+                    statusLabel.setText("The text changed while replacing, nothing was replaced..!");
+                    return;
+                }
+                if (result.count > 0) {
+                    try {
+                        undoHistory.beginCompound();
+                        ((AbstractDocument) textComponent.getDocument()).replace(result.first,
+                                result.last - result.first, result.text, null);
+                    } catch (BadLocationException e) {
+                        // The range was found in the unchanged document.
+                        e.printStackTrace();
+                    } finally {
+                        undoHistory.endCompound();
+                    }
+                }
+                statusLabel.setText("Replaced " + result.count + " occurrence(s).");
+            }
+        });
+    }
+
+    private void start(String name, SwingWorker<?, ?> worker) {
+        running = worker;
+        operation = Instrumentation.begin(name, findField.getText());
+        findNextButton.setEnabled(false);
+        replaceButton.setEnabled(false);
+        replaceAllButton.setEnabled(false);
+        worker.execute();
+    }
+
+    private void finished() {
+        running = null;
+        // 'finished' is called first thing in 'done', so the result is shown by then.
+        operation.endAfterQueuedEvents();
+        findNextButton.setEnabled(true);
+        replaceButton.setEnabled(true);
+        replaceAllButton.setEnabled(true);
+    }
+
+    /**
+     * Returns the result of a finished worker, or null after telling the user
+     * that the search failed.
+     */
+    private <T> T result(SwingWorker<T, ?> worker) {
+        try {
+            return worker.get();
+        } catch (InterruptedException | ExecutionException e) {
+            statusLabel.setText("The search failed..!");
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
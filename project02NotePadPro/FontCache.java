@@ -0,0 +1,129 @@
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.GraphicsEnvironment; // Lists the font families installed on the platform.
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.swing.JLabel;
+
+/**
+ * 'FontCache' hands out the fonts of the editor, creating each 'Font' and its
+ * 'FontMetrics' only once per family, style and size.
+ *
+ * The families offered in the 'font' menu (Algerian, Bahnschrift, Agency FB,
+ * ...) are not installed everywhere; Java then silently substitutes a default
+ * font, looking it up again for every new 'Font'. Here a family is resolved
+ * once against the families installed ('GraphicsEnvironment'), ignoring case,
+ * and a family that isn't installed is replaced by 'FALLBACK_FAMILY'. Zooming
+ * with Ctrl+wheel steps through sizes of the same family, so after the first
+ * round every step is a map lookup.
+ */
+final class FontCache {
+
+    // The family used in place of families that aren't installed.
+    static final String FALLBACK_FAMILY = Font.MONOSPACED;
+
+    // The smallest and largest font sizes zooming goes to.
+    static final int MIN_SIZE = 6, MAX_SIZE = 96;
+
+    // The logical families Java always provides.
+    private static final String[] LOGICAL_FAMILIES = { Font.DIALOG, Font.DIALOG_INPUT, Font.MONOSPACED,
+            Font.SANS_SERIF, Font.SERIF };
+
+    // The fonts by family (as requested), style and size.
+    private static final Map<Key, Font> FONTS = new ConcurrentHashMap<>();
+
+    // The metrics of the fonts handed out.
+    private static final Map<Font, FontMetrics> METRICS = new ConcurrentHashMap<>();
+
+    // The family each requested family resolved to.
+    private static final Map<String, String> RESOLVED = new ConcurrentHashMap<>();
+
+    // The installed families by their lower case name; read on first use.
+    private static Map<String, String> installedFamilies;
+
+    // Measures the fonts the way the Swing components do.
+    private static final JLabel METRICS_SOURCE = new JLabel();
+
+    private FontCache() {
+    }
+
+    /**
+     * 'Key' identifies a font by the family asked for, its style and size.
+     */
+    private static final class Key {
+        final String family;
+        final int style, size;
+
+        Key(String family, int style, int size) {
+            this.family = family;
+            this.style = style;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return size == key.size && style == key.style && family.equals(key.family);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(family, style, size);
+        }
+    }
+
+    /**
+     * Returns the font of 'family' (resolved to an installed family) in the
+     * given style ('Font.PLAIN', 'Font.BOLD', ...) and size.
+     */
+    static Font get(String family, int style, int size) {
+        return FONTS.computeIfAbsent(new Key(family, style, size),
+                key -> new Font(resolve(key.family), key.style, key.size));
+    }
+
+    /**
+     * Returns 'font' in another size, from the cache.
+     */
+    static Font resize(Font font, int size) {
+        return get(font.getFamily(), font.getStyle(), size);
+    }
+
+    /**
+     * Returns the metrics of 'font', as a Swing component measures it.
+     */
+    static FontMetrics metrics(Font font) {
+        return METRICS.computeIfAbsent(font, METRICS_SOURCE::getFontMetrics);
+    }
+
+    /**
+     * Returns the installed family 'family' stands for, or 'FALLBACK_FAMILY'
+     * if it isn't installed.
+     */
+    static String resolve(String family) {
+        return RESOLVED.computeIfAbsent(family, requested -> {
+            String installed = installedFamilies().get(requested.toLowerCase(Locale.ROOT));
+            return installed != null ? installed : FALLBACK_FAMILY;
+        });
+    }
+
+    private static synchronized Map<String, String> installedFamilies() {
+        if (installedFamilies == null) {
+            Map<String, String> families = new HashMap<>();
+            for (String family : LOGICAL_FAMILIES) {
+                families.put(family.toLowerCase(Locale.ROOT), family);
+            }
+            for (String family : GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames()) {
+                families.put(family.toLowerCase(Locale.ROOT), family);
+            }
+            installedFamilies = families;
+        }
+        return installedFamilies;
+    }
+}
@@ -0,0 +1,193 @@
+import java.io.IOException; // Handles input/output exceptions.
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * 'Instrumentation' measures the operations of the editor.
+ *
+ * Every operation (open, save, template insert, font change, wrap toggle,
+ * search) is an 'Operation' from 'begin' to 'end', committed as an
+ * 'OperationEvent' for Java Flight Recorder, e.g. with
+ * -XX:StartFlightRecording=filename=notepadpro.jfr. Without a recording the
+ * events cost next to nothing.
+ *
+ * With -Dnotepadpro.metrics=<file> the durations are also kept in latency
+ * histograms (one per operation, plus the event thread stalls noticed by the
+ * 'EdtWatchdog'), and a summary is appended to that file when the editor
+ * exits, so runs of different versions can be compared.
+ */
+final class Instrumentation {
+
+    // The file the histograms are appended to, or null if they aren't kept.
+    static final Path METRICS_FILE = System.getProperty("notepadpro.metrics") == null ? null
+            : Paths.get(System.getProperty("notepadpro.metrics"));
+
+    // Name of the histogram of the event thread stalls.
+    static final String EDT_STALL = "edt stall";
+
+    // The histograms by operation, sorted by name for the summary.
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new TreeMap<>();
+
+    // The stacks of the longest stall, and its duration.
+    private static String longestStallStacks;
+    private static long longestStall;
+
+    static {
+        if (METRICS_FILE != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(Instrumentation::writeMetrics, "NotepadPro-metrics"));
+        }
+    }
+
+    private Instrumentation() {
+    }
+
+    /**
+     * 'Operation' is one operation being measured.
+     */
+    static final class Operation {
+        private final String name;
+        private final OperationEvent event = new OperationEvent();
+        private final long start = System.nanoTime();
+        private boolean ended;
+
+        private Operation(String name, String detail) {
+            this.name = name;
+            event.operation = name;
+            event.detail = detail;
+            event.begin();
+        }
+
+        /**
+         * Ends the operation; only the first call counts.
+         */
+        void end() {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            event.commit();
+            record(name, System.nanoTime() - start);
+        }
+
+        /**
+         * Ends the operation once the events queued so far have been handled,
+         * i.e. after the layout and painting an operation on the event thread
+         * caused.
+         */
+        void endAfterQueuedEvents() {
+            SwingUtilities.invokeLater(this::end);
+        }
+    }
+
+    /**
+     * Starts measuring an operation.
+     *
+     * @param name   The operation ("open", "save", ...), which names its histogram.
+     * @param detail What it works on (a file, a font, ...), recorded with the event.
+     */
+    static Operation begin(String name, String detail) {
+        return new Operation(name, detail);
+    }
+
+    /**
+     * Adds a duration to the histogram of 'name', if histograms are kept.
+     */
+    static void record(String name, long nanos) {
+        if (METRICS_FILE == null) {
+            return;
+        }
+        synchronized (HISTOGRAMS) {
+            HISTOGRAMS.computeIfAbsent(name, key -> new LatencyHistogram()).add(nanos);
+        }
+    }
+
+    /**
+     * Records a stall of the event thread and the stacks sampled during it.
+     */
+    static void recordStall(long nanos, String stacks) {
+        record(EDT_STALL, nanos);
+        synchronized (HISTOGRAMS) {
+            if (nanos > longestStall) {
+                longestStall = nanos;
+                longestStallStacks = stacks;
+            }
+        }
+    }
+
+    /**
+     * Appends the summary of this run to 'METRICS_FILE'.
+     */
+    static void writeMetrics() {
+        StringWriter summary = new StringWriter();
+        PrintWriter out = new PrintWriter(summary);
+        out.printf("# NotepadPro run ended %s, Java %s%n", Instant.now(), System.getProperty("java.version"));
+        synchronized (HISTOGRAMS) {
+            HISTOGRAMS.forEach((name, histogram) -> out.printf("%-16s %s%n", name, histogram));
+            if (longestStallStacks != null) {
+                out.printf("longest stall %.1f ms:%n%s", longestStall / 1e6, longestStallStacks);
+            }
+        }
+        out.println();
+        out.flush();
+        try {
+            Files.write(METRICS_FILE, summary.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            // The editor is exiting; there is nobody left to tell.
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 'LatencyHistogram' counts durations in buckets of powers of two
+     * microseconds: bucket k holds durations below 2^k microseconds (and at
+     * least 2^(k-1)). Percentiles are given as the upper bound of their bucket.
+     */
+    static final class LatencyHistogram {
+        private final long[] buckets = new long[40];
+        private long count, totalNanos, maxNanos;
+
+        void add(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            buckets[Math.min(buckets.length - 1, 64 - Long.numberOfLeadingZeros(micros))]++;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        // The upper bound (in ms) of the bucket holding the 'fraction' percentile.
+        private double percentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * count), seen = 0;
+            for (int k = 0; k < buckets.length; k++) {
+                seen += buckets[k];
+                if (seen >= rank) {
+                    return (1L << k) / 1000.0;
+                }
+            }
+            return maxNanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(String.format(
+                    "count=%d mean=%.2fms p50<=%.3fms p90<=%.3fms p99<=%.3fms max=%.2fms buckets(us<2^k):", count,
+                    totalNanos / 1e6 / count, percentile(0.5), percentile(0.9), percentile(0.99), maxNanos / 1e6));
+            for (int k = 0; k < buckets.length; k++) {
+                if (buckets[k] > 0) {
+                    text.append(' ').append(k).append('=').append(buckets[k]);
+                }
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import javax.swing.SwingUtilities;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * 'JavaRunner' compiles the text of a Java document in memory, for "compile
+ * and run": the source is handed to the compiler as a string and the classes
+ * it produces are kept as bytes, so nothing is written next to the source.
+ *
+ * Compiling is slow the first time only: the compiler has to load its own
+ * classes and index the classes of the platform. The compiler and its file
+ * manager are therefore created once and kept, on a thread of their own
+ * ("NotepadPro-compile"), which compiles one document after the other;
+ * 'warmUp' gets the first, slow compilations out of the way early. Warm, a
+ * small class compiles in tens of milliseconds instead of about a second.
+ *
+ * A compiled program runs in a JVM of its own, so it can neither exit nor
+ * redirect the output of the notepad: 'Compilation.writeClasses' puts its
+ * classes in a temporary directory, which is its class path.
+ */
+final class JavaRunner {
+
+    // No annotation processors are looked for, which saves scanning the class path.
+    static final List<String> OPTIONS = List.of("-g", "-proc:none");
+
+    // The compilations 'warmUp' runs; the compiler gets faster for several.
+    static final int WARM_UP_COMPILATIONS = 3;
+
+    private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+    private static final Pattern PUBLIC_TYPE = Pattern.compile(
+            "\\bpublic\\s+(?:(?:final|abstract|static|strictfp)\\s+)*(?:class|interface|enum|record)\\s+(\\w+)");
+
+    private final ExecutorService compileThread = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "NotepadPro-compile");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Created by the first compilation and kept; only used on 'compileThread'.
+    private JavaCompiler compiler;
+    private MemoryFileManager fileManager;
+
+    private boolean warmedUp;
+
+    /**
+     * Compiles a small class a few times in the background, unless something
+     * was compiled already, so the next compilation finds the compiler ready.
+     * Called on the event thread.
+     */
+    void warmUp() {
+        if (warmedUp) {
+            return;
+        }
+        warmedUp = true;
+        for (int i = 0; i < WARM_UP_COMPILATIONS; i++) {
+            compileThread.execute(() -> compileNow(
+                    "public class WarmUp { public static void main(String[] args) { System.out.println(args.length); } }",
+                    "WarmUp.java"));
+        }
+    }
+
+    /**
+     * Compiles 'source' in the background and hands the result to 'whenDone'
+     * on the event thread, always: a compiler that fails with an exception
+     * gives a failed compilation with the exception as its message.
+     *
+     * @param source   The text of the document.
+     * @param fileName The name of the document, naming the class to run if
+     *                 the source declares no public class.
+     */
+    void compile(String source, String fileName, Consumer<Compilation> whenDone) {
+        warmedUp = true;
+        compileThread.execute(() -> {
+            Compilation compilation;
+            try {
+                compilation = compileNow(source, fileName);
+            } catch (RuntimeException e) {
+                compilation = new Compilation(fileName, Map.of(), List.of("The compiler failed: " + e), false, 0);
+            }
+            Compilation result = compilation;
+            SwingUtilities.invokeLater(() -> whenDone.accept(result));
+        });
+    }
+
+    private Compilation compileNow(String source, String fileName) {
+        String mainClass = mainClassOf(source, fileName);
+        Instrumentation.Operation operation = Instrumentation.begin("compile", mainClass);
+        long start = System.nanoTime();
+        try {
+            if (compiler == null) {
+                compiler = ToolProvider.getSystemJavaCompiler();
+                if (compiler == null) {
+                    return new Compilation(mainClass, Map.of(),
+                            List.of("No Java compiler: the notepad runs on a JRE instead of a JDK."), false, 0);
+                }
+                fileManager = new MemoryFileManager(compiler.getStandardFileManager(null, Locale.getDefault(), null));
+            }
+            fileManager.classes = new HashMap<>();
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            boolean success = compiler.getTask(null, fileManager, diagnostics, OPTIONS, null,
+                    List.of(new SourceFile(mainClass, source))).call();
+
+            List<String> messages = new ArrayList<>();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                messages.add(simpleName(mainClass) + ".java:" + diagnostic.getLineNumber() + ": "
+                        + diagnostic.getKind().toString().toLowerCase(Locale.ROOT) + ": "
+                        + diagnostic.getMessage(null));
+            }
+            return new Compilation(mainClass, fileManager.classes, messages, success, System.nanoTime() - start);
+        } finally {
+            operation.end();
+        }
+    }
+
+    /**
+     * Returns the binary name of the class to run: the public class of
+     * 'source' (or else the class named like 'fileName'), in its package.
+     */
+    static String mainClassOf(String source, String fileName) {
+        Matcher type = PUBLIC_TYPE.matcher(source);
+        String name;
+        if (type.find()) {
+            name = type.group(1);
+        } else if (fileName.endsWith(".java")) {
+            name = fileName.substring(0, fileName.length() - ".java".length());
+        } else {
+            name = "Main";
+        }
+        Matcher packageName = PACKAGE.matcher(source);
+        return packageName.find() ? packageName.group(1) + "." + name : name;
+    }
+
+    private static String simpleName(String className) {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * 'Compilation' is the result of compiling a document: the classes, by
+     * binary name, and the errors and warnings of the compiler.
+     */
+    static final class Compilation {
+        final String mainClass;
+        final Map<String, byte[]> classes;
+        final List<String> messages;
+        final boolean success;
+        final long nanos;
+
+        Compilation(String mainClass, Map<String, byte[]> classes, List<String> messages, boolean success,
+                long nanos) {
+            this.mainClass = mainClass;
+            this.classes = classes;
+            this.messages = messages;
+            this.success = success;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Writes the classes to a new temporary directory, to be the class
+         * path of the program; 'delete' removes it again.
+         */
+        Path writeClasses() throws IOException {
+            Path directory = Files.createTempDirectory("notepadpro-run");
+            for (Map.Entry<String, byte[]> compiled : classes.entrySet()) {
+                Path file = directory.resolve(compiled.getKey().replace('.', '/') + ".class");
+                Files.createDirectories(file.getParent());
+                Files.write(file, compiled.getValue());
+            }
+            return directory;
+        }
+
+        /**
+         * Deletes a directory written by 'writeClasses'.
+         */
+        static void delete(Path directory) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            } catch (IOException e) {
+                // Left for the system to clean up with the rest of the temporary files.
+            }
+        }
+    }
+
+    // The source of the document, read from memory.
+    private static final class SourceFile extends SimpleJavaFileObject {
+        private final String source;
+
+        SourceFile(String className, String source) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    // A class written by the compiler, kept in 'classes'.
+    private static final class ClassFile extends SimpleJavaFileObject {
+        private final String className;
+        private final Map<String, byte[]> classes;
+
+        ClassFile(String className, Kind kind, Map<String, byte[]> classes) {
+            super(URI.create("bytes:///" + className.replace('.', '/') + kind.extension), kind);
+            this.className = className;
+            this.classes = classes;
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    classes.put(className, toByteArray());
+                }
+            };
+        }
+    }
+
+    /**
+     * 'MemoryFileManager' reads the platform's classes like the standard
+     * file manager, whose index of them it keeps, but writes the compiled
+     * classes to 'classes' instead of files.
+     */
+    private static final class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+        // The classes of the current compilation.
+        Map<String, byte[]> classes = new HashMap<>();
+
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className,
+                JavaFileObject.Kind kind, FileObject sibling) {
+            return new ClassFile(className, kind, classes);
+        }
+    }
+}
@@ -0,0 +1,401 @@
+import java.awt.Dimension;
+import java.awt.Font; // Provides classes for specifying font styles and sizes.
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Insets; // Defines the space around components for better layout management.
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException; // Handles input/output exceptions.
+import java.nio.MappedByteBuffer; // A region of the file mapped into memory outside of the Java heap.
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.BorderFactory;
+import javax.swing.JComponent;
+import javax.swing.JViewport;
+import javax.swing.Scrollable; // Lets the scroll pane scroll the view line by line.
+import javax.swing.SwingConstants;
+import javax.swing.SwingWorker; // Builds the line index off the event thread.
+
+/**
+ * 'LargeFileView' is the read-only "large file" mode of the notepad, used for
+ * files too big to be loaded into the Java heap.
+ *
+ * The file is memory-mapped with 'FileChannel.map' instead of being read, and
+ * a background worker builds a sparse line index holding the start offset of
+ * every 'CHECKPOINT_INTERVAL'-th line. Painting only decodes the lines inside
+ * the scroll pane's viewport: a line is located by jumping to the nearest
+ * checkpoint and scanning at most 'CHECKPOINT_INTERVAL' lines from there.
+ * Heap use therefore stays roughly constant whatever the size of the file.
+ */
+class LargeFileView extends JComponent implements Scrollable {
+
+    // Files at least this large are opened in the large file mode.
+    static final long LARGE_FILE_THRESHOLD = 256L << 20;
+
+    // Number of lines between two entries of the sparse line index.
+    static final int CHECKPOINT_INTERVAL = 1024;
+
+    // Size of one mapped region; a single mapping is limited to 2 GB.
+    static final int REGION_SHIFT = 30;
+    static final long REGION_MASK = (1L << REGION_SHIFT) - 1;
+
+    // Number of bytes of a line that are decoded for display.
+    static final int MAX_DISPLAYED_LINE_BYTES = 4096;
+
+    // The file shown by this view and its size in bytes.
+    final File file;
+    final long fileSize;
+
+    // The charset used to decode the visible lines.
+    private final Charset charset;
+
+    // The mapped regions of the file, 'REGION_SHIFT' bits of address each.
+    private final MappedByteBuffer[] regions;
+
+    // The sparse line index, as last published by the indexing worker.
+    private long[] checkpoints = { 0 };
+    private long lineCount = 1;
+    private int longestLineBytes;
+    private boolean indexComplete;
+
+    // The worker building the line index in the background.
+    private final IndexWorker indexWorker = new IndexWorker();
+
+    // Start offset of the last line located, reused when painting consecutive lines.
+    private long cachedLine = -1, cachedLineStart;
+
+    /**
+     * Maps 'file' into memory and starts indexing its lines in the background.
+     *
+     * @param file The file to show.
+     * @param font The font used to paint the lines.
+     * @throws IOException If the file cannot be opened or mapped.
+     */
+    LargeFileView(File file, Font font) throws IOException {
+        this.file = file;
+        this.charset = Charset.defaultCharset();
+        setFont(font);
+        setOpaque(true);
+        setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
+
+        // Mapping costs no heap; the mapped regions stay valid after the channel is closed.
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            fileSize = channel.size();
+            regions = new MappedByteBuffer[(int) ((fileSize + REGION_MASK) >>> REGION_SHIFT)];
+            for (int i = 0; i < regions.length; i++) {
+                long position = (long) i << REGION_SHIFT;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(REGION_MASK + 1, fileSize - position));
+            }
+        }
+        indexWorker.execute();
+    }
+
+    /**
+     * Stops indexing; called when the view is replaced by another document.
+     */
+    void close() {
+        indexWorker.cancel(false);
+    }
+
+    /**
+     * Returns the number of lines indexed so far.
+     */
+    long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Returns true once the whole file has been indexed.
+     */
+    boolean isIndexComplete() {
+        return indexComplete;
+    }
+
+    /**
+     * Scrolls the view so that 'line' (0-based) is the first visible line.
+     * Only the nearest checkpoint and the lines after it are looked at.
+     */
+    void scrollToLine(long line) {
+        line = Math.max(0, Math.min(line, lineCount - 1));
+        Rectangle visible = getVisibleRect();
+        visible.y = yOfLine(line);
+        scrollRectToVisible(visible);
+    }
+
+    /**
+     * Returns the line painted at the vertical coordinate 'y'.
+     * When the file has more lines than an int coordinate can address, lines
+     * are spread proportionally over the available height.
+     */
+    long lineAtY(int y) {
+        int top = getInsets().top;
+        long line = isScaled() ? (long) ((double) Math.max(0, y - top) / contentHeight() * lineCount)
+                : Math.max(0, y - top) / lineHeight();
+        return Math.min(line, lineCount - 1);
+    }
+
+    /**
+     * Returns the vertical coordinate at which 'line' is painted.
+     */
+    int yOfLine(long line) {
+        int top = getInsets().top;
+        return top + (int) (isScaled() ? (double) line / lineCount * contentHeight() : line * lineHeight());
+    }
+
+    /**
+     * Paints only the lines intersecting the clip, decoding them straight from
+     * the mapped regions.
+     */
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        g.setColor(getForeground());
+        g.setFont(getFont());
+
+        FontMetrics metrics = g.getFontMetrics();
+        Insets insets = getInsets();
+        int lineHeight = lineHeight();
+        long first;
+        int y;
+        if (isScaled()) {
+            // Scaled lines have no fixed coordinates: they are painted one per row
+            // down from the line at the top of the viewport, whatever the clip.
+            Rectangle visible = getVisibleRect();
+            int skipped = Math.max(0, clip.y - visible.y) / lineHeight;
+            first = lineAtY(visible.y) + skipped;
+            y = visible.y + skipped * lineHeight;
+        } else {
+            first = lineAtY(clip.y);
+            y = yOfLine(first);
+        }
+        byte[] lineBytes = new byte[MAX_DISPLAYED_LINE_BYTES];
+
+        for (long line = first; line < lineCount && y < clip.y + clip.height + lineHeight; line++) {
+            long start = lineStart(line);
+            if (start < 0) {
+                break;
+            }
+            int count = 0;
+            long position = start;
+            while (position < fileSize && count < lineBytes.length) {
+                byte b = byteAt(position++);
+                if (b == '\n') {
+                    break;
+                }
+                lineBytes[count++] = b;
+            }
+            if (count > 0 && lineBytes[count - 1] == '\r') {
+                count--;
+            }
+            String text = new String(lineBytes, 0, count, charset).replace("\t", "    ");
+            g.drawString(text, insets.left, y + metrics.getAscent());
+            y += lineHeight;
+        }
+    }
+
+    /**
+     * Makes the viewport repaint all of the view on scrolling while the lines
+     * are scaled: the lines then move by more than the scrolled distance, so
+     * the part of the view already on screen cannot be blitted.
+     */
+    private void updateScrollMode() {
+        if (getParent() instanceof JViewport) {
+            ((JViewport) getParent()).setScrollMode(isScaled() ? JViewport.SIMPLE_SCROLL_MODE
+                    : JViewport.BLIT_SCROLL_MODE);
+        }
+    }
+
+    @Override
+    public void setFont(Font font) {
+        super.setFont(font);
+        updateScrollMode();
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        updateScrollMode();
+    }
+
+    @Override
+    public void removeNotify() {
+        // The scroll pane shows the text area again afterwards.
+        if (getParent() instanceof JViewport) {
+            ((JViewport) getParent()).setScrollMode(JViewport.BLIT_SCROLL_MODE);
+        }
+        super.removeNotify();
+    }
+
+    /**
+     * Returns the byte offset at which 'line' starts, or -1 if it hasn't been
+     * indexed yet. Consecutive lookups continue from the previous line.
+     */
+    private long lineStart(long line) {
+        long checkpoint = line / CHECKPOINT_INTERVAL;
+        if (checkpoint >= checkpoints.length || line >= lineCount) {
+            return -1;
+        }
+        long current;
+        long position;
+        if (cachedLine >= 0 && cachedLine <= line && line - cachedLine < CHECKPOINT_INTERVAL) {
+            current = cachedLine;
+            position = cachedLineStart;
+        } else {
+            current = checkpoint * CHECKPOINT_INTERVAL;
+            position = checkpoints[(int) checkpoint];
+        }
+        while (current < line && position < fileSize) {
+            if (byteAt(position++) == '\n') {
+                current++;
+            }
+        }
+        cachedLine = line;
+        cachedLineStart = position;
+        return position;
+    }
+
+    /**
+     * Reads the byte at 'position' from the mapped region holding it.
+     */
+    private byte byteAt(long position) {
+        return regions[(int) (position >>> REGION_SHIFT)].get((int) (position & REGION_MASK));
+    }
+
+    private int lineHeight() {
+        return FontCache.metrics(getFont()).getHeight();
+    }
+
+    // True if the lines don't fit in an int coordinate space at one line per row.
+    private boolean isScaled() {
+        return lineCount * lineHeight() > Integer.MAX_VALUE / 2;
+    }
+
+    private int contentHeight() {
+        return (int) Math.min(lineCount * lineHeight(), Integer.MAX_VALUE / 2);
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        Insets insets = getInsets();
+        int width = FontCache.metrics(getFont()).charWidth('m') * Math.min(longestLineBytes, MAX_DISPLAYED_LINE_BYTES);
+        return new Dimension(width + insets.left + insets.right, contentHeight() + insets.top + insets.bottom);
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? lineHeight() : FontCache.metrics(getFont()).charWidth('m');
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return false;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return false;
+    }
+
+    /**
+     * 'IndexSnapshot' is the state of the line index handed from the worker to
+     * the event thread. The checkpoint entries it covers are never modified
+     * afterwards, so the array can be shared without copying.
+     */
+    static final class IndexSnapshot {
+        final long[] checkpoints;
+        final long lineCount;
+        final int longestLineBytes;
+
+        IndexSnapshot(long[] checkpoints, long lineCount, int longestLineBytes) {
+            this.checkpoints = checkpoints;
+            this.lineCount = lineCount;
+            this.longestLineBytes = longestLineBytes;
+        }
+    }
+
+    /**
+     * 'IndexWorker' scans the mapped file for line breaks on a background thread,
+     * recording a checkpoint every 'CHECKPOINT_INTERVAL' lines and publishing
+     * the index periodically so the view can grow while the scan is running.
+     */
+    final class IndexWorker extends SwingWorker<Void, IndexSnapshot> {
+
+        // Number of bytes scanned between two published snapshots.
+        static final long PUBLISH_INTERVAL = 64L << 20;
+
+        @Override
+        protected Void doInBackground() {
+            long[] index = new long[1024];
+            int count = 1;
+            long lines = 1;
+            long lineStartOffset = 0;
+            int longest = 0;
+            long nextPublish = PUBLISH_INTERVAL;
+
+            for (int r = 0; r < regions.length; r++) {
+                MappedByteBuffer region = regions[r];
+                long regionStart = (long) r << REGION_SHIFT;
+                int limit = region.limit();
+                for (int i = 0; i < limit; i++) {
+                    if (region.get(i) != '\n') {
+                        continue;
+                    }
+                    // The byte after the line break starts line number 'lines'.
+                    long next = regionStart + i + 1;
+                    longest = (int) Math.max(longest, Math.min(next - lineStartOffset, Integer.MAX_VALUE));
+                    lineStartOffset = next;
+                    if (lines % CHECKPOINT_INTERVAL == 0) {
+                        if (count == index.length) {
+                            index = Arrays.copyOf(index, count * 2);
+                        }
+                        index[count++] = next;
+                    }
+                    lines++;
+                    if (next >= nextPublish) {
+                        if (isCancelled()) {
+                            return null;
+                        }
+                        publish(new IndexSnapshot(index, lines, longest));
+                        nextPublish = next + PUBLISH_INTERVAL;
+                    }
+                }
+            }
+            longest = (int) Math.max(longest, Math.min(fileSize - lineStartOffset, Integer.MAX_VALUE));
+            publish(new IndexSnapshot(index, lines, longest));
+            return null;
+        }
+
+        @Override
+        protected void process(List<IndexSnapshot> snapshots) {
+            IndexSnapshot latest = snapshots.get(snapshots.size() - 1);
+            checkpoints = latest.checkpoints;
+            lineCount = latest.lineCount;
+            longestLineBytes = latest.longestLineBytes;
+            updateScrollMode();
+            revalidate();
+            repaint();
+        }
+
+        @Override
+        protected void done() {
+            indexComplete = !isCancelled();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener; // Keeps the index in step with every edit.
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment; // Reads the inserted text without copying it.
+
+/**
+ * 'LineIndex' holds the start offset of every line of a document in a
+ * primitive 'int[]', so line-oriented features (go-to-line, the line count,
+ * the caret's line and column) never walk the document's element tree or
+ * rescan the text.
+ *
+ * The array has a gap at the line of the last edit, like the gap buffer of
+ * 'GapContent'. Entries before the gap are plain offsets, entries after it
+ * are stored as their distance from the end of the document, which an edit
+ * before them doesn't change. An edit therefore only adds or drops the
+ * entries of the line breaks it inserted or removed, plus moving the gap over
+ * the lines between the previous edit and this one. Lookups are binary
+ * searches.
+ */
+class LineIndex implements DocumentListener {
+
+    // The line starts, with a gap between 'gapStart' and 'gapEnd'.
+    private int[] starts = new int[64];
+    private int gapStart, gapEnd = starts.length;
+
+    // The length of the document as known to the index.
+    private int length;
+
+    // Reused to read inserted text.
+    private final Segment segment = new Segment();
+
+    /**
+     * Creates the index of 'document', scanning its current text once.
+     * The index must be added to the document as a listener to stay current.
+     */
+    LineIndex(Document document) {
+        starts[gapStart++] = 0;
+        try {
+            addLineBreaks(document, 0, document.getLength());
+        } catch (BadLocationException e) {
+            // The whole document is always a valid range.
+            e.printStackTrace();
+        }
+        length = document.getLength();
+    }
+
+    /**
+     * Returns the number of lines; an empty document has one line.
+     */
+    int getLineCount() {
+        return starts.length - (gapEnd - gapStart);
+    }
+
+    /**
+     * Returns the number of bytes held by the line starts, gap included.
+     */
+    long getMemoryUsed() {
+        return 4L * starts.length;
+    }
+
+    /**
+     * Returns the offset at which 'line' (0-based) starts.
+     */
+    int getLineStart(int line) {
+        return line < gapStart ? starts[line] : length - starts[line + gapEnd - gapStart];
+    }
+
+    /**
+     * Returns the line (0-based) holding 'offset'.
+     */
+    int getLineOfOffset(int offset) {
+        int low = 0, high = getLineCount() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (getLineStart(mid) <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        int offset = e.getOffset();
+        // The lines after the one edited move with the end of the document.
+        moveGap(getLineOfOffset(offset) + 1);
+        try {
+            addLineBreaks(e.getDocument(), offset, e.getLength());
+        } catch (BadLocationException e1) {
+            // The event describes text that is part of the document.
+            e1.printStackTrace();
+        }
+        length += e.getLength();
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        int offset = e.getOffset(), end = offset + e.getLength();
+        // The lines starting inside the removed range are dropped.
+        int first = getLineOfOffset(offset) + 1;
+        int last = getLineOfOffset(end);
+        moveGap(first);
+        gapEnd += last - first + 1;
+        length -= e.getLength();
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Attribute changes don't move lines.
+    }
+
+    /**
+     * Adds an entry at the gap for every line break in the given range of the
+     * document, reading it a buffer at a time.
+     */
+    private void addLineBreaks(Document document, int offset, int count) throws BadLocationException {
+        segment.setPartialReturn(true);
+        int end = offset + count;
+        while (offset < end) {
+            document.getText(offset, end - offset, segment);
+            for (int i = 0; i < segment.count; i++) {
+                if (segment.array[segment.offset + i] == '\n') {
+                    if (gapStart == gapEnd) {
+                        growGap();
+                    }
+                    starts[gapStart++] = offset + i + 1;
+                }
+            }
+            offset += segment.count;
+        }
+    }
+
+    /**
+     * Moves the gap so that the first 'line' entries lie before it, converting
+     * the entries that cross it.
+     */
+    private void moveGap(int line) {
+        while (gapStart > line) {
+            starts[--gapEnd] = length - starts[--gapStart];
+        }
+        while (gapStart < line) {
+            starts[gapStart++] = length - starts[gapEnd++];
+        }
+    }
+
+    /**
+     * Doubles the array, keeping the entries after the gap at its end.
+     */
+    private void growGap() {
+        int[] grown = new int[starts.length * 2];
+        int after = starts.length - gapEnd;
+        System.arraycopy(starts, 0, grown, 0, gapStart);
+        System.arraycopy(starts, gapEnd, grown, grown.length - after, after);
+        gapEnd = grown.length - after;
+        starts = grown;
+    }
+}
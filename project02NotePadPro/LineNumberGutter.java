@@ -0,0 +1,160 @@
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.geom.Rectangle2D;
+
+import javax.swing.JComponent;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener; // Repaints the numbers below an edit.
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+
+/**
+ * 'LineNumberGutter' shows the line numbers of a text area, as the row header
+ * of the scroll pane holding it.
+ *
+ * Only the numbers inside the clip are painted: the first line is the one at
+ * the top of the clip, and the lines after it are painted until one starts
+ * below the clip. The line starts come from the document's 'LineIndex', and
+ * the position of a line from the text area's view (so wrapped lines take as
+ * many rows as they do in the text area). The cost of painting therefore
+ * doesn't depend on the number of lines.
+ *
+ * An edit that adds or removes lines (or any edit while lines are wrapped,
+ * which may change the rows of its line) repaints the numbers from the edited
+ * line to the bottom of the visible area, once the edit has been handled.
+ * Other edits don't touch the gutter.
+ */
+final class LineNumberGutter extends JComponent implements DocumentListener {
+
+    // Space left and right of the numbers.
+    static final int PADDING = 8;
+
+    // Colours of the numbers and of the gutter.
+    static final Color NUMBER_COLOR = new Color(0x90, 0x90, 0x90);
+    static final Color BACKGROUND = new Color(0xF4, 0xF4, 0xF4);
+
+    private final JTextArea textArea;
+    private final LineIndex lineIndex;
+    private final Element root;
+
+    // The number of digits the gutter is sized for.
+    private int digits;
+
+    // The first line whose number may have moved since the last repaint, or -1.
+    private int dirtyFrom = -1;
+
+    /**
+     * Creates the gutter of 'textArea', numbering the lines of 'lineIndex'.
+     * It must be added to the document as a listener to follow the edits.
+     */
+    LineNumberGutter(JTextArea textArea, LineIndex lineIndex) {
+        this.textArea = textArea;
+        this.lineIndex = lineIndex;
+        this.root = textArea.getDocument().getDefaultRootElement();
+        setOpaque(true);
+        setBackground(BACKGROUND);
+        setFont(textArea.getFont());
+
+        // The gutter is as high as the text area and uses its font.
+        textArea.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                revalidate();
+            }
+        });
+        textArea.addPropertyChangeListener("font", e -> setFont(textArea.getFont()));
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        digits = Math.max(2, Integer.toString(root.getElementCount()).length());
+        FontMetrics metrics = FontCache.metrics(getFont());
+        return new Dimension(2 * PADDING + digits * metrics.charWidth('0'), textArea.getHeight());
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        g.setColor(NUMBER_COLOR);
+        FontMetrics metrics = g.getFontMetrics(getFont());
+        int right = getWidth() - PADDING;
+        try {
+            int offset = textArea.viewToModel2D(new Point(0, clip.y));
+            int lineCount = lineIndex.getLineCount();
+            for (int line = lineIndex.getLineOfOffset(Math.max(offset, 0)); line < lineCount; line++) {
+                Rectangle2D start = textArea.modelToView2D(lineIndex.getLineStart(line));
+                if (start == null || start.getY() >= clip.y + clip.height) {
+                    break;
+                }
+                String number = Integer.toString(line + 1);
+                g.drawString(number, right - metrics.stringWidth(number), (int) start.getY() + metrics.getAscent());
+            }
+        } catch (BadLocationException e) {
+            // The line index follows the document.
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        edited(e);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        edited(e);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Attribute changes don't move lines.
+    }
+
+    /**
+     * Marks the numbers from the edited line on as dirty; they are repainted
+     * after the edit, when the views and the line index are up to date.
+     */
+    private void edited(DocumentEvent e) {
+        if (e.getChange(root) == null && !textArea.getLineWrap()) {
+            return;
+        }
+        int line = root.getElementIndex(e.getOffset());
+        if (dirtyFrom < 0) {
+            dirtyFrom = line;
+            SwingUtilities.invokeLater(this::repaintDirty);
+        } else {
+            dirtyFrom = Math.min(dirtyFrom, line);
+        }
+    }
+
+    // Repaints the strip from the first dirty line to the bottom of the visible area.
+    private void repaintDirty() {
+        int line = Math.min(dirtyFrom, lineIndex.getLineCount() - 1);
+        dirtyFrom = -1;
+        if (Math.max(2, Integer.toString(root.getElementCount()).length()) != digits) {
+            // The numbers need another width.
+            revalidate();
+        }
+        try {
+            Rectangle2D start = textArea.modelToView2D(lineIndex.getLineStart(line));
+            Rectangle visible = getVisibleRect();
+            if (start != null) {
+                int y = Math.max((int) start.getY(), visible.y);
+                repaint(visible.x, y, visible.width, visible.y + visible.height - y);
+            }
+        } catch (BadLocationException e) {
+            // The line index follows the document.
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,39 +1,69 @@
+import java.awt.BorderLayout; // Places the caret position label below the text area.
 import java.awt.Component;
+import java.awt.Dimension;
 import java.awt.FileDialog; // Used to create file dialog windows for opening and saving files.
 import java.awt.Font; // Provides classes for specifying font styles and sizes.
 import java.awt.Image;
-import java.awt.Insets; // Defines the space around components for better layout management.
 import java.awt.TextField; // Represents a single-line text field for user input.
 import java.awt.Toolkit;
 import java.awt.event.ActionListener; // Provides an interface for handling action events (e.g., button clicks).
+import java.awt.event.InputEvent; // Provides the modifier masks used by the keyboard shortcuts.
 import java.awt.event.KeyAdapter; // An abstract class used to handle key events by overriding required methods.
 import java.awt.event.KeyEvent; // Represents events related to key presses and releases.
-import java.io.BufferedReader; // Used for reading text from an input stream efficiently.
+import java.awt.event.MouseWheelListener; // Zooms the text with Ctrl+wheel.
 import java.io.File;
-import java.io.FileReader; // Reads character files using a file path.
-import java.io.FileWriter; // Writes text to files in the file system.
 import java.io.IOException; // Handles input/output exceptions.
+import java.nio.charset.Charset; // Names the encoding files are read and written in.
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.BorderFactory; // Used to create various types of borders for Swing components.
 import javax.swing.ImageIcon;
 // import javax.swing.ImageIcon;
 import javax.swing.JFrame; // Represents the main application window in a Swing-based UI.
+import javax.swing.JLabel;
 import javax.swing.JMenu; // Represents a menu in the menu bar.
 import javax.swing.JMenuBar; // Represents the container for holding menus.
 import javax.swing.JMenuItem; // Represents individual items within a menu.
 import javax.swing.JOptionPane; // Provides standard dialog boxes like message, input, and confirm dialogs.
 import javax.swing.JScrollPane; // Adds scrolling capability to components like text areas.
+import javax.swing.JSplitPane; // Holds the console below the documents.
+import javax.swing.JTabbedPane; // Holds one tab per open document.
 import javax.swing.JTextArea; // A multi-line area for displaying or editing text.
+import javax.swing.KeyStroke; // Describes the keyboard shortcuts of menu items.
+import javax.swing.SwingUtilities;
+import javax.swing.Timer; // Coalesces the updates of the status bar.
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
+import javax.swing.event.CaretListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener; // Builds the larger submenus when they are first opened.
+import javax.swing.text.DefaultEditorKit;
 
 // 'NotepadUserAppDriver' class will be responsible for launching the Notepad application.
 public class NotepadUserAppDriver {
     public static void main(String[] args) {
+        // With options the notepad runs headless over files instead ('BatchProcessor'),
+        // without loading AWT or Swing.
+        if (BatchProcessor.isBatch(args)) {
+            System.exit(BatchProcessor.run(args));
+        }
+
         // The main method serves as the entry point of the application.
         // It creates an instance of the 'NotepadUserInterface' class, which initializes
-        // and displays the application's user interface.
-        new NotepadUserInterface();
+        // and displays the application's user interface, on the event thread.
+        SwingUtilities.invokeLater(NotepadUserInterface::new);
+
+        // Records where the event thread spends time when it stalls.
+        EdtWatchdog.start();
+
+        // Meanwhile the boilerplate templates are read once on this thread.
+        TemplateRegistry.load();
     }
 }
 
@@ -56,8 +86,8 @@ class NotepadUserInterface {
      * actions, such as clicking buttons
      * or selecting menu items.
      */
-    ActionListener functionSave, functionSaveAs, functionnewFile, functionOpen, functionExit, functionWordWrap,
-            functionFontArial, functionCMD;
+    ActionListener functionSave, functionSaveAs, functionnewFile, functionOpen, functionClose, functionExit,
+            functionWordWrap, functionFontArial, functionCMD;
 
     /**
      * The KeyAdapter variable 'formatKeyAdapterVar' is used to handle key events
@@ -67,6 +97,13 @@ class NotepadUserInterface {
      */
     KeyAdapter formatKeyAdapterVar;
 
+    /**
+     * The MouseWheelListener 'zoomListener' is added to the text area of every
+     * document: Ctrl+wheel changes the font size, any other wheel movement
+     * scrolls the document as usual.
+     */
+    MouseWheelListener zoomListener;
+
     /**
      * 'mainFrame' is a JFrame variable that is responsible for creating and
      * displaying the main frame of the application.
@@ -75,12 +112,91 @@ class NotepadUserInterface {
     JFrame mainFrame;
 
     /**
-     * 'textAreaMainFrame' is a JTextArea variable that is used to add a text area
-     * to the main frame.
-     * This text area allows the user to enter and edit text.
+     * 'documentTabs' shows one tab per open document; 'documents' holds the
+     * documents in the order of the tabs.
+     */
+    JTabbedPane documentTabs;
+    List<EditorDocument> documents = new ArrayList<>();
+
+    /**
+     * 'console' runs commands in the directory of the selected document; while
+     * it is shown, 'consoleSplit' holds it below 'documentTabs'. Both are
+     * created when the console is first shown.
+     */
+    ConsolePane console;
+    JSplitPane consoleSplit;
+
+    /**
+     * 'javaRunner' compiles Java documents for "compile and run"; its compiler
+     * is shared by all windows and kept warm between runs.
+     */
+    static final JavaRunner javaRunner = new JavaRunner();
+
+    /**
+     * 'document' is the document of the selected tab. The menus, the dialogs
+     * and the listeners below all work on it.
+     */
+    EditorDocument document;
+
+    /**
+     * 'textAreaMainFrame' is the text area of the selected document, in which
+     * the user enters and edits text.
      */
     JTextArea textAreaMainFrame;
 
+    /**
+     * 'documentContent' is the piece table storing the text of
+     * 'textAreaMainFrame'. Saving takes its snapshots from here.
+     */
+    PieceTableContent documentContent;
+
+    /**
+     * 'undoHistory' records the edits of 'textAreaMainFrame' for undo and redo.
+     */
+    UndoHistory undoHistory;
+
+    /**
+     * 'lineIndex' keeps the start offset of every line of 'textAreaMainFrame',
+     * for go-to-line, the line count and the caret position readout.
+     */
+    LineIndex lineIndex;
+
+    /**
+     * 'syntaxHighlighter' colours the text of 'textAreaMainFrame' in the
+     * language mode selected in the 'language' menu.
+     */
+    SyntaxHighlighter syntaxHighlighter;
+
+    /**
+     * 'caretListener' and 'documentListener' keep 'statusBar' current; the
+     * same two listeners are added to every document.
+     */
+    CaretListener caretListener;
+    DocumentListener documentListener;
+
+    /**
+     * 'statusBar' shows the line and column of the caret, the line, character
+     * and word counts, the size of the selection and the encoding of the
+     * selected document at the bottom of the main frame.
+     */
+    JLabel statusBar;
+
+    /**
+     * 'statusBarTimer' runs while an update of 'statusBar' is scheduled, so
+     * the edits and caret moves of one frame update it only once.
+     */
+    Timer statusBarTimer;
+
+    /**
+     * 'findReplaceDialog' is the find/replace window, created when first used.
+     */
+    FindReplaceDialog findReplaceDialog;
+
+    /**
+     * 'findInFilesDialog' is the find-in-files window, created when first used.
+     */
+    FindInFilesDialog findInFilesDialog;
+
     /**
      * 'fontTextField' is a TextField variable used to handle font-related inputs,
      * such as selecting or entering font styles or sizes.
@@ -99,12 +215,14 @@ class NotepadUserInterface {
      * The following 'JMenu' variables are used to create the menu items for the
      * menu bar on the main frame:
      * - 'file': Contains file-related operations such as New, Open, Save, etc.
+     * - 'edit': Contains editing operations such as Undo and Redo.
      * - 'language': Allows for language-related options (e.g., language selection
      * for the interface).
      * - 'format': Handles text formatting options like bold, italic, etc.
+     * - 'font': Provides font style selection for text in the text area.
      * - 'fontSize': Provides font size selection for text in the text area.
      */
-    JMenu file, language, format, fontSize;
+    JMenu file, edit, language, format, font, fontSize;
 
     /**
      * The following 'JMenuItem' variables are used to create the sub-elements (menu
@@ -112,9 +230,11 @@ class NotepadUserInterface {
      * These menu items represent specific actions or options that the user can
      * select within the application.
      */
-    JMenuItem CMD, file_Open, file_newFile, file_Save, file_SaveAs, file_exit, JMenuItem,
+    JMenuItem CMD, compileAndRun, file_Open, file_newFile, file_Save, file_SaveAs, file_Follow, file_Close, file_MemoryReport, file_exit,
+            edit_Undo, edit_Redo,
+            edit_GoToLine, edit_Find, edit_FindInFiles, JMenuItem,
             langTxt, langJava, langC, langCpp, langHtml, langSelected,
-            worldWrap, font, fontSelected, fontArial, fontTimesNewRoman, fontAlgerian,
+            worldWrap, fontSelected, fontArial, fontTimesNewRoman, fontAlgerian,
             fontBahnschrift, fontAgencyFB, fontSize08, fontSize10, fontSize12, fontSize14,
             fontSize16, fontSize18, fontSize20, fontSize22, fontSize24, fontSize26, fontSize28,
             fontSize30, fontSize32, fontSize34, fontSize36, fontSize38, fontSize40, fontCurrentSize, menuBarElementCMD;
@@ -123,8 +243,10 @@ class NotepadUserInterface {
      * The following 'JScrollPane' variables are used to enable the scrolling
      * feature for the main frame and text area.
      * They allow users to scroll through large amounts of content in the text area.
+     * 'scrollFeature' is the one of the selected document; its row header
+     * shows the line numbers of the document.
      */
-    JScrollPane scrollFeature, scrollPaneForLineHighlighter;
+    JScrollPane scrollFeature;
 
     /**
      * 'fileDialog' is a FileDialog variable used for opening the file dialog at
@@ -147,29 +269,26 @@ class NotepadUserInterface {
      * It is initially set to "Arial", but can be modified based on user
      * preferences.
      */
-    String currentFontStyle = "Arial", selectedFileFormat = "txt";
+    String currentFontStyle = "Arial";
 
     /**
-     * 'wordWrapBoolean' is a static variable used to enable or disable the word
-     * wrap functionality in the text area.
-     * When set to 'true', text will automatically wrap to the next line; when
-     * 'false', it won't.
+     * 'textFont' is the font made of 'currentFontStyle' and 'currentFontSize',
+     * shared by the text areas of all documents. It comes from 'FontCache',
+     * which replaces families that aren't installed.
      */
-    static boolean wordWrapBoolean = false;
+    Font textFont = FontCache.get(currentFontStyle, Font.PLAIN, currentFontSize);
 
     /**
-     * 'fileName' represents the name of the current file being worked on.
-     * It is initially set to "untitled", indicating that no file has been saved
-     * yet.
+     * 'journalsRecovered' is set once the first window has offered to recover
+     * the journals left behind by a previous run.
      */
+    static boolean journalsRecovered = false;
 
     /**
-     * 'fileAddress' represents the file path or location where the current file is
-     * stored.
-     * It is used to store the file's full address (e.g.,
-     * "C:/Documents/example.txt").
+     * 'STARTUP_TARGET_MS' is the time (from the start of the JVM) by which the
+     * first window should be ready for typing; see 'reportStartup'.
      */
-    String fileName = "untitled", fileAddress;
+    static final long STARTUP_TARGET_MS = 500;
 
     /**
      * Constructor for the 'NotepadUserInterface' class.
@@ -192,41 +311,61 @@ class NotepadUserInterface {
         // Calls individual methods to create the main frame, text area, scroll bar, and
         // menu bar.
         creatMainFrame();
-        creatTextArea();
-        creatScrollBar();
+        creatDocumentTabs();
+        creatStatusBar();
         creatMenueBar();
+        newDocument();
 
-        checkingFileAddress();
+        // The frame is laid out once, with all of its components, and only then shown.
+        mainFrame.validate();
+        mainFrame.setVisible(true);
+
+        // Only the first window looks for journals left behind by a crash.
+        if (!journalsRecovered) {
+            journalsRecovered = true;
+            reportStartup();
+            recoverJournals();
+        }
     }
 
-    // method used for debugging purpose
-    void checkingFileAddress() {
-        System.out.println("file addreess:" + (fileAddress + fileName));
+    /**
+     * Prints how long after the start of the JVM the first window was ready
+     * for typing, if the application runs with -Dnotepadpro.startupTime=true.
+     * With -Dnotepadpro.exitAfterStartup=true the application exits right
+     * after; this is the training run recording the class data sharing
+     * archive (see README.md).
+     */
+    void reportStartup() {
+        boolean exit = Boolean.getBoolean("notepadpro.exitAfterStartup");
+        if (!exit && !Boolean.getBoolean("notepadpro.startupTime")) {
+            return;
+        }
+        // Runs after the events queued while the frame was shown, i.e. its first paint.
+        SwingUtilities.invokeLater(() -> {
+            long started = ProcessHandle.current().info().startInstant().map(Instant::toEpochMilli)
+                    .orElse(System.currentTimeMillis());
+            long elapsed = System.currentTimeMillis() - started;
+            System.out.println("startup: ready for input after " + elapsed + " ms (target " + STARTUP_TARGET_MS
+                    + " ms)" + (elapsed > STARTUP_TARGET_MS ? " - TOO SLOW" : ""));
+            if (exit) {
+                closeWindow();
+                System.exit(0);
+            }
+        });
     }
 
     /**
      * Method responsible for creating the main frame of the application.
-     * It initializes the main window, sets the title, size, and makes it visible to
-     * the user.
+     * It initializes the main window and sets the title, size and icon.
      */
     void creatMainFrame() {
         // Creates a new JFrame (main application window) with the title "NotepadPro".
         mainFrame = new JFrame("NotepadPro");
 
-        // Sets the initial file name to "untitled" since no file is opened or saved
-        // yet.
-        fileName = "untitled";
-
         // Sets the size of the main frame to 800x600 pixels.
+        // The frame is made visible by 'loadAllUIElement' once all components are added.
         mainFrame.setSize(800, 600);
 
-        // Validates the frame's layout and ensures components are properly sized and
-        // positioned.
-        mainFrame.validate();
-
-        // Makes the main frame visible to the user.
-        mainFrame.setVisible(true);
-
         Image icon = Toolkit.getDefaultToolkit().getImage("./appIcon.png");
 
         mainFrame.setIconImage(icon);
@@ -234,47 +373,255 @@ class NotepadUserInterface {
     }
 
     /**
-     * Method responsible for creating and setting up the text area for the main
-     * frame.
-     * It initializes the JTextArea, applies font and margin settings, and adds it
-     * to the main frame.
+     * Method responsible for creating the tabs holding the open documents.
+     * Each document brings its own text area, inside its own scroll pane; see
+     * 'newDocument'.
      */
-    void creatTextArea() {
-        // Creates a new JTextArea component where users can enter and edit text.
-        textAreaMainFrame = new JTextArea();
+    void creatDocumentTabs() {
+        // Tabs that don't fit on one row are scrolled rather than stacked, so
+        // hundreds of open documents don't eat up the text area.
+        documentTabs = new JTabbedPane(JTabbedPane.TOP, JTabbedPane.SCROLL_TAB_LAYOUT);
+        documentTabs.addChangeListener(e -> {
+            int selected = documentTabs.getSelectedIndex();
+            if (selected >= 0) {
+                showDocument(documents.get(selected));
+            }
+        });
 
-        // Sets the font of the text area based on the current font style and size.
-        // The font style is retrieved from the 'currentFontStyle' variable, and the
-        // font size from the 'currentFontSize' variable.
-        textAreaMainFrame.setFont(new Font(currentFontStyle, Font.PLAIN, currentFontSize));
+        // Adds the tabs to the main frame so that they appear in the window.
+        mainFrame.add(documentTabs);
+    }
 
-        // Sets the margin of the text area to create some space around the text (15
-        // pixels on each side).
-        textAreaMainFrame.setMargin(new Insets(15, 15, 15, 15));
+    /**
+     * Shows the console below the documents, or hides it if it is shown. A
+     * hidden console keeps its output, and the command it runs keeps running.
+     */
+    void toggleConsole() {
+        if (console != null && console.isShowing()) {
+            mainFrame.remove(consoleSplit);
+            mainFrame.add(documentTabs);
+            mainFrame.revalidate();
+            mainFrame.repaint();
+            textAreaMainFrame.requestFocusInWindow();
+        } else {
+            showConsole();
+            console.focusInput();
+        }
+    }
 
-        // Adds the JTextArea to the main frame so that it appears in the window.
-        mainFrame.add(textAreaMainFrame);
+    /**
+     * Shows the console below the documents, creating it the first time.
+     */
+    void showConsole() {
+        if (console == null) {
+            console = new ConsolePane(() -> document.fileAddress);
+            consoleSplit = new JSplitPane(JSplitPane.VERTICAL_SPLIT);
+            consoleSplit.setResizeWeight(0.7);
+        }
+        if (console.isShowing()) {
+            return;
+        }
+        mainFrame.remove(documentTabs);
+        consoleSplit.setTopComponent(documentTabs);
+        consoleSplit.setBottomComponent(console);
+        mainFrame.add(consoleSplit);
+        mainFrame.revalidate();
+        mainFrame.repaint();
+    }
+
+    /**
+     * Compiles the selected Java document in memory ('JavaRunner') and runs
+     * it in a JVM of its own, showing the compiler's messages and the output
+     * of the program in the console. The program's classes only exist in a
+     * temporary directory while it runs.
+     */
+    void compileAndRun() {
+        if (!document.fileFormat.equals("java")) {
+            JOptionPane.showMessageDialog(mainFrame, "Select the Java language to compile and run ..!");
+            return;
+        }
+        showConsole();
+        if (console.isRunning()) {
+            console.print("A command is running; stop it before running another one.", ConsoleBuffer.ERROR);
+            return;
+        }
+        ConsolePane shown = console;
+        javaRunner.compile(textAreaMainFrame.getText(), document.fileName, compilation -> {
+            for (String message : compilation.messages) {
+                shown.print(message, compilation.success ? ConsoleBuffer.OUTPUT : ConsoleBuffer.ERROR);
+            }
+            shown.print("Compiled " + compilation.mainClass + " in " + compilation.nanos / 1_000_000 + " ms",
+                    ConsoleBuffer.INFO);
+            if (!compilation.success) {
+                return;
+            }
+            Path classPath;
+            try {
+                classPath = compilation.writeClasses();
+            } catch (IOException | RuntimeException e) {
+                shown.print("The classes couldn't be written: " + e, ConsoleBuffer.ERROR);
+                return;
+            }
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            shown.run("java " + compilation.mainClass,
+                    List.of(java, "-cp", classPath.toString(), compilation.mainClass),
+                    () -> JavaRunner.Compilation.delete(classPath));
+        });
     }
 
     /**
-     * Method responsible for adding horizontal and vertical scrolling functionality
-     * to the main frame.
-     * It ensures that the text area can be scrolled both vertically and
-     * horizontally when content exceeds the visible area.
+     * Opens a new, untitled document in a tab of its own and selects it.
+     * The document only allocates its text area and the state of its text;
+     * the font and the listeners it is given are those of the window.
+     *
+     * @return The new document.
      */
-    void creatScrollBar() {
-        // Creates a new JScrollPane that wraps the text area.
-        // This allows the text area to be scrollable both vertically and horizontally
-        // when needed.
-        scrollFeature = new JScrollPane(textAreaMainFrame, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED,
-                JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+    EditorDocument newDocument() {
+        EditorDocument created = new EditorDocument(textFont, caretListener, documentListener, zoomListener);
+        documents.add(created);
+        documentTabs.addTab(created.title, created.scrollPane);
+        documentTabs.setSelectedIndex(documents.size() - 1);
+        return created;
+    }
 
-        // Adds the JScrollPane (with the text area inside) to the main frame.
-        mainFrame.add(scrollFeature);
+    /**
+     * Makes 'shown' the document the window works on: called whenever another
+     * tab is selected. The menu items showing a setting of the document
+     * (language mode, word wrap) are updated to it.
+     */
+    void showDocument(EditorDocument shown) {
+        document = shown;
+        textAreaMainFrame = shown.textArea;
+        documentContent = shown.content;
+        undoHistory = shown.undoHistory;
+        lineIndex = shown.lineIndex;
+        syntaxHighlighter = shown.syntaxHighlighter;
+        scrollFeature = shown.scrollPane;
+
+        mainFrame.setTitle(shown.title);
+        langSelected.setText("Selected format: " + shown.fileFormat);
+        worldWrap.setText(shown.wordWrap ? "worldWrap:On" : "worldWrap:Off");
+        file_Follow.setText(shown.follower != null ? "stop following" : "follow (tail -f)");
+        updateStatusBar();
+        textAreaMainFrame.requestFocusInWindow();
+    }
 
-        // Sets the border of the JScrollPane to an empty border, removing any visible
-        // border around the text area.
-        scrollFeature.setBorder(BorderFactory.createEmptyBorder());
+    /**
+     * Sets the title of 'titled', shown on its tab and, while it is selected,
+     * on the window.
+     */
+    void setTitle(EditorDocument titled, String title) {
+        titled.title = title;
+        int index = documents.indexOf(titled);
+        if (index >= 0) {
+            documentTabs.setTitleAt(index, title);
+            documentTabs.setToolTipTextAt(index,
+                    titled.fileAddress == null ? title : titled.fileAddress + titled.fileName);
+        }
+        if (titled == document) {
+            mainFrame.setTitle(title);
+        }
+    }
+
+    /**
+     * Sets the title of the selected document.
+     */
+    void setTitle(String title) {
+        setTitle(document, title);
+    }
+
+    /**
+     * Method responsible for creating the status bar at the bottom of the main
+     * frame.
+     * The status bar follows the caret and is refreshed after every edit, once
+     * the line index and the statistics have been updated.
+     */
+    void creatStatusBar() {
+        statusBar = new JLabel();
+        statusBar.setBorder(BorderFactory.createEmptyBorder(2, 15, 2, 15));
+        mainFrame.add(statusBar, BorderLayout.SOUTH);
+
+        // At most one update per frame (about 16 ms), however many events come in.
+        statusBarTimer = new Timer(16, e -> updateStatusBar());
+        statusBarTimer.setRepeats(false);
+
+        // Every document is given these listeners; edits of a document that
+        // isn't selected (e.g. still loading) only cause a needless update.
+        caretListener = e -> scheduleStatusBarUpdate();
+        documentListener = new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                scheduleStatusBarUpdate();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                scheduleStatusBarUpdate();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        };
+    }
+
+    /**
+     * Updates 'statusBar' at the end of the current frame.
+     */
+    void scheduleStatusBarUpdate() {
+        if (!statusBarTimer.isRunning()) {
+            statusBarTimer.start();
+        }
+    }
+
+    /**
+     * Shows the line and column of the caret (1-based), the number of lines,
+     * characters and words, the selection and the encoding of the document:
+     * the charset its file was read in, or the one it will be saved in if it
+     * has none yet. Every count is kept up to date by the edits, so nothing
+     * here reads the text.
+     */
+    void updateStatusBar() {
+        int caret = textAreaMainFrame.getCaretPosition();
+        PieceTableContent.SourceFile source = documentContent.getSource();
+        Charset charset = source != null ? source.charset : Charset.defaultCharset();
+        int line = lineIndex.getLineOfOffset(caret);
+        int selected = Math.abs(caret - textAreaMainFrame.getCaret().getMark());
+        statusBar.setText(String.format("Ln %d, Col %d    %,d lines    %,d characters    %,d words%s    %s",
+                line + 1, caret - lineIndex.getLineStart(line) + 1, lineIndex.getLineCount(),
+                document.statistics.getCharacterCount(), document.statistics.getWordCount(),
+                selected > 0 ? String.format("    %,d selected", selected) : "", charset.name()));
+    }
+
+    /**
+     * Asks for a line number and moves the caret to the start of that line.
+     * In the large file mode the view is scrolled to the line instead.
+     */
+    void goToLine() {
+        LargeFileView largeFileView = document.largeFileView;
+        long lineCount = largeFileView != null ? largeFileView.getLineCount() : lineIndex.getLineCount();
+        String input = JOptionPane.showInputDialog(mainFrame, "Line number (1 - " + lineCount + ") :", "Go to line",
+                JOptionPane.PLAIN_MESSAGE);
+        if (input == null) {
+            // The dialog was closed without entering a line.
+            return;
+        }
+        long line;
+        try {
+            line = Long.parseLong(input.trim());
+        } catch (NumberFormatException e1) {
+            line = 0;
+        }
+        if (line < 1 || line > lineCount) {
+            JOptionPane.showMessageDialog(mainFrame, "Invalid line number..!");
+            return;
+        }
+        if (largeFileView != null) {
+            largeFileView.scrollToLine(line - 1);
+        } else {
+            textAreaMainFrame.setCaretPosition(lineIndex.getLineStart((int) line - 1));
+            textAreaMainFrame.requestFocusInWindow();
+        }
     }
 
     /**
@@ -297,6 +644,7 @@ class NotepadUserInterface {
         // Calls methods to create individual menu elements (File, Language, Format,
         // CMD).
         menuBarElementFile();
+        menuBarElementEdit();
         menuBarElementLanguage();
         menuBarElementFormat();
         menuBarElementCMD();
@@ -341,6 +689,23 @@ class NotepadUserInterface {
         file_SaveAs.addActionListener(functionSaveAs);
         file.add(file_SaveAs);
 
+        // Creates the "follow" menu item, which shows what is appended to the
+        // file of the selected document as it grows (like "tail -f").
+        file_Follow = new JMenuItem("follow (tail -f)");
+        file_Follow.addActionListener(al -> toggleFollow());
+        file.add(file_Follow);
+
+        // Creates the "close" menu item, which closes the selected document (Ctrl+W).
+        file_Close = new JMenuItem("close");
+        file_Close.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_W, InputEvent.CTRL_DOWN_MASK));
+        file_Close.addActionListener(functionClose);
+        file.add(file_Close);
+
+        // Creates the "memory report" menu item, which shows the memory used per open document.
+        file_MemoryReport = new JMenuItem("memory report");
+        file_MemoryReport.addActionListener(al -> showMemoryReport());
+        file.add(file_MemoryReport);
+
         // Creates the "exit" menu item, adds an action listener to handle exiting the
         // application,
         // and adds it to the File menu.
@@ -349,6 +714,60 @@ class NotepadUserInterface {
         file.add(file_exit);
     }
 
+    /**
+     * Method responsible for creating the 'Edit' menu and its sub-elements (menu
+     * items) in the menu bar.
+     * This menu allows users to undo and redo their edits, also with the
+     * Ctrl+Z and Ctrl+Y shortcuts, to find and replace text with Ctrl+F, and to
+     * jump to a line with Ctrl+G.
+     */
+    void menuBarElementEdit() {
+        // Creates a new JMenu item called "edit" and adds it to the menu bar.
+        edit = new JMenu("edit");
+        menuBar.add(edit);
+
+        // Creates the "undo" menu item, which reverts the last edit.
+        edit_Undo = new JMenuItem("undo");
+        edit_Undo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK));
+        edit_Undo.addActionListener(al -> undoHistory.undo());
+        edit.add(edit_Undo);
+
+        // Creates the "redo" menu item, which reapplies the last undone edit.
+        edit_Redo = new JMenuItem("redo");
+        edit_Redo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK));
+        edit_Redo.addActionListener(al -> undoHistory.redo());
+        edit.add(edit_Redo);
+
+        // Creates the "find / replace" menu item, which opens the find/replace window.
+        edit_Find = new JMenuItem("find / replace");
+        edit_Find.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, InputEvent.CTRL_DOWN_MASK));
+        edit_Find.addActionListener(al -> {
+            if (findReplaceDialog == null) {
+                findReplaceDialog = new FindReplaceDialog(this);
+            }
+            findReplaceDialog.open();
+        });
+        edit.add(edit_Find);
+
+        // Creates the "find in files" menu item, which searches the files of the current directory.
+        edit_FindInFiles = new JMenuItem("find in files");
+        edit_FindInFiles.setAccelerator(
+                KeyStroke.getKeyStroke(KeyEvent.VK_F, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK));
+        edit_FindInFiles.addActionListener(al -> {
+            if (findInFilesDialog == null) {
+                findInFilesDialog = new FindInFilesDialog(this);
+            }
+            findInFilesDialog.open();
+        });
+        edit.add(edit_FindInFiles);
+
+        // Creates the "go to line" menu item, which moves the caret to a given line.
+        edit_GoToLine = new JMenuItem("go to line");
+        edit_GoToLine.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_G, InputEvent.CTRL_DOWN_MASK));
+        edit_GoToLine.addActionListener(al -> goToLine());
+        edit.add(edit_GoToLine);
+    }
+
     /**
      * Method responsible for creating the 'Language' menu and its sub-elements
      * (menu items) in the menu bar.
@@ -362,15 +781,19 @@ class NotepadUserInterface {
 
         // Creates the "Selected format" menu item, which displays the current selected
         // file format.
-        // Initially, it will show the default format stored in the 'selectedFileFormat'
-        // variable (e.g., "txt").
-        langSelected = new JMenuItem("Selected format: " + selectedFileFormat);
+        // Initially, it will show the default format "txt"; afterwards the format of
+        // the selected document.
+        langSelected = new JMenuItem("Selected format: txt");
         language.add(langSelected);
 
         // Creates the "txt" menu item, representing the plain text file format.
         // Adds it to the Language menu.
         langTxt = new JMenuItem("txt");
-        langTxt.addActionListener(al -> textAreaMainFrame.setText(""));
+        langTxt.addActionListener(al -> {
+            selectLanguage("txt");
+            closeLargeFile();
+            textAreaMainFrame.setText("");
+        });
         language.add(langTxt);
 
         // Creates the "Java" menu item, representing the Java programming language.
@@ -378,29 +801,57 @@ class NotepadUserInterface {
         // Java format.
         langJava = new JMenuItem("Java");
         language.add(langJava);
-        langJava.addActionListener(al -> writeFile("java"));
+        langJava.addActionListener(al -> {
+            selectLanguage("java");
+            writeFile("java");
+        });
 
         // Creates the "C" menu item, representing the C programming language.
         // When clicked, it triggers an action listener to handle the selection of the C
         // format.
         langC = new JMenuItem("C");
         language.add(langC);
-        langC.addActionListener(al -> writeFile("c"));
+        langC.addActionListener(al -> {
+            selectLanguage("c");
+            writeFile("c");
+        });
 
         // Creates the "C++" menu item, representing the C++ programming language.
         // When clicked, it triggers an action listener to handle the selection of the
         // C++ format.
         langCpp = new JMenuItem("C++");
         language.add(langCpp);
-        langCpp.addActionListener(al -> writeFile("cpp"));
+        langCpp.addActionListener(al -> {
+            selectLanguage("cpp");
+            writeFile("cpp");
+        });
 
         // Creates the "Html" menu item, representing the HTML format.
         langHtml = new JMenuItem("html");
-        langHtml.addActionListener(al -> writeFile("html"));
+        langHtml.addActionListener(al -> {
+            selectLanguage("html");
+            writeFile("html");
+        });
 
         language.add(langHtml);
     }
 
+    /**
+     * Selects the language mode 'fileFormat' ("txt", "java", "c", "cpp" or
+     * "html"), which the text is highlighted in.
+     *
+     * @param fileFormat The language mode to select.
+     */
+    void selectLanguage(String fileFormat) {
+        document.fileFormat = fileFormat;
+        langSelected.setText("Selected format: " + fileFormat);
+        syntaxHighlighter.setLanguage(fileFormat);
+        if (fileFormat.equals("java")) {
+            // The first run of a Java document won't wait for the compiler to start.
+            javaRunner.warmUp();
+        }
+    }
+
     /**
      * Method responsible for creating the 'Format' menu and its sub-elements (menu
      * items) in the menu bar.
@@ -421,10 +872,24 @@ class NotepadUserInterface {
         worldWrap.addActionListener(functionWordWrap);
 
         // Creates the "font" menu item, which contains various font options for the
-        // user to choose from.
+        // user to choose from. Its items are only created when it is first opened.
         font = new JMenu("font");
         format.add(font);
+        buildOnFirstOpen(font, this::menuBarElementFont);
 
+        // Creates the "font size" menu item, which contains various font size options
+        // for the user to select. Its items are only created when it is first opened.
+        fontSize = new JMenu("font size");
+        fontSize.addActionListener(formatActionListenerVar(currentFontSize));
+        format.add(fontSize);
+        buildOnFirstOpen(fontSize, this::menuBarElementFontSize);
+    }
+
+    /**
+     * Method responsible for creating the items of the 'font' submenu, the first
+     * time the submenu is opened.
+     */
+    void menuBarElementFont() {
         // Creates the "selected" menu item to display the currently selected font.
         fontSelected = new JMenuItem("selected :" + currentFontStyle);
         fontSelected.addActionListener(formatActionListenerVar(currentFontStyle));
@@ -453,13 +918,13 @@ class NotepadUserInterface {
         fontArial = new JMenuItem("Arial");
         fontArial.addActionListener(formatActionListenerVar(fontArial.getText()));
         font.add(fontArial);
+    }
 
-        // Creates the "font size" menu item, which contains various font size options
-        // for the user to select.
-        fontSize = new JMenu("font size");
-        fontSize.addActionListener(formatActionListenerVar(currentFontSize));
-        format.add(fontSize);
-
+    /**
+     * Method responsible for creating the items of the 'font size' submenu, the
+     * first time the submenu is opened.
+     */
+    void menuBarElementFontSize() {
         // Displays the current font size selected in the menu.
         fontCurrentSize = new JMenuItem("selected  :" + currentFontSize);
         fontSize.add(fontCurrentSize);
@@ -541,11 +1006,36 @@ class NotepadUserInterface {
         fontSize40.addActionListener(formatActionListenerVar(Integer.parseInt(fontSize40.getText())));
     }
 
+    /**
+     * Runs 'builder' to create the items of 'menu' when the menu is opened for
+     * the first time, so menus the user never opens cost nothing at startup.
+     *
+     * @param menu    The (still empty) menu.
+     * @param builder Adds the items to the menu.
+     */
+    void buildOnFirstOpen(JMenu menu, Runnable builder) {
+        menu.addMenuListener(new MenuListener() {
+            @Override
+            public void menuSelected(MenuEvent e) {
+                menu.removeMenuListener(this);
+                builder.run();
+            }
+
+            @Override
+            public void menuDeselected(MenuEvent e) {
+            }
+
+            @Override
+            public void menuCanceled(MenuEvent e) {
+            }
+        });
+    }
+
     /**
      * Method responsible for creating the 'Command Prompt' (CMD) menu item in the
      * main frame's menu bar.
-     * This menu item allows the user to open a command prompt feature.
-     * The action listener associated with this item triggers the CMD functionality.
+     * Its items show or hide the console running commands in the file's
+     * directory, and compile and run a Java document in it.
      */
     void menuBarElementCMD() {
         // Creates a new menu item called "command prompt" and adds it to the menu bar.
@@ -553,68 +1043,542 @@ class NotepadUserInterface {
 
         menuBar.add(menuBarElementCMD);
 
-        // Creates a submenu item "CMD" under the command prompt menu.
+        // Creates a submenu item "console" under the command prompt menu.
         // When clicked, it triggers the functionality tied to the 'functionCMD' action
         // listener.
-        CMD = new JMenuItem("CMD");
+        CMD = new JMenuItem("console");
+        CMD.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_BACK_QUOTE, InputEvent.CTRL_DOWN_MASK));
         menuBarElementCMD.add(CMD);
-        // setting up CMD option disabled
-        menuBarElementCMD.setEnabled(false);
         CMD.addActionListener(functionCMD);
+
+        // "compile and run" compiles and runs the selected Java document.
+        compileAndRun = new JMenuItem("compile and run (Java)");
+        compileAndRun.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0));
+        menuBarElementCMD.add(compileAndRun);
+        compileAndRun.addActionListener(al -> compileAndRun());
     }
 
     /**
-     * Saves the text content from the main frame's text area to a file.
-     * This method uses a FileWriter to write the current text content
-     * to a file specified by the global fileName and fileAddress variables.
-     * If an error occurs during the writing process, the text area is cleared,
-     * and the title of the main frame is reset.
+     * Saves the text content of the selected document to the file specified
+     * by its fileName and fileAddress.
      */
     void writeFile() {
-        System.out.println("Filename and address: " + (fileAddress + fileName));
-        try (FileWriter fileWriterObj = new FileWriter(fileAddress + fileName)) {
-            // Writes the text area content to the specified file.
-            fileWriterObj.write(textAreaMainFrame.getText());
-        } catch (IOException e1) {
-            // If file writing fails, reset the frame title and clear the text area.
-            mainFrame.setTitle("nofile");
-            textAreaMainFrame.setText("");
+        writeFile(() -> {
+        });
+    }
+
+    /**
+     * Saves the text content of the selected document to the file specified
+     * by its fileName and fileAddress.
+     * The save runs on the 'DocumentSaver' thread from a snapshot of the
+     * document, so typing continues while a large file is written. Text left
+     * unchanged since the file was opened or last saved is copied from the
+     * file on disk instead of being encoded again. The file is replaced
+     * atomically; if an error occurs the file and the text area are
+     * left untouched and the user is told that the save failed.
+     * Once the file is written the edit journal is compacted.
+     *
+     * @param onSaved Called on the event thread once the file has been written.
+     */
+    void writeFile(Runnable onSaved) {
+        if (readOnlyLargeFile() || stillLoading() || following()) {
+            return;
         }
+        // The save completes for this document, even if another tab is selected meanwhile.
+        EditorDocument saved = document;
+        Instrumentation.Operation operation = Instrumentation.begin("save", saved.fileAddress + saved.fileName);
+
+        // Takes a snapshot of the document; no copy of the text is made.
+        PieceTableContent.Snapshot snapshot = documentContent.snapshot();
+        EditJournal.Marker journalMarker = saved.editJournal.mark();
+        Object lineSeparator = textAreaMainFrame.getDocument().getProperty(DefaultEditorKit.EndOfLineStringProperty);
+        File target = new File(saved.fileAddress + saved.fileName);
+
+        DocumentSaver.save(documentContent, snapshot, lineSeparator instanceof String ? (String) lineSeparator : "\n",
+                target.toPath(), () -> {
+                    // The saved edits are in the file now; only later ones stay in the journal.
+                    saved.editJournal.compact(journalMarker, target.getAbsolutePath());
+                    operation.end();
+                    onSaved.run();
+                }, e1 -> {
+                    // If file writing fails, reset the title and tell the user.
+                    operation.end();
+                    setTitle(saved, "nofile");
+                    JOptionPane.showMessageDialog(mainFrame, "Could not save the file..!");
+                });
     }
 
     /**
      * Loads boilerplate code into the text area based on the specified file format.
-     * This method reads the content of a boilerplate code file (e.g., Java, Python)
-     * and appends its content to the main frame's text area.
-     * If the file is not found or an error occurs, a warning message is displayed.
+     * The boilerplate code is taken from the 'TemplateRegistry', which read the
+     * template files once at startup, rendered with the name of the current file
+     * (class name, package, date, ...) and replaces the text of the text area.
+     * If there is no template for the format, a warning message is displayed.
      *
      * @param fileFormat The format or type of boilerplate code to load (e.g.,
      *                   "Java", "Python").
      */
     void writeFile(String fileFormat) {
-        try (BufferedReader BufferReaderObj = new BufferedReader(
-                new FileReader(".//" + fileFormat + "BoilerPlateCode.txt"))) {
-            String line;
-            textAreaMainFrame.setText(""); // Clears the text area before adding content.
-            while ((line = BufferReaderObj.readLine()) != null) {
-                // Appends each line of the boilerplate code to the text area.
-                textAreaMainFrame.append(line + "\n");
+        if (stillLoading() || following()) {
+            return;
+        }
+        closeLargeFile();
+        // The template is already in memory; it replaces the text in one document update.
+        BoilerplateTemplate template = TemplateRegistry.get(fileFormat);
+        if (template == null) {
+            // If there is no boilerplate code for this format, display an error message.
+            JOptionPane.showMessageDialog(mainFrame, "File not found!");
+            return;
+        }
+        // An untitled file gets the class name "Demo".
+        String name = document.fileAddress == null ? "Demo." + fileFormat : document.fileName;
+        Instrumentation.Operation operation = Instrumentation.begin("template", fileFormat);
+        textAreaMainFrame.setText(template.render(BoilerplateTemplate.valuesFor(name, document.fileAddress)));
+        operation.endAfterQueuedEvents();
+    }
+
+    /**
+     * Opens 'file' in a tab: the one already showing it, else the selected
+     * one if it is a blank untitled document, else a new one.
+     *
+     * @param file The file to open.
+     * @param line The line (0-based) to show once the file is loaded.
+     */
+    void openInTab(File file, long line) {
+        String fileName = file.getName(), fileAddress = file.getParent() + File.separator;
+        for (int i = 0; i < documents.size(); i++) {
+            EditorDocument open = documents.get(i);
+            if (fileName.equals(open.fileName) && fileAddress.equals(open.fileAddress) && open.openWorker == null) {
+                documentTabs.setSelectedIndex(i);
+                if (open.largeFileView != null) {
+                    open.largeFileView.scrollToLine(line);
+                } else {
+                    textAreaMainFrame.setCaretPosition(lineIndex.getLineStart((int) Math.min(line,
+                            lineIndex.getLineCount() - 1)));
+                }
+                return;
+            }
+        }
+        if (!document.isBlank()) {
+            newDocument();
+        }
+        document.fileName = fileName;
+        document.fileAddress = fileAddress;
+        openFile(line);
+    }
+
+    /**
+     * Opens the file named by the 'fileName' and 'fileAddress' of the selected
+     * document in its tab.
+     * Files larger than 'LargeFileView.LARGE_FILE_THRESHOLD' are memory-mapped
+     * and shown read-only; all others are read by a 'FileOpenWorker' on a
+     * background thread.
+     *
+     * @param line The line (0-based) to show once the file is loaded.
+     */
+    void openFile(long line) {
+        stopFollowing(document);
+        setTitle(document.fileName);
+        selectLanguage(SyntaxLexer.languageOf(document.fileName));
+
+        if (document.openWorker != null) {
+            document.openWorker.cancel(false);
+        }
+        File openedFile = new File(document.fileAddress + document.fileName);
+        if (openedFile.length() >= LargeFileView.LARGE_FILE_THRESHOLD) {
+            // Files too large for the heap are memory-mapped and shown read-only.
+            Instrumentation.Operation operation = Instrumentation.begin("open", openedFile.getPath());
+            openLargeFile(openedFile);
+            if (document.largeFileView != null) {
+                document.largeFileView.scrollToLine(line);
+            }
+            operation.endAfterQueuedEvents();
+        } else {
+            // Read the file on a background worker, which streams its content
+            // into the text area in batches and can be cancelled by the user.
+            closeLargeFile();
+            try {
+                document.openWorker = new FileOpenWorker(this, document, openedFile);
+                document.openWorker.setLineToShow((int) line);
+                document.openWorker.execute();
+            } catch (IOException e1) {
+                // In case the file doesn't exist or cannot be read
+                textAreaMainFrame.setText("FILE NOT FOUND..!");
             }
+        }
+    }
+
+    /**
+     * Starts or stops following the file of the selected document: what is
+     * appended to the file is appended to the document ('FileFollower'),
+     * which is read-only meanwhile. Following starts at the end of what the
+     * last open loaded, so the document must not have been changed since.
+     */
+    void toggleFollow() {
+        if (document.follower != null) {
+            stopFollowing(document);
+            return;
+        }
+        if (document.largeFileView != null) {
+            JOptionPane.showMessageDialog(mainFrame, "Files open in the large file mode can't be followed ..!");
+            return;
+        }
+        if (document.loadedBytes < 0 || undoHistory.canUndo()) {
+            JOptionPane.showMessageDialog(mainFrame, "Open the file again to follow it ..!");
+            return;
+        }
+        document.follower = new FileFollower(document, Paths.get(document.fileAddress, document.fileName),
+                document.loadedBytes, FileFollower.LINE_CAP);
+        // The text no longer ends where the file did when it was loaded.
+        document.loadedBytes = -1;
+        // With the caret at the end, the new lines are scrolled into view.
+        textAreaMainFrame.setCaretPosition(textAreaMainFrame.getDocument().getLength());
+        setTitle(document.fileName + " [following]");
+        file_Follow.setText("stop following");
+    }
+
+    /**
+     * Stops following the file of 'followed', if it is followed. A document
+     * whose first lines were dropped, or whose file was rotated meanwhile (it
+     * then holds the old file followed by the new one), becomes untitled, so
+     * it can never be saved over the file.
+     */
+    void stopFollowing(EditorDocument followed) {
+        if (followed.follower == null) {
+            return;
+        }
+        boolean changed = followed.follower.stop();
+        followed.follower = null;
+        if (changed) {
+            followed.content.setSource(null);
+            followed.fileName = "untitled";
+            followed.fileAddress = null;
+            followed.editJournal.reset(null);
+        }
+        setTitle(followed, followed.fileName);
+        if (followed == document) {
+            file_Follow.setText("follow (tail -f)");
+        }
+    }
+
+    /**
+     * Opens a file in the read-only large file mode.
+     * The file is memory-mapped by a 'LargeFileView', which replaces the text
+     * area inside the scroll pane and only decodes the lines currently visible.
+     *
+     * @param largeFile The file to show.
+     */
+    void openLargeFile(File largeFile) {
+        closeLargeFile();
+        try {
+            document.largeFileView = new LargeFileView(largeFile, textAreaMainFrame.getFont());
+            document.largeFileView.addMouseWheelListener(zoomListener);
+            textAreaMainFrame.setText("");
+            undoHistory.discardAllEdits();
+            document.editJournal.reset(null);
+            scrollFeature.setViewportView(document.largeFileView);
+            // The gutter numbers the lines of the text area, which is empty now.
+            scrollFeature.setRowHeaderView(null);
+            setTitle(document.fileName + " [read-only]");
         } catch (IOException e1) {
-            // If the boilerplate code file is not found, display an error message.
-            JOptionPane.showMessageDialog(mainFrame, "File not found!");
+            // In case the file doesn't exist or cannot be mapped
+            textAreaMainFrame.setText("FILE NOT FOUND..!");
+        }
+    }
+
+    /**
+     * Leaves the large file mode, if active, and puts the text area back into
+     * the scroll pane.
+     */
+    void closeLargeFile() {
+        if (document.largeFileView != null) {
+            document.largeFileView.close();
+            document.largeFileView = null;
+            scrollFeature.setViewportView(textAreaMainFrame);
+            scrollFeature.setRowHeaderView(document.lineNumbers);
+        }
+    }
+
+    /**
+     * Checks whether a large file is open in the read-only mode, telling the
+     * user that it cannot be saved if so.
+     *
+     * @return true if the current file is a read-only large file.
+     */
+    boolean readOnlyLargeFile() {
+        if (document.largeFileView == null) {
+            return false;
+        }
+        JOptionPane.showMessageDialog(mainFrame, "Large files are opened read-only..!");
+        return true;
+    }
+
+    /**
+     * Checks whether the current file is still being loaded, telling the user
+     * that it cannot be saved yet if so: the text area only holds the part
+     * read so far, which would replace the whole file.
+     *
+     * @return true if the current file is still being loaded.
+     */
+    boolean stillLoading() {
+        if (document.openWorker == null) {
+            return false;
+        }
+        JOptionPane.showMessageDialog(mainFrame, "Wait until the file is loaded..!");
+        return true;
+    }
+
+    /**
+     * Checks whether the current file is being followed, telling the user to
+     * stop following it first if so: its text is the file as it grows, and
+     * may only be its last lines, which saving would leave in place of it.
+     *
+     * @return true if the current file is being followed.
+     */
+    boolean following() {
+        if (document.follower == null) {
+            return false;
+        }
+        JOptionPane.showMessageDialog(mainFrame, "Stop following the file first..!");
+        return true;
+    }
+
+    /**
+     * Closes the document 'closed' on purpose. Its journal is deleted, so the
+     * unsaved changes the user chose to drop aren't offered for recovery
+     * later. Closing the last document closes the window.
+     */
+    void closeDocument(EditorDocument closed) {
+        int index = documents.indexOf(closed);
+        if (index < 0) {
+            return;
+        }
+        if (closed.openWorker != null) {
+            closed.openWorker.cancel(false);
+        }
+        stopFollowing(closed);
+        if (closed.largeFileView != null) {
+            closed.largeFileView.close();
+        }
+        closed.editJournal.discard();
+        if (documents.size() == 1) {
+            mainFrame.dispose();
+            return;
+        }
+        documents.remove(index);
+        documentTabs.removeTabAt(index);
+    }
+
+    /**
+     * Closes the window on purpose, with all of its documents and their
+     * journals.
+     */
+    void closeWindow() {
+        for (EditorDocument open : documents) {
+            stopFollowing(open);
+            open.editJournal.discard();
+        }
+        if (console != null) {
+            console.close();
+        }
+        mainFrame.dispose();
+    }
+
+    /**
+     * Asks whether to save the changes of the selected document, then closes
+     * it. An untitled document that the user wants to save is saved under a
+     * new name and stays open.
+     *
+     * @param onClosed Called once the document is closed; not called if the
+     *                 user cancels.
+     */
+    void askToCloseDocument(Runnable onClosed) {
+        EditorDocument closed = document;
+        int res;
+
+        // A file still loading or followed can't have been edited, and can't
+        // be saved either: there is nothing to ask.
+        if (closed.openWorker != null || closed.follower != null) {
+            closeDocument(closed);
+            onClosed.run();
+            return;
+        }
+
+        // Check if the file is untitled (not saved)
+        if (closed.fileName.equals("untitled")) {
+            // Show dialog asking if the user wants to save the file
+            res = JOptionPane.showConfirmDialog(mainFrame, " Do you want to save file ? ", "Save file ?",
+                    JOptionPane.YES_NO_CANCEL_OPTION);
+
+            if (res == JOptionPane.YES_OPTION) {
+
+                saveAs();
+            } else if (res == JOptionPane.NO_OPTION) {
+                // If "No", close the document without saving
+                closeDocument(closed);
+                onClosed.run();
+            } else {
+                // If the dialog was closed without making a selection, cancel the exit
+            }
+        } else {
+            // If the file is already saved (has a name), check if the user wants to save
+            // changes
+            res = JOptionPane.showConfirmDialog(mainFrame, " Do you want to save changes ? ",
+                    "Save changes ",
+                    JOptionPane.YES_NO_CANCEL_OPTION);
+
+            if (res == JOptionPane.YES_OPTION) {
+                // If "Yes", save the changes and close once they are written
+                writeFile(() -> {
+                    closeDocument(closed);
+                    onClosed.run();
+                });
+            } else if (res == JOptionPane.NO_OPTION) {
+                // If "No", close without saving
+                closeDocument(closed);
+                onClosed.run();
+            } else {
+                // If the dialog was closed without making a selection, cancel the exit
+            }
         }
     }
 
     /**
-     * Method responsible for resetting the format of the text area based on the
+     * Asks for each document in turn whether to save it, closing the window
+     * once the last one is closed.
+     */
+    void askToCloseAll() {
+        if (mainFrame.isDisplayable()) {
+            askToCloseDocument(this::askToCloseAll);
+        }
+    }
+
+    /**
+     * Shows the estimated memory kept alive by every open document (see
+     * 'EditorDocument.getMemoryUsed'), next to the heap used by the whole
+     * application, which includes what the documents share.
+     */
+    void showMemoryReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-32s %10s %12s %12s%n", "document", "lines", "characters", "retained"));
+        long total = 0;
+        for (EditorDocument open : documents) {
+            long retained = open.getMemoryUsed();
+            total += retained;
+            report.append(String.format("%-32.32s %10d %12d %9d KB%n", open.title, open.lineIndex.getLineCount(),
+                    open.textArea.getDocument().getLength(), retained >> 10));
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long heapUsed = runtime.totalMemory() - runtime.freeMemory();
+        report.append(String.format("%n%d document(s): %d KB, %d KB per document on average%n", documents.size(),
+                total >> 10, (total / documents.size()) >> 10));
+        report.append(String.format("heap used by the application: %d KB of %d KB%n", heapUsed >> 10,
+                runtime.maxMemory() >> 10));
+
+        JTextArea reportArea = new JTextArea(report.toString());
+        reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        reportArea.setEditable(false);
+        JScrollPane reportScroll = new JScrollPane(reportArea);
+        reportScroll.setPreferredSize(new Dimension(640, Math.min(480, 60 + 18 * (documents.size() + 4))));
+        JOptionPane.showMessageDialog(mainFrame, reportScroll, "Memory report", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    /**
+     * Offers to recover every document whose journal was left behind by a
+     * previous run that didn't exit cleanly. The first recovered document is
+     * shown in the selected tab, any further ones in new tabs.
+     */
+    void recoverJournals() {
+        boolean replaceSelected = true;
+        for (EditJournal.Recovery recovery : EditJournal.findLeftovers()) {
+            try {
+                if (!recovery.hasEdits) {
+                    // Nothing was changed, so there is nothing to recover.
+                    recovery.delete();
+                    continue;
+                }
+                String name = recovery.path == null ? "untitled" : new File(recovery.path).getName();
+                int res = JOptionPane.showConfirmDialog(mainFrame, " Recover unsaved changes of " + name + " ? ",
+                        "Recover changes ?", JOptionPane.YES_NO_OPTION);
+                if (res == JOptionPane.YES_OPTION) {
+                    if (!replaceSelected) {
+                        newDocument();
+                    }
+                    replayJournal(recovery);
+                    replaceSelected = false;
+                } else {
+                    recovery.delete();
+                }
+            } catch (IOException e1) {
+                // A journal that can't be resumed or deleted is left for the next start.
+                e1.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Shows a recovered document in the selected tab. The recovered journal keeps
+     * recording, since it already describes the text relative to its file.
+     *
+     * @param recovery The journal replayed by 'EditJournal.findLeftovers'.
+     * @throws IOException If the recovered journal cannot be reopened.
+     */
+    void replayJournal(EditJournal.Recovery recovery) throws IOException {
+        textAreaMainFrame.getDocument().removeDocumentListener(document.editJournal);
+        document.editJournal.discard();
+        textAreaMainFrame.setText(recovery.text);
+        undoHistory.discardAllEdits();
+        textAreaMainFrame.getDocument().putProperty(DefaultEditorKit.EndOfLineStringProperty,
+                recovery.lineSeparator);
+        textAreaMainFrame.setCaretPosition(0);
+        document.editJournal = recovery.resume();
+        textAreaMainFrame.getDocument().addDocumentListener(document.editJournal);
+
+        if (recovery.path != null) {
+            File recoveredFile = new File(recovery.path);
+            document.fileName = recoveredFile.getName();
+            document.fileAddress = recoveredFile.getParent() + File.separator;
+        }
+        setTitle(document.fileName + " (recovered)");
+    }
+
+    /**
+     * Method responsible for resetting the format of the text areas based on the
      * current font style and size.
-     * This method updates the text area's font to reflect the user-selected font
-     * style and size.
+     * This method updates the font shared by all documents to reflect the
+     * user-selected font style and size.
      */
     void resetFormat() {
-        // Sets the font of the text area based on the current font style and size.
-        textAreaMainFrame.setFont(new Font(currentFontStyle, Font.PLAIN, currentFontSize));
+        // Takes the font from the cache and sets it on the text area of every document.
+        Font font = FontCache.get(currentFontStyle, Font.PLAIN, currentFontSize);
+        if (font == textFont) {
+            return;
+        }
+        textFont = font;
+        Instrumentation.Operation operation = Instrumentation.begin("font", font.getFamily() + " " + font.getSize());
+        for (EditorDocument open : documents) {
+            open.textArea.setFont(textFont);
+            if (open.largeFileView != null) {
+                open.largeFileView.setFont(textFont);
+            }
+        }
+        operation.endAfterQueuedEvents();
+    }
+
+    /**
+     * Makes the font 'steps' sizes larger (or smaller, if negative), within
+     * 'FontCache.MIN_SIZE' and 'FontCache.MAX_SIZE'.
+     */
+    void zoom(int steps) {
+        int size = Math.max(FontCache.MIN_SIZE, Math.min(FontCache.MAX_SIZE, currentFontSize + 2 * steps));
+        if (size == currentFontSize) {
+            return;
+        }
+        currentFontSize = size;
+        if (fontCurrentSize != null) {
+            fontCurrentSize.setText("Selected: " + currentFontSize);
+        }
+        resetFormat();
     }
 
     /**
@@ -728,14 +1692,12 @@ class NotepadUserInterface {
          *           implementation).
          */
         functionSave = (al) -> {
-            if (fileName.equals("untitled"))
+            if (document.fileName.equals("untitled"))
                 saveAs();
             else {
                 // Save the file with the existing name
-                mainFrame.setTitle(fileName);
-                writeFile();
-                System.out.println("filename else of save fx:" + fileName);
-                JOptionPane.showMessageDialog(mainFrame, "Changes saved..!");
+                setTitle(document.fileName);
+                writeFile(() -> JOptionPane.showMessageDialog(mainFrame, "Changes saved..!"));
             }
         };
 
@@ -747,28 +1709,19 @@ class NotepadUserInterface {
         /**
          * Action listener for the "New File" menu item in the application.
          * 
-         * This listener performs the following tasks:
-         * 1. **Resets file-related variables**:
-         * - The `fileName` is set to "untitled", indicating that no file has been saved
-         * yet.
-         * - The `fileAddress` is set to `null`, clearing the previous file path.
-         * 
-         * 2. **Creates a new instance of the Notepad**:
-         * - A new instance of the `NotepadUserInterface` is created, initializing a
-         * fresh notepad.
-         * - The title of the new instance is set to "untitled", indicating that the
-         * file has not been saved or named yet.
+         * This listener opens a new tab holding an untitled document:
+         * - Its `fileName` is "untitled", indicating that no file has been saved
+         * yet, and its `fileAddress` is `null`.
+         * - Only the text area and the state of the new document are created; the
+         * window, the menus, the font and the listeners are shared with the
+         * documents already open.
          * 
-         * This allows the user to start a new file while keeping the previous one open,
-         * or after clearing the current content.
+         * This allows the user to start a new file while keeping the previous one open.
          * 
          * @param al Action event passed to the listener (not used in this
          *           implementation).
          */
-        functionnewFile = (al) -> {
-            // Reset the file-related variables
-            new NotepadUserInterface();
-        };
+        functionnewFile = (al) -> newDocument();
 
         /**
          * Action listener for the "Open" menu item in the application.
@@ -781,15 +1734,19 @@ class NotepadUserInterface {
          * an existing file.
          * 
          * 2. **File Selection**:
-         * - After the user selects a file, its name (`fileName`) and directory path
-         * (`fileAddress`) are updated.
-         * - The file path is printed for debugging purposes.
+         * - After the user selects a file, it is opened in a tab (see `openInTab`):
+         * the one already showing it, the selected one if that is blank, or a new
+         * one. The tab's document gets the file's name (`fileName`) and directory
+         * path (`fileAddress`).
          * 
          * 3. **File Reading**:
-         * - A `BufferedReader` is used to read the content of the selected file
-         * line-by-line.
-         * - Each line is appended to the main text area (`textAreaMainFrame`), which
-         * displays the content of the file.
+         * - A `FileOpenWorker` reads the content of the selected file in large blocks
+         * on a background thread, so the window stays responsive.
+         * - The blocks are appended to the main text area (`textAreaMainFrame`) in
+         * batches, while a progress dialog allows the user to cancel the load.
+         * 
+         * - Files larger than `LargeFileView.LARGE_FILE_THRESHOLD` are memory-mapped
+         * instead and shown read-only, decoding only the visible lines.
          * 
          * 4. **Error Handling**:
          * - If the file is not found or an error occurs during reading, the text area
@@ -809,104 +1766,52 @@ class NotepadUserInterface {
             fileDialog = new FileDialog(mainFrame, "open", FileDialog.LOAD);
             fileDialog.setVisible(true);
 
-            // Capture the selected file's name and address
-            fileName = fileDialog.getFile();
-            fileAddress = fileDialog.getDirectory();
-
-            // Set the window title to the selected file's name
-
-            if (fileName.equals("untitled")) {
-                textAreaMainFrame.setText("");
-                mainFrame.setTitle("untitled");
-            } else {
-                menuBarElementCMD.setEnabled(true);
-                mainFrame.setTitle(fileName);
-                textAreaMainFrame.setText("");
-                // Attempt to read the file and display its contents
-                try (BufferedReader BufferReaderObj = new BufferedReader(new FileReader(fileAddress + fileName))) {
-                    String line = null;
-                    try {
-                        // Read each line of the file and append it to the text area
-                        for (line = BufferReaderObj.readLine(); line != null; line = BufferReaderObj.readLine()) {
-                            textAreaMainFrame.append(line + "\n ");
-                        }
-                    } catch (Exception F) {
-                        // In case of any error while reading the file
-                        textAreaMainFrame.setText("FILE NOT FOUND..!");
-                    }
-                } catch (IOException e1) {
-                    // In case the file doesn't exist or cannot be read
-                    textAreaMainFrame.setText("FILE NOT FOUND..!");
-                }
+            // Open the selected file, unless the dialog was cancelled
+            if (fileDialog.getFile() != null) {
+                openInTab(new File(fileDialog.getDirectory(), fileDialog.getFile()), 0);
             }
         };
 
         /**
-         * Action listener for the "Exit" menu item in the application.
+         * Action listener for the "Close" menu item in the application.
          * 
-         * This listener is triggered when the user tries to exit the application. It
+         * This listener is triggered when the user closes the selected document. It
          * performs the following checks:
          * 1. **Unsaved Changes Check**:
          * - If the file is untitled (i.e., no file has been saved yet), a confirmation
          * dialog is shown asking if the user wants to save the file.
          * - If the user selects "Yes", a file dialog is displayed for the user to
          * choose a location and name for the file. The file is then saved.
-         * - If the user selects "No", the application closes without saving.
+         * - If the user selects "No", the document is closed without saving.
          * - If the user closes the confirmation dialog, the action is canceled.
          * 
          * 2. **Saved File Check**:
          * - If the file has already been saved (i.e., it has a name other than
          * "untitled"), a confirmation dialog is displayed asking if the user wants to
-         * save any changes before exiting.
-         * - If the user selects "Yes", the file is saved, and the application exits.
-         * - If the user selects "No", the application simply exits without saving.
+         * save any changes before closing.
+         * - If the user selects "Yes", the file is saved, and the document is closed.
+         * - If the user selects "No", the document is simply closed without saving.
          * - If the user closes the confirmation dialog, the action is canceled.
          * 
-         * This method ensures that the user is prompted to save any unsaved changes
-         * before closing the application.
+         * Closing the last document closes the window.
          * 
          * @param e Action event passed to the listener (not used in this
          *          implementation).
          */
-        functionExit = (e) -> {
+        functionClose = (e) -> askToCloseDocument(() -> {
+        });
 
-            int res;
-
-            // Check if the file is untitled (not saved)
-            if (fileName.equals("untitled")) {
-                // Show dialog asking if the user wants to save the file
-                res = JOptionPane.showConfirmDialog(mainFrame, " Do you want to save file ? ", "Save file ?",
-                        JOptionPane.YES_NO_CANCEL_OPTION);
-
-                if (res == JOptionPane.YES_OPTION) {
-
-                    saveAs();
-                } else if (res == JOptionPane.NO_OPTION) {
-                    // If "No", dispose (close) the main frame without saving
-                    mainFrame.dispose();
-                } else {
-                    // If the dialog was closed without making a selection, cancel the exit
-                }
-            } else {
-                // If the file is already saved (has a name), check if the user wants to save
-                // changes
-                res = JOptionPane.showConfirmDialog(mainFrame, " Do you want to save changes ? ",
-                        "Save changes ",
-                        JOptionPane.YES_NO_CANCEL_OPTION);
-
-                if (res == JOptionPane.YES_OPTION) {
-                    // If "Yes", save the changes and exit
-                    writeFile();
-                    mainFrame.dispose();
-                } else if (res == JOptionPane.NO_OPTION) {
-                    // If "No", exit without saving
-                    mainFrame.dispose();
-                } else {
-                    // If the dialog was closed without making a selection, cancel the exit
-                }
-            }
-
-        };
+        /**
+         * Action listener for the "Exit" menu item in the application.
+         * 
+         * This listener asks about every open document in turn, as the "Close" menu
+         * item does, and closes the window once all of them are closed. Cancelling
+         * for one document stops the exit, leaving it and the ones after it open.
+         * 
+         * @param e Action event passed to the listener (not used in this
+         *          implementation).
+         */
+        functionExit = (e) -> askToCloseAll();
 
         /**
          * Action listener for toggling word wrap functionality in the text area.
@@ -921,6 +1826,7 @@ class NotepadUserInterface {
          * - **Word Wrap Off**: When disabled, lines of text will not wrap, and the user
          * must scroll horizontally to view the rest of the line.
          * 
+         * The setting belongs to the selected document; each document keeps its own.
          * The listener also updates the status label (worldWrap) to indicate the
          * current state of word wrapping (either "On" or "Off").
          * 
@@ -929,38 +1835,34 @@ class NotepadUserInterface {
          */
         functionWordWrap = (al) -> {
 
-            // Toggle the word wrap state
-            wordWrapBoolean = !wordWrapBoolean;
-
-            if (wordWrapBoolean) {
-                // Enable word wrap in the text area
-                textAreaMainFrame.setWrapStyleWord(true);
-                textAreaMainFrame.setLineWrap(true);
+            // Toggle the word wrap state of the selected document
+            Instrumentation.Operation operation = Instrumentation.begin("wrap", document.wordWrap ? "off" : "on");
+            document.setWordWrap(!document.wordWrap);
+            operation.endAfterQueuedEvents();
 
-                // Update the status label to show "On"
-                worldWrap.setText("worldWrap:On");
-            } else {
-                // Disable word wrap in the text area
-                textAreaMainFrame.setWrapStyleWord(false);
-                textAreaMainFrame.setLineWrap(false);
-
-                // Update the status label to show "Off"
-                worldWrap.setText("worldWrap:Off");
-            }
+            // Update the status label to show "On" or "Off"
+            worldWrap.setText(document.wordWrap ? "worldWrap:On" : "worldWrap:Off");
         };
 
         /**
-         * Listener for opening the command prompt (CMD) in the file's directory.
-         * - Launches CMD and navigates to the file's directory using `cd /d`.
-         * - Displays an error dialog if the operation fails.
+         * Listener for showing or hiding the console, which runs commands in the
+         * directory of the selected file ('ConsolePane').
          */
-        functionCMD = (al) -> {
-            try {
-                String command = "cmd /c start cmd.exe /k \"cd /d " + fileAddress + "\"";
-                Runtime.getRuntime().exec(command);
-            } catch (IOException e) {
-                e.printStackTrace();
-                JOptionPane.showMessageDialog(null, "Something went wrong ..!");
+        functionCMD = (al) -> toggleConsole();
+
+        // Ctrl+wheel zooms the text; the wheel alone scrolls the document.
+        zoomListener = e -> {
+            Component source = (Component) e.getSource();
+            if (e.isControlDown()) {
+                // Wheel up makes the text larger.
+                zoom(-e.getWheelRotation());
+                e.consume();
+            } else {
+                // The text area takes the wheel events from its scroll pane, so they are passed on.
+                Component scrollPane = SwingUtilities.getAncestorOfClass(JScrollPane.class, source);
+                if (scrollPane != null) {
+                    scrollPane.dispatchEvent(SwingUtilities.convertMouseEvent(source, e, scrollPane));
+                }
             }
         };
 
@@ -1000,8 +1902,8 @@ class NotepadUserInterface {
 
     }// NON-STATIC INITIALIZER1-END
 
-    // NON-STATIC INITIALIZER2-START::setting up native systems UI as application UI
-    {
+    // STATIC INITIALIZER::setting up native systems UI as application UI, once per JVM
+    static {
         // Attempt to set the Look and Feel of the UI to match the system's native
         // appearance
         try {
@@ -1030,35 +1932,31 @@ class NotepadUserInterface {
      * to a new file by selecting a file name and location.
      */
     void saveAs() {
+        if (readOnlyLargeFile() || stillLoading() || following()) {
+            return;
+        }
         // Open a file dialog for saving the file
         fileDialog = new FileDialog(mainFrame, "open", FileDialog.SAVE);
         fileDialog.setVisible(true); // Make the dialog visible
 
         // Retrieve the selected file name and directory
-        fileName = fileDialog.getFile();
-        fileAddress = fileDialog.getDirectory();
-        mainFrame.setTitle(fileName); // Update the main frame title with the file name
-        menuBarElementCMD.setEnabled(true); // Enable CMD option in the menu bar
+        document.fileName = fileDialog.getFile();
+        document.fileAddress = fileDialog.getDirectory();
+        setTitle(document.fileName); // Update the title with the file name
 
         // Check if the user selected a valid file
         if (fileDialog.getFile() != null) {
-            fileName = fileDialog.getFile(); // Get the selected file name
-            fileAddress = fileDialog.getDirectory(); // Get the selected directory
+            document.fileName = fileDialog.getFile(); // Get the selected file name
+            document.fileAddress = fileDialog.getDirectory(); // Get the selected directory
         } else {
             // If no file is selected, reset the title and file-related variables
-            mainFrame.setTitle("untitled");
-            fileName = "untitled";
+            document.fileName = "untitled";
+            setTitle("untitled");
         }
 
-        // Try to write the current content of the text area to the selected file
-        try (FileWriter fileWriterObj = new FileWriter(fileAddress + fileName)) {
-            fileWriterObj.write(textAreaMainFrame.getText()); // Write content to the file
-            fileWriterObj.close(); // Close the file writer
-        } catch (IOException e1) {
-            // If an error occurs during file writing, reset the title and clear the text
-            // area
-            mainFrame.setTitle("nofile");
-            textAreaMainFrame.setText("");
+        // Write the current content of the text area to the selected file
+        if (fileDialog.getFile() != null) {
+            writeFile();
         }
     }
 
@@ -0,0 +1,25 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event; // Recorded by Java Flight Recorder, at no cost while no recording runs.
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * 'OperationEvent' is the JFR event of one editor operation (open, save,
+ * template insert, font change, wrap toggle, search), spanning it from the
+ * user's action until its result is shown. Operations finishing on a
+ * background thread end on the event thread, when they are handed back.
+ */
+@Name("notepadpro.Operation")
+@Label("Editor Operation")
+@Category("NotepadPro")
+@Description("An operation of the editor, from the user's action until its result is shown")
+final class OperationEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Detail")
+    @Description("The file, font, search text, ... the operation worked on")
+    String detail;
+}
@@ -0,0 +1,963 @@
+import java.lang.ref.ReferenceQueue;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder; // Measures the byte length of clean pieces that get split.
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import javax.swing.text.AbstractDocument; // Provides the 'Content' interface used as the storage of a document.
+import javax.swing.text.BadLocationException; // Thrown when an offset lies outside of the document.
+import javax.swing.text.Position; // Represents a location in the document that follows edits.
+import javax.swing.text.Segment; // A lightweight view over a character array, used to hand out text.
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * 'PieceTableContent' is the storage behind the text area's document.
+ * Instead of keeping the whole text in one gap buffer (as the default
+ * 'GapContent' of 'PlainDocument' does), the text is described by a list of
+ * pieces that point either into the read-only 'original' buffer (the file as
+ * it was loaded) or into the append-only 'added' buffer (everything typed,
+ * pasted or loaded afterwards).
+ *
+ * Inserting or deleting therefore only splits or trims pieces, which costs
+ * O(pieces) instead of copying O(n) characters around a gap that has to be
+ * moved across the document for edits that are far apart.
+ */
+class PieceTableContent implements AbstractDocument.Content {
+
+    /**
+     * 'Piece' describes one run of characters of the document.
+     * - 'added': true if the run lives in the added buffer, false for the original.
+     * - 'start': offset of the run inside its buffer.
+     * - 'length': number of characters in the run.
+     * - 'source': the file on disk holding exactly these characters, or null.
+     * - 'sourceOffset'/'sourceLength': the byte range of the run in that file.
+     *
+     * A piece whose 'source' is the content's current 'SourceFile' is unchanged
+     * since the file was loaded or saved, so a save can copy its bytes from
+     * the file instead of encoding the characters again.
+     */
+    static final class Piece {
+        final boolean added;
+        final int start;
+        final int length;
+        final SourceFile source;
+        final long sourceOffset;
+        final long sourceLength;
+
+        Piece(boolean added, int start, int length) {
+            this(added, start, length, null, 0, 0);
+        }
+
+        Piece(boolean added, int start, int length, SourceFile source, long sourceOffset, long sourceLength) {
+            this.added = added;
+            this.start = start;
+            this.length = length;
+            this.source = source;
+            this.sourceOffset = sourceOffset;
+            this.sourceLength = sourceLength;
+        }
+    }
+
+    /**
+     * 'SourceFile' identifies the file on disk the clean pieces were read from
+     * (or last saved to), together with the encoding details needed to map
+     * characters back to bytes. A new instance is created after every save, so
+     * pieces still pointing at an older instance count as modified.
+     */
+    static final class SourceFile {
+        final Path path;
+        final Charset charset;
+        final long size;
+        final FileTime lastModified;
+
+        // Identifies the file itself (e.g. device and inode), or null if the
+        // file system has no such key; without one the file is never trusted.
+        final Object fileKey;
+
+        // The line separator each '\n' stands for; known once loading is done.
+        private String lineSeparator = "\n";
+
+        // Extra bytes the separator takes compared to an encoded '\n'.
+        private long extraBytesPerNewline;
+
+        SourceFile(Path path, Charset charset, BasicFileAttributes attributes) {
+            this.path = path;
+            this.charset = charset;
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime();
+            this.fileKey = attributes.fileKey();
+        }
+
+        /**
+         * Describes the file currently found at 'path', as just written with 'charset'.
+         */
+        static SourceFile of(Path path, Charset charset, String lineSeparator) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            SourceFile file = new SourceFile(path, charset, attributes);
+            file.setLineSeparator(lineSeparator);
+            return file;
+        }
+
+        String getLineSeparator() {
+            return lineSeparator;
+        }
+
+        void setLineSeparator(String lineSeparator) {
+            this.lineSeparator = lineSeparator;
+            extraBytesPerNewline = charset.encode(lineSeparator).remaining() - charset.encode("\n").remaining();
+        }
+
+        /**
+         * Returns true if the file on disk is still the file that was read or
+         * written, with the size and modification time it had then, i.e.
+         * nobody else changed it. Size and time alone can't tell: a copy
+         * keeping the time ('cp -p', 'rsync -t') or a rewrite within the
+         * resolution of the time would pass, so the file key must match too.
+         */
+        boolean isUnchangedOnDisk() {
+            if (fileKey == null) {
+                return false;
+            }
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                return fileKey.equals(attributes.fileKey()) && attributes.size() == size
+                        && attributes.lastModifiedTime().equals(lastModified);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 'Snapshot' is an immutable view of the document handed to the save
+     * thread: the pieces (without the implied trailing newline) and the buffers
+     * they point into.
+     */
+    static final class Snapshot {
+        final List<Piece> pieces;
+        final SourceFile source;
+        private final char[] original, added;
+
+        Snapshot(List<Piece> pieces, SourceFile source, char[] original, char[] added) {
+            this.pieces = pieces;
+            this.source = source;
+            this.original = original;
+            this.added = added;
+        }
+
+        /**
+         * Returns the characters of a piece as a read-only buffer, without copying them.
+         */
+        CharBuffer text(Piece piece) {
+            return CharBuffer.wrap(piece.added ? added : original, piece.start, piece.length).asReadOnlyBuffer();
+        }
+
+        /**
+         * Returns true if the piece still holds the bytes of the source file.
+         */
+        boolean isFromSource(Piece piece) {
+            return source != null && piece.source == source;
+        }
+
+        /**
+         * Returns the text of the snapshot as a 'CharSequence' reading straight
+         * from the buffers, e.g. to run a search on it.
+         */
+        SnapshotText asCharSequence() {
+            int[] pieceStarts = new int[pieces.size() + 1];
+            for (int i = 0; i < pieces.size(); i++) {
+                pieceStarts[i + 1] = pieceStarts[i] + pieces.get(i).length;
+            }
+            return new SnapshotText(this, pieceStarts, 0, pieceStarts[pieces.size()]);
+        }
+    }
+
+    /**
+     * 'SnapshotText' is a read-only 'CharSequence' over (a range of) a
+     * snapshot. No characters are copied: 'charAt' finds the piece holding the
+     * index, starting from the piece of the previous lookup, so scanning the
+     * text in order costs O(1) per character.
+     *
+     * Because of that cursor an instance must not be shared between threads;
+     * each thread takes its own 'view'.
+     */
+    static final class SnapshotText implements CharSequence {
+        private final Snapshot snapshot;
+
+        // Offset of each snapshot piece within the snapshot, followed by the total length.
+        private final int[] pieceStarts;
+        private final int offset, length;
+
+        // The piece found by the last lookup: its buffer, and its bounds as
+        // indices of this sequence.
+        private char[] cachedBuffer;
+        private int cachedFrom, cachedTo, cachedBase;
+
+        SnapshotText(Snapshot snapshot, int[] pieceStarts, int offset, int length) {
+            this.snapshot = snapshot;
+            this.pieceStarts = pieceStarts;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Returns a new instance over the same text, for use by another thread.
+         */
+        SnapshotText view() {
+            return new SnapshotText(snapshot, pieceStarts, offset, length);
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            if (index < cachedFrom || index >= cachedTo || cachedBuffer == null) {
+                int piece = pieceAt(offset + index);
+                Piece found = snapshot.pieces.get(piece);
+                cachedBuffer = found.added ? snapshot.added : snapshot.original;
+                cachedFrom = pieceStarts[piece] - offset;
+                cachedTo = pieceStarts[piece + 1] - offset;
+                cachedBase = found.start - cachedFrom;
+            }
+            return cachedBuffer[cachedBase + index];
+        }
+
+        @Override
+        public SnapshotText subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException(start);
+            }
+            return new SnapshotText(snapshot, pieceStarts, offset + start, end - start);
+        }
+
+        /**
+         * Appends the characters between 'start' and 'end' to 'out', copying
+         * whole runs of each piece at once.
+         */
+        void appendTo(StringBuilder out, int start, int end) {
+            int at = offset + start, stop = offset + end;
+            while (at < stop) {
+                int piece = pieceAt(at);
+                Piece found = snapshot.pieces.get(piece);
+                int skip = at - pieceStarts[piece];
+                int count = Math.min(found.length - skip, stop - at);
+                out.append(found.added ? snapshot.added : snapshot.original, found.start + skip, count);
+                at += count;
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder(length);
+            appendTo(out, 0, length);
+            return out.toString();
+        }
+
+        // Binary search for the piece holding the snapshot offset 'at'.
+        private int pieceAt(int at) {
+            int low = 0, high = pieceStarts.length - 2;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (pieceStarts[mid] <= at) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * 'Fragment' is a run of inserted or removed characters, referring to the
+     * buffer that held them when the edit was made. Buffers are never
+     * overwritten (growing or dropping the added buffer replaces the array), so
+     * a fragment stays valid for as long as it is kept, without a copy.
+     */
+    static final class Fragment {
+        final char[] buffer;
+        final int start;
+        final int length;
+
+        Fragment(char[] buffer, int start, int length) {
+            this.buffer = buffer;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 'EditRecorder' is told about every change of the content, with the
+     * affected characters handed out as fragments (e.g. to record undo history).
+     * It is called while the document is locked for writing, before any
+     * document listener is notified.
+     */
+    interface EditRecorder {
+        void inserted(int where, Fragment text);
+
+        void removed(int where, List<Fragment> text);
+
+        /**
+         * Called when the added buffer is replaced, so fragments kept from
+         * it don't keep the whole old buffer alive. 'grown' holds the same
+         * characters at the same offsets, or is null if the characters of
+         * 'old' are no longer in any buffer of the content.
+         */
+        default void bufferReplaced(char[] old, char[] grown) {
+        }
+    }
+
+    /**
+     * 'Mark' is the location behind a 'Position'. Like the marks of 'GapContent',
+     * its 'index' lives in a virtual space holding a gap at the last edit
+     * location: indices before 'markGapStart' are plain offsets, indices after
+     * the gap are offsets plus 'markGapSize'. An edit therefore only touches the
+     * marks lying between the previous and the current edit location, instead
+     * of every mark after it (a plain document holds two marks per line).
+     *
+     * The mark only references its position weakly, so marks of positions that
+     * Swing no longer uses can be dropped from the mark list lazily.
+     */
+    final class Mark extends WeakReference<MarkPosition> {
+        long index;
+
+        Mark(MarkPosition position, long index) {
+            super(position, staleMarks);
+            this.index = index;
+        }
+    }
+
+    /**
+     * 'MarkPosition' is the 'Position' handed out to Swing. It keeps its 'Mark'
+     * alive for as long as Swing holds on to the position.
+     */
+    final class MarkPosition implements Position {
+        Mark mark;
+
+        @Override
+        public int getOffset() {
+            long index = mark.index;
+            return (int) (index < markGapStart ? index : index - markGapSize);
+        }
+    }
+
+    // The size the virtual mark gap is (re)filled with; far larger than any document.
+    private static final long MARK_GAP = 1L << 40;
+
+    // Estimated size of a piece, and of a mark with its position, besides the buffers.
+    private static final int PIECE_BYTES = 52, MARK_BYTES = 68;
+
+    // The read-only buffer holding the text the document was created with.
+    private char[] original;
+
+    // The append-only buffer holding every character inserted afterwards.
+    private char[] added = new char[1024];
+    private int addedLength;
+
+    // The ordered list of pieces making up the document.
+    private final ArrayList<Piece> pieces = new ArrayList<>();
+
+    // The total number of characters, including the implied trailing newline.
+    private int length;
+
+    // The list of marks sorted by index; marks of collected positions are purged lazily.
+    private final ArrayList<Mark> marks = new ArrayList<>();
+    private final ReferenceQueue<MarkPosition> staleMarks = new ReferenceQueue<>();
+    private int staleMarkCount;
+
+    // The location and size of the virtual gap in the mark index space.
+    private int markGapStart;
+    private long markGapSize = MARK_GAP;
+
+    // The piece found by the last lookup, reused as the starting point of the next one.
+    private int cachedIndex, cachedOffset;
+
+    // The file clean pieces refer to, and the byte range the next insert comes from.
+    private SourceFile source;
+    private long nextInsertSourceOffset = -1, nextInsertSourceLength;
+
+    // Told about every insert and remove.
+    private EditRecorder[] recorders = new EditRecorder[0];
+
+    // Encoder used to measure the byte length of split clean pieces.
+    private CharsetEncoder lengthEncoder;
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(1 << 12);
+
+    /**
+     * Creates an empty content, holding only the implied trailing newline every
+     * Swing document ends with.
+     */
+    PieceTableContent() {
+        this(new char[0]);
+    }
+
+    /**
+     * Creates a content whose original buffer is the given text. The array is
+     * adopted as-is and must not be modified by the caller afterwards.
+     *
+     * @param originalText The text the document starts with (e.g. a loaded file).
+     */
+    PieceTableContent(char[] originalText) {
+        original = originalText;
+        if (original.length > 0) {
+            pieces.add(new Piece(false, 0, original.length));
+        }
+        // Every document ends with an implied newline, stored in the added buffer.
+        pieces.add(new Piece(true, append("\n"), 1));
+        length = original.length + 1;
+    }
+
+    /**
+     * Returns the number of characters in the content, including the implied
+     * trailing newline.
+     */
+    @Override
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns the number of pieces currently describing the document.
+     * Useful to judge fragmentation after many edits.
+     */
+    int pieceCount() {
+        return pieces.size();
+    }
+
+    /**
+     * Returns the estimated number of bytes held by the content: both buffers,
+     * the pieces and the marks.
+     */
+    long getMemoryUsed() {
+        return 2L * (original.length + added.length) + (long) pieces.size() * PIECE_BYTES
+                + (long) marks.size() * MARK_BYTES;
+    }
+
+    /**
+     * Inserts a string into the content by appending it to the added buffer and
+     * splitting the piece that contains 'where'.
+     */
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where < 0 || where >= length) {
+            throw new BadLocationException("Invalid insert", where);
+        }
+        int count = str.length();
+        if (count == 0) {
+            return null;
+        }
+        int start = append(str);
+        Piece inserted = nextInsertSourceOffset < 0 ? new Piece(true, start, count)
+                : new Piece(true, start, count, source, nextInsertSourceOffset, nextInsertSourceLength);
+        nextInsertSourceOffset = -1;
+
+        // Locate the piece holding 'where' and the offset of that piece.
+        locate(where);
+        int index = cachedIndex, pieceOffset = cachedOffset;
+        Piece target = pieces.get(index);
+        int split = where - pieceOffset;
+
+        if (split == 0) {
+            // Typing right after an earlier insert just grows the previous piece.
+            Piece previous = index > 0 ? pieces.get(index - 1) : null;
+            if (previous != null && previous.added && previous.source == null && inserted.source == null
+                    && previous.start + previous.length == start) {
+                pieces.set(index - 1, new Piece(true, previous.start, previous.length + count));
+            } else {
+                pieces.add(index, inserted);
+            }
+        } else {
+            // Split the target piece in two around the inserted piece.
+            pieces.set(index, slice(target, 0, split));
+            pieces.add(index + 1, inserted);
+            pieces.add(index + 2, slice(target, split, target.length - split));
+        }
+        length += count;
+        cachedIndex = cachedOffset = 0;
+        if (recorders.length > 0) {
+            Fragment text = new Fragment(added, start, count);
+            for (EditRecorder recorder : recorders) {
+                recorder.inserted(where, text);
+            }
+        }
+
+        // Positions at or after the insertion point move with the text: the gap
+        // is moved there and the inserted characters are taken out of it.
+        moveMarkGap(where);
+        if (markGapSize <= count) {
+            for (int i = findMark(markGapStart); i < marks.size(); i++) {
+                marks.get(i).index += MARK_GAP;
+            }
+            markGapSize += MARK_GAP;
+        }
+        if (where == 0) {
+            // A position at offset 0 always stays at the start of the document.
+            long gapEnd = markGapStart + markGapSize;
+            for (int i = 0; i < marks.size() && marks.get(i).index == gapEnd; i++) {
+                marks.get(i).index = 0;
+            }
+        }
+        markGapStart += count;
+        markGapSize -= count;
+        return null;
+    }
+
+    /**
+     * Removes a range of characters by trimming or dropping the pieces covering
+     * it. No characters are copied; the buffers themselves never shrink.
+     */
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || where + nitems >= length) {
+            throw new BadLocationException("Invalid remove", where + nitems);
+        }
+        if (nitems == 0) {
+            return null;
+        }
+        int end = where + nitems;
+        ArrayList<Piece> replacement = new ArrayList<>(2);
+        ArrayList<Fragment> removed = recorders.length > 0 ? new ArrayList<>() : null;
+
+        locate(where);
+        int index = cachedIndex, pieceOffset = cachedOffset;
+        int first = index;
+        while (index < pieces.size() && pieceOffset < end) {
+            Piece piece = pieces.get(index);
+            int pieceEnd = pieceOffset + piece.length;
+            // Keep the part of the piece before the removed range.
+            if (pieceOffset < where) {
+                replacement.add(slice(piece, 0, where - pieceOffset));
+            }
+            // Keep the part of the piece after the removed range.
+            if (pieceEnd > end) {
+                int skip = end - pieceOffset;
+                replacement.add(slice(piece, skip, piece.length - skip));
+            }
+            if (removed != null) {
+                int from = Math.max(where, pieceOffset) - pieceOffset;
+                removed.add(new Fragment(piece.added ? added : original, piece.start + from,
+                        Math.min(end, pieceEnd) - pieceOffset - from));
+            }
+            pieceOffset = pieceEnd;
+            index++;
+        }
+        pieces.subList(first, index).clear();
+        pieces.addAll(first, replacement);
+        length -= nitems;
+        cachedIndex = cachedOffset = 0;
+        if (removed != null) {
+            for (EditRecorder recorder : recorders) {
+                recorder.removed(where, removed);
+            }
+        }
+
+        if (length == 1) {
+            // The document is empty again (e.g. before loading another file), so
+            // the buffers can be dropped instead of growing forever.
+            char[] dropped = added;
+            original = new char[0];
+            added = new char[1024];
+            addedLength = 0;
+            for (EditRecorder recorder : recorders) {
+                recorder.bufferReplaced(dropped, null);
+            }
+            pieces.clear();
+            pieces.add(new Piece(true, append("\n"), 1));
+        }
+
+        // The removed characters are added to the gap, so later positions shift
+        // back; positions inside the removed range collapse onto its start.
+        moveMarkGap(where);
+        long gapEnd = markGapStart + markGapSize;
+        for (int i = findMark(gapEnd); i < marks.size() && marks.get(i).index < gapEnd + nitems; i++) {
+            marks.get(i).index = gapEnd + nitems;
+        }
+        markGapSize += nitems;
+        return null;
+    }
+
+    /**
+     * Returns a copy of the requested range as a String.
+     */
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        Segment segment = new Segment();
+        getChars(where, len, segment);
+        return new String(segment.array, segment.offset, segment.count);
+    }
+
+    /**
+     * Fills the segment with the requested range. When the range lies inside a
+     * single piece the segment points directly into the buffer, so no
+     * characters are copied. Ranges spanning pieces are copied unless the
+     * caller accepts a partial return, in which case only the first piece is
+     * handed out.
+     */
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length) {
+            throw new BadLocationException("Invalid range", where + len);
+        }
+        locate(where);
+        int index = cachedIndex;
+        Piece piece = pieces.get(index);
+        int skip = where - cachedOffset;
+        int available = piece.length - skip;
+
+        if (len <= available || txt.isPartialReturn()) {
+            txt.array = piece.added ? added : original;
+            txt.offset = piece.start + skip;
+            txt.count = Math.min(len, available);
+            return;
+        }
+
+        // The range spans several pieces, so copy them into one array.
+        char[] copy = new char[len];
+        int copied = 0;
+        while (copied < len) {
+            piece = pieces.get(index++);
+            int count = Math.min(piece.length - skip, len - copied);
+            System.arraycopy(piece.added ? added : original, piece.start + skip, copy, copied, count);
+            copied += count;
+            skip = 0;
+        }
+        txt.array = copy;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    /**
+     * Sets the file the next inserted text was read from. The inserted piece
+     * remembers the byte range, so a later save can copy it from the file.
+     *
+     * @param file         The file being loaded; becomes the content's source.
+     * @param sourceOffset The byte offset of the inserted text in the file.
+     * @param sourceLength The number of bytes the inserted text takes in the file.
+     */
+    void setNextInsertSource(SourceFile file, long sourceOffset, long sourceLength) {
+        source = file;
+        nextInsertSourceOffset = sourceOffset;
+        nextInsertSourceLength = sourceLength;
+    }
+
+    /**
+     * Adds a recorder told about every insert and remove.
+     */
+    void addRecorder(EditRecorder recorder) {
+        recorders = Arrays.copyOf(recorders, recorders.length + 1);
+        recorders[recorders.length - 1] = recorder;
+    }
+
+    /**
+     * Sets the file clean pieces refer to; null forgets every clean range.
+     */
+    void setSource(SourceFile file) {
+        source = file;
+    }
+
+    SourceFile getSource() {
+        return source;
+    }
+
+    /**
+     * Returns an immutable snapshot of the document, without the implied
+     * trailing newline.
+     *
+     * The snapshot stays valid while the document keeps changing: the original
+     * buffer is never written, and the added buffer is only ever appended to
+     * (growing it copies into a new array and leaves the old one untouched).
+     * It can therefore be handed to another thread, e.g. to save the document,
+     * without copying the text. Must be called while edits are excluded, i.e.
+     * on the event thread or under the document's read lock.
+     */
+    Snapshot snapshot() {
+        return new Snapshot(new ArrayList<>(pieces.subList(0, pieces.size() - 1)), source, original, added);
+    }
+
+    /**
+     * Records that a snapshot was written to a file: every piece of the
+     * snapshot that is still part of the document now refers to its byte range
+     * in 'written', which becomes the new source. Pieces created since the
+     * snapshot keep pointing at the old source and thus count as modified.
+     *
+     * @param snapshot The snapshot that was saved.
+     * @param offsets  The byte offset of each snapshot piece in the written
+     *                 file, followed by the total size.
+     * @param written  The file the snapshot was written to.
+     */
+    void rebase(Snapshot snapshot, long[] offsets, SourceFile written) {
+        IdentityHashMap<Piece, Integer> saved = new IdentityHashMap<>();
+        boolean previousEndsInPair = false;
+        for (int i = 0; i < snapshot.pieces.size(); i++) {
+            Piece piece = snapshot.pieces.get(i);
+            CharBuffer text = snapshot.text(piece);
+            boolean endsInPair = Character.isHighSurrogate(text.charAt(text.length() - 1));
+            // The bytes of a pair cut by a piece boundary were written with the
+            // later piece, so neither side maps to its own byte range.
+            if (!previousEndsInPair && !endsInPair && !Character.isLowSurrogate(text.charAt(0))) {
+                saved.put(piece, i);
+            }
+            previousEndsInPair = endsInPair;
+        }
+        // Worked out before any piece is replaced, so a failure leaves the content as it was.
+        Piece[] rebased = new Piece[pieces.size()];
+        for (int i = 0; i < pieces.size(); i++) {
+            Piece piece = pieces.get(i);
+            Integer index = saved.get(piece);
+            if (index != null) {
+                rebased[i] = new Piece(piece.added, piece.start, piece.length, written, offsets[index],
+                        offsets[index + 1] - offsets[index]);
+            }
+        }
+        for (int i = 0; i < rebased.length; i++) {
+            if (rebased[i] != null) {
+                pieces.set(i, rebased[i]);
+            }
+        }
+        source = written;
+    }
+
+    /**
+     * Creates a position that tracks 'offset' as the content is edited.
+     */
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length) {
+            throw new BadLocationException("Invalid position", offset);
+        }
+        purgeStaleMarks();
+        long index = offset < markGapStart ? offset : offset + markGapSize;
+        MarkPosition position = new MarkPosition();
+        position.mark = new Mark(position, index);
+        // Most positions are created past all others, for the lines appended by
+        // loading or following a file, and need no search.
+        int last = marks.size() - 1;
+        marks.add(last < 0 || marks.get(last).index < index ? last + 1 : findMark(index), position.mark);
+        return position;
+    }
+
+    /**
+     * Copies the characters of the added buffer that pieces still refer to
+     * into a new, smaller buffer, if they are less than half of it. Removed
+     * text otherwise stays in the append-only buffer for good, e.g. the lines
+     * a followed file drops from its head ('FileFollower'). Like growing it,
+     * this leaves the old buffer untouched for fragments and snapshots.
+     */
+    void compact() {
+        int inUse = 0;
+        for (Piece piece : pieces) {
+            if (piece.added) {
+                inUse += piece.length;
+            }
+        }
+        if (inUse * 2L > addedLength) {
+            return;
+        }
+        char[] compacted = new char[Math.max(1024, inUse + inUse / 2)];
+        int next = 0;
+        for (int i = 0; i < pieces.size(); i++) {
+            Piece piece = pieces.get(i);
+            if (piece.added) {
+                System.arraycopy(added, piece.start, compacted, next, piece.length);
+                pieces.set(i, new Piece(true, next, piece.length, piece.source, piece.sourceOffset,
+                        piece.sourceLength));
+                next += piece.length;
+            }
+        }
+        char[] dropped = added;
+        added = compacted;
+        addedLength = next;
+        for (EditRecorder recorder : recorders) {
+            recorder.bufferReplaced(dropped, null);
+        }
+    }
+
+    /**
+     * Appends text to the added buffer, growing it geometrically when needed.
+     * It grows by half its size rather than doubling: once a whole file was
+     * loaded into it, the first edit would otherwise briefly need three times
+     * the size of the file.
+     *
+     * @return The offset of the appended text inside the added buffer.
+     */
+    private int append(String str) {
+        int start = addedLength;
+        int required = addedLength + str.length();
+        if (required > added.length) {
+            char[] grown = new char[Math.max(required, added.length + (added.length >> 1))];
+            System.arraycopy(added, 0, grown, 0, addedLength);
+            for (EditRecorder recorder : recorders) {
+                recorder.bufferReplaced(added, grown);
+            }
+            added = grown;
+        }
+        str.getChars(0, str.length(), added, addedLength);
+        addedLength = required;
+        return start;
+    }
+
+    /**
+     * Returns the part of 'piece' starting 'from' characters into it and
+     * 'count' characters long. A slice of a clean piece stays clean, with its
+     * byte range worked out by measuring the encoded length of the shorter
+     * side of the cut.
+     */
+    private Piece slice(Piece piece, int from, int count) {
+        if (piece.source == null || piece.source != source || splitsSurrogate(piece, from)
+                || splitsSurrogate(piece, from + count)) {
+            return new Piece(piece.added, piece.start + from, count);
+        }
+        long before = bytesBefore(piece, from);
+        long upTo = from + count == piece.length ? piece.sourceLength : bytesBefore(piece, from + count);
+        return new Piece(piece.added, piece.start + from, count, piece.source, piece.sourceOffset + before,
+                upTo - before);
+    }
+
+    /**
+     * Returns true if cutting 'piece' at 'at' would separate a surrogate pair,
+     * whose bytes can't be attributed to either side.
+     */
+    private boolean splitsSurrogate(Piece piece, int at) {
+        char[] buffer = piece.added ? added : original;
+        return at > 0 && at < piece.length && Character.isHighSurrogate(buffer[piece.start + at - 1]);
+    }
+
+    /**
+     * Returns the number of bytes the first 'count' characters of a clean piece
+     * take in its source file.
+     */
+    private long bytesBefore(Piece piece, int count) {
+        if (count <= piece.length / 2) {
+            return encodedLength(piece, 0, count);
+        }
+        return piece.sourceLength - encodedLength(piece, count, piece.length - count);
+    }
+
+    /**
+     * Returns the number of bytes 'count' characters of a piece, starting at
+     * 'from', take once encoded with the source charset and line separator.
+     */
+    private long encodedLength(Piece piece, int from, int count) {
+        char[] buffer = piece.added ? added : original;
+        int start = piece.start + from, end = start + count;
+        long newlines = 0, bytes = 0;
+        boolean utf8 = StandardCharsets.UTF_8.equals(piece.source.charset);
+        for (int i = start; i < end; i++) {
+            char c = buffer[i];
+            if (c == '\n') {
+                newlines++;
+            }
+            if (utf8) {
+                bytes += c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isSurrogate(c) ? 2 : 3;
+            }
+        }
+        if (!utf8) {
+            if (lengthEncoder == null || !lengthEncoder.charset().equals(piece.source.charset)) {
+                lengthEncoder = piece.source.charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+            CharBuffer in = CharBuffer.wrap(buffer, start, count);
+            lengthEncoder.reset();
+            while (true) {
+                lengthBuffer.clear();
+                CoderResult result = lengthEncoder.encode(in, lengthBuffer, true);
+                bytes += lengthBuffer.position();
+                if (!result.isOverflow()) {
+                    break;
+                }
+            }
+            lengthBuffer.clear();
+            lengthEncoder.flush(lengthBuffer);
+            bytes += lengthBuffer.position();
+        }
+        return bytes + newlines * piece.source.extraBytesPerNewline;
+    }
+
+    /**
+     * Moves the virtual mark gap to 'offset', converting the indices of the
+     * marks lying between the old and the new gap location.
+     */
+    private void moveMarkGap(int offset) {
+        if (offset < markGapStart) {
+            // Marks in [offset, markGapStart) end up after the gap.
+            for (int i = findMark(offset); i < marks.size() && marks.get(i).index < markGapStart; i++) {
+                marks.get(i).index += markGapSize;
+            }
+        } else if (offset > markGapStart) {
+            // Marks in [markGapStart, offset) end up before the gap.
+            long limit = offset + markGapSize;
+            for (int i = findMark(markGapStart + markGapSize); i < marks.size()
+                    && marks.get(i).index < limit; i++) {
+                marks.get(i).index -= markGapSize;
+            }
+        }
+        markGapStart = offset;
+    }
+
+    /**
+     * Returns the list index of the first mark whose index is at least 'index',
+     * using a binary search over the sorted mark list.
+     */
+    private int findMark(long index) {
+        int low = 0, high = marks.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (marks.get(mid).index < index) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the piece holding 'where', leaving its list index in 'cachedIndex'
+     * and its document offset in 'cachedOffset'. Lookups moving forward (as
+     * painting and saving do) continue from the previous result.
+     */
+    private void locate(int where) {
+        if (where < cachedOffset) {
+            cachedIndex = cachedOffset = 0;
+        }
+        int last = pieces.size() - 1;
+        while (cachedIndex < last && cachedOffset + pieces.get(cachedIndex).length <= where) {
+            cachedOffset += pieces.get(cachedIndex).length;
+            cachedIndex++;
+        }
+    }
+
+    /**
+     * Drops the slots of marks that were garbage collected. Like 'GapContent',
+     * the list is only compacted once a tenth of it is stale, so the pass over
+     * all marks is amortized over many collected positions.
+     */
+    private void purgeStaleMarks() {
+        while (staleMarks.poll() != null) {
+            staleMarkCount++;
+        }
+        if (staleMarkCount > Math.max(5, marks.size() / 10)) {
+            marks.removeIf(mark -> mark.get() == null);
+            staleMarkCount = 0;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+import javax.swing.JTextArea;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener; // Re-lexes the edited lines.
+import javax.swing.plaf.basic.BasicTextAreaUI;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.PlainView; // Paints the lines of the text area, now in colour.
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+
+/**
+ * 'SyntaxHighlighter' colours the text of a 'JTextArea' according to the
+ * selected language mode, using a 'SyntaxLexer'.
+ *
+ * The text area keeps its plain document; instead its views are replaced (via
+ * its UI delegate) by views that draw every line token by token in the colour
+ * of the token. Only the lines being painted are lexed for their tokens, so
+ * the cost of painting doesn't grow with the document.
+ *
+ * The state each line starts in is kept in 'lineStates', but only for the
+ * lines up to the last one painted: lines further down are lexed when they
+ * are first scrolled into view. After an edit the lines are lexed again from
+ * the edited one onwards until a line ends in the state the next line already
+ * starts in; from there on nothing changed. A change that doesn't converge
+ * (opening a block comment) is followed only to the end of the visible
+ * region, and the states after it are dropped.
+ */
+class SyntaxHighlighter implements DocumentListener {
+
+    // Colour of each token kind, indexed by 'SyntaxLexer.PLAIN' ... 'SyntaxLexer.ENTITY'.
+    static final Color[] COLORS = { null, new Color(0x00, 0x00, 0xC0), new Color(0x80, 0x00, 0x80),
+            new Color(0x00, 0x80, 0x00), new Color(0x09, 0x86, 0x58), new Color(0x80, 0x80, 0x80),
+            new Color(0xA0, 0x50, 0x00), new Color(0x64, 0x64, 0x00), new Color(0x80, 0x00, 0x00),
+            new Color(0xC0, 0x40, 0x00), new Color(0x00, 0x60, 0x80) };
+
+    private final JTextArea textArea;
+    private final Document document;
+    private final Element root;
+
+    // The lexer of the current language mode, or null for plain text.
+    private SyntaxLexer lexer;
+
+    // The state each line starts in, known for the lines before 'validLines'.
+    private int[] lineStates = new int[1024];
+    private int validLines = 1;
+
+    // The tokens of line 'tokensLine', kept for the pieces of a line painted
+    // separately (around a selection); -1 after an edit.
+    private final SyntaxLexer.Tokens tokens = new SyntaxLexer.Tokens();
+    private int tokensLine = -1;
+
+    // Where the lines break into rows while they are wrapped.
+    private final WrapLayout wrapLayout;
+
+    // Reused to read the lines.
+    private final Segment lineText = new Segment();
+    private final Segment paintText = new Segment();
+    private final Segment piece = new Segment();
+
+    /**
+     * Creates the highlighter of 'textArea' and installs the views painting
+     * its text. The highlighter must be added to the document as a listener
+     * to follow the edits.
+     */
+    SyntaxHighlighter(JTextArea textArea) {
+        this.textArea = textArea;
+        this.document = textArea.getDocument();
+        this.root = document.getDefaultRootElement();
+        this.wrapLayout = new WrapLayout(document);
+        textArea.setUI(new TextAreaUI());
+    }
+
+    /**
+     * Switches to the language mode 'fileFormat' ("java", "c", "cpp", "html";
+     * anything else is plain text) and repaints the text.
+     */
+    void setLanguage(String fileFormat) {
+        lexer = SyntaxLexer.forLanguage(fileFormat);
+        validLines = 1;
+        tokensLine = -1;
+        textArea.repaint();
+    }
+
+    /**
+     * Returns the number of bytes held by the line states and the wrapped rows.
+     */
+    long getMemoryUsed() {
+        return 4L * lineStates.length + wrapLayout.getMemoryUsed();
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        // The rows must be right before the views are asked for positions below.
+        wrapLayout.edited(e);
+        update(e);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        wrapLayout.edited(e);
+        update(e);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Attribute changes don't change the text.
+    }
+
+    /**
+     * Moves the states of the lines after the edited ones, then lexes the
+     * edited lines again.
+     */
+    private void update(DocumentEvent e) {
+        tokensLine = -1;
+        DocumentEvent.ElementChange change = e.getChange(root);
+        int line = change != null ? change.getIndex() : root.getElementIndex(e.getOffset());
+        if (line >= validLines) {
+            // The edit is after the lines lexed so far.
+            return;
+        }
+        if (change != null) {
+            int removed = change.getChildrenRemoved().length, added = change.getChildrenAdded().length;
+            if (validLines > line + removed) {
+                ensureCapacity(validLines + added - removed);
+                System.arraycopy(lineStates, line + removed, lineStates, line + added,
+                        validLines - line - removed);
+                validLines += added - removed;
+                // The new lines are lexed below; their states are not known yet.
+                Arrays.fill(lineStates, line + 1, line + added, -1);
+            } else {
+                validLines = line + 1;
+            }
+        }
+        if (lexer == null) {
+            validLines = 1;
+            return;
+        }
+        int lastVisible = lastVisibleLine();
+        int i = line;
+        while (i + 1 < validLines) {
+            int next = lex(i, null);
+            if (lineStates[i + 1] == next) {
+                break;
+            }
+            lineStates[++i] = next;
+            if (i > lastVisible) {
+                // Lines further down are lexed again when they are painted.
+                validLines = i + 1;
+                break;
+            }
+        }
+        if (i > line) {
+            repaintFrom(line);
+        }
+    }
+
+    // The last line inside the visible region of the text area.
+    private int lastVisibleLine() {
+        Rectangle visible = textArea.getVisibleRect();
+        int offset = textArea.viewToModel2D(new Point(visible.x, visible.y + visible.height));
+        return root.getElementIndex(Math.max(offset, 0));
+    }
+
+    // Repaints the visible region from the start of 'line' down.
+    private void repaintFrom(int line) {
+        try {
+            Rectangle2D from = textArea.modelToView2D(root.getElement(line).getStartOffset());
+            Rectangle visible = textArea.getVisibleRect();
+            if (from != null) {
+                int y = (int) from.getY();
+                textArea.repaint(visible.x, y, visible.width, visible.y + visible.height - y);
+            }
+        } catch (BadLocationException e) {
+            // The line is part of the document.
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the state 'line' starts in, lexing the lines before it that
+     * weren't lexed yet.
+     */
+    private int stateOf(int line) {
+        ensureCapacity(line + 1);
+        while (validLines <= line) {
+            lineStates[validLines] = lex(validLines - 1, null);
+            validLines++;
+        }
+        return lineStates[line];
+    }
+
+    /**
+     * Lexes 'line' from its start state and returns the state it ends in.
+     */
+    private int lex(int line, SyntaxLexer.Tokens into) {
+        Element element = root.getElement(line);
+        int start = element.getStartOffset();
+        // The line break isn't lexed.
+        int end = element.getEndOffset() - 1;
+        try {
+            document.getText(start, end - start, lineText);
+        } catch (BadLocationException e) {
+            // The line is part of the document.
+            e.printStackTrace();
+            return SyntaxLexer.INITIAL;
+        }
+        return lexer.lex(lineText.array, lineText.offset, lineText.offset + lineText.count, lineStates[line],
+                into);
+    }
+
+    private void ensureCapacity(int lines) {
+        if (lineStates.length < lines) {
+            lineStates = Arrays.copyOf(lineStates, Math.max(lines, lineStates.length * 2));
+        }
+    }
+
+    /**
+     * Draws the text between 'p0' and 'p1' (part of one line) token by token
+     * and returns the x position after it.
+     */
+    private float drawTokens(View view, Graphics2D g, float x, float y, int p0, int p1)
+            throws BadLocationException {
+        int line = root.getElementIndex(p0);
+        if (line != tokensLine) {
+            stateOf(line);
+            lex(line, tokens);
+            tokensLine = line;
+        }
+        int lineStart = root.getElement(line).getStartOffset();
+        document.getText(p0, p1 - p0, paintText);
+        Color plain = textArea.isEnabled() ? textArea.getForeground() : textArea.getDisabledTextColor();
+        int position = p0;
+        for (int k = 0; k < tokens.count && position < p1; k++) {
+            int start = lineStart + tokens.starts[k], end = Math.min(start + tokens.lengths[k], p1);
+            if (end <= position) {
+                continue;
+            }
+            if (start >= p1) {
+                break;
+            }
+            if (start > position) {
+                x = drawPiece(view, g, x, y, p0, position, start, plain);
+                position = start;
+            }
+            x = drawPiece(view, g, x, y, p0, position, end, COLORS[tokens.kinds[k]]);
+            position = end;
+        }
+        return drawPiece(view, g, x, y, p0, position, p1, plain);
+    }
+
+    // Draws the characters between 'from' and 'to' of 'paintText' (which starts at 'p0').
+    private float drawPiece(View view, Graphics2D g, float x, float y, int p0, int from, int to, Color color) {
+        if (from >= to) {
+            return x;
+        }
+        piece.array = paintText.array;
+        piece.offset = paintText.offset + from - p0;
+        piece.count = to - from;
+        g.setColor(color);
+        return Utilities.drawTabbedText(piece, x, y, g, (TabExpander) view, from);
+    }
+
+    /**
+     * 'TextAreaUI' creates the highlighting views of the text area, wrapped or
+     * not, in place of 'PlainView' and 'WrappedPlainView'. The wrapped views
+     * share the rows cached by 'wrapLayout'.
+     */
+    final class TextAreaUI extends BasicTextAreaUI {
+        @Override
+        public View create(Element element) {
+            if (Boolean.TRUE.equals(element.getDocument().getProperty("i18n"))) {
+                // Bidirectional text keeps the standard views.
+                return super.create(element);
+            }
+            JTextArea area = (JTextArea) getComponent();
+            return area.getLineWrap() ? new WrappedLineView(element, area.getWrapStyleWord(), wrapLayout)
+                    : new LineView(element);
+        }
+    }
+
+    final class LineView extends PlainView {
+        LineView(Element element) {
+            super(element);
+        }
+
+        @Override
+        protected float drawUnselectedText(Graphics2D g, float x, float y, int p0, int p1)
+                throws BadLocationException {
+            return lexer == null ? super.drawUnselectedText(g, x, y, p0, p1) : drawTokens(this, g, x, y, p0, p1);
+        }
+    }
+
+    final class WrappedLineView extends WrappedTextView {
+        WrappedLineView(Element element, boolean wordWrap, WrapLayout wrapLayout) {
+            super(element, wordWrap, wrapLayout);
+        }
+
+        @Override
+        protected float drawUnselectedText(Graphics2D g, float x, float y, int p0, int p1)
+                throws BadLocationException {
+            return lexer == null ? super.drawUnselectedText(g, x, y, p0, p1) : drawTokens(this, g, x, y, p0, p1);
+        }
+    }
+}
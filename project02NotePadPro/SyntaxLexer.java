@@ -0,0 +1,428 @@
+import java.util.Arrays;
+
+/**
+ * 'SyntaxLexer' splits one line of source code into tokens for the syntax
+ * highlighting of the Java, C, C++ and HTML language modes.
+ *
+ * The lexer is restartable: it lexes a single line starting in the state the
+ * previous line ended in (plain code, inside a block comment, inside an HTML
+ * tag, ...) and returns the state the line ends in. 'SyntaxHighlighter' keeps
+ * these states per line, so an edit only needs the lines from the edited one
+ * onwards to be lexed again, until a line ends in its previous state.
+ *
+ * Lexing never allocates: tokens are written into a reused 'Tokens' and
+ * keywords are compared in place.
+ */
+abstract class SyntaxLexer {
+
+    // Token kinds, used as index into 'SyntaxHighlighter.COLORS'.
+    static final byte PLAIN = 0, KEYWORD = 1, TYPE = 2, STRING = 3, NUMBER = 4, COMMENT = 5,
+            PREPROCESSOR = 6, ANNOTATION = 7, TAG = 8, ATTRIBUTE = 9, ENTITY = 10;
+
+    // Line states. Every line of a document starts in 'INITIAL'.
+    static final int INITIAL = 0, BLOCK_COMMENT = 1, TEXT_BLOCK = 2, PREPROCESSOR_LINE = 3,
+            HTML_COMMENT = 4, HTML_TAG = 5, HTML_DOUBLE_QUOTED = 6, HTML_SINGLE_QUOTED = 7;
+
+    /**
+     * 'Tokens' holds the tokens of one line: their start (relative to the
+     * start of the line), length and kind. Text between tokens is plain.
+     */
+    static final class Tokens {
+        int[] starts = new int[32];
+        int[] lengths = new int[32];
+        byte[] kinds = new byte[32];
+        int count;
+
+        void add(int start, int length, byte kind) {
+            if (length <= 0) {
+                return;
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+                kinds = Arrays.copyOf(kinds, count * 2);
+            }
+            starts[count] = start;
+            lengths[count] = length;
+            kinds[count] = kind;
+            count++;
+        }
+    }
+
+    // Offset of the line being lexed and the tokens collected, or null when
+    // only the end state is wanted.
+    private int lineStart;
+    private Tokens tokens;
+
+    /**
+     * Returns the lexer of a language mode ("java", "c", "cpp" or "html"),
+     * or null for plain text.
+     */
+    static SyntaxLexer forLanguage(String fileFormat) {
+        switch (fileFormat) {
+        case "java":
+            return new CLikeLexer(JAVA_KEYWORDS, JAVA_TYPES, true);
+        case "c":
+            return new CLikeLexer(C_KEYWORDS, C_TYPES, false);
+        case "cpp":
+            return new CLikeLexer(CPP_KEYWORDS, CPP_TYPES, false);
+        case "html":
+            return new HtmlLexer();
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Returns the language mode of a file, judged by its extension.
+     */
+    static String languageOf(String fileName) {
+        String extension = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase();
+        switch (extension) {
+        case "java":
+            return "java";
+        case "c":
+        case "h":
+            return "c";
+        case "cpp":
+        case "cc":
+        case "cxx":
+        case "hpp":
+        case "hh":
+            return "cpp";
+        case "html":
+        case "htm":
+        case "xml":
+            return "html";
+        default:
+            return "txt";
+        }
+    }
+
+    /**
+     * Lexes the line 'text[start, end)' starting in 'state'.
+     *
+     * @param tokens Receives the tokens of the line; may be null.
+     * @return The state the line ends in.
+     */
+    final int lex(char[] text, int start, int end, int state, Tokens tokens) {
+        this.lineStart = start;
+        this.tokens = tokens;
+        if (tokens != null) {
+            tokens.count = 0;
+        }
+        return scan(text, start, end, state);
+    }
+
+    abstract int scan(char[] text, int start, int end, int state);
+
+    final void token(int from, int to, byte kind) {
+        if (tokens != null && kind != PLAIN) {
+            tokens.add(from - lineStart, to - from, kind);
+        }
+    }
+
+    // Returns the index of 'pattern' in 'text[from, end)', or -1.
+    static int indexOf(char[] text, int from, int end, String pattern) {
+        char first = pattern.charAt(0);
+        outer: for (int i = from; i <= end - pattern.length(); i++) {
+            if (text[i] != first) {
+                continue;
+            }
+            for (int k = 1; k < pattern.length(); k++) {
+                if (text[i + k] != pattern.charAt(k)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 'Keywords' looks up identifiers without creating strings: the words are
+     * grouped by their first character.
+     */
+    static final class Keywords {
+        private final char[][][] byFirst = new char[128][][];
+        private final byte kind;
+
+        Keywords(byte kind, String... words) {
+            this.kind = kind;
+            for (String word : words) {
+                char first = word.charAt(0);
+                char[][] group = byFirst[first] == null ? new char[1][] : Arrays.copyOf(byFirst[first],
+                        byFirst[first].length + 1);
+                group[group.length - 1] = word.toCharArray();
+                byFirst[first] = group;
+            }
+        }
+
+        // Returns the kind of 'text[from, to)', or 'PLAIN' if it is none of the words.
+        byte kindOf(char[] text, int from, int to) {
+            char first = text[from];
+            if (first >= 128 || byFirst[first] == null) {
+                return PLAIN;
+            }
+            for (char[] word : byFirst[first]) {
+                if (word.length == to - from && Arrays.equals(word, 0, word.length, text, from, to)) {
+                    return kind;
+                }
+            }
+            return PLAIN;
+        }
+    }
+
+    static final Keywords JAVA_KEYWORDS = new Keywords(KEYWORD, "abstract", "assert", "break", "case", "catch",
+            "class", "const", "continue", "default", "do", "else", "enum", "extends", "final", "finally", "for",
+            "goto", "if", "implements", "import", "instanceof", "interface", "native", "new", "package",
+            "private", "protected", "public", "return", "static", "strictfp", "super", "switch", "synchronized",
+            "this", "throw", "throws", "transient", "try", "volatile", "while", "true", "false", "null", "var",
+            "record", "yield", "sealed", "permits");
+    static final Keywords JAVA_TYPES = new Keywords(TYPE, "boolean", "byte", "char", "double", "float", "int",
+            "long", "short", "void", "String", "Object");
+
+    static final Keywords C_KEYWORDS = new Keywords(KEYWORD, "auto", "break", "case", "const", "continue",
+            "default", "do", "else", "enum", "extern", "for", "goto", "if", "inline", "register", "restrict",
+            "return", "sizeof", "static", "struct", "switch", "typedef", "union", "volatile", "while", "NULL");
+    static final Keywords C_TYPES = new Keywords(TYPE, "char", "double", "float", "int", "long", "short",
+            "signed", "unsigned", "void", "size_t", "FILE", "bool");
+
+    static final Keywords CPP_KEYWORDS = new Keywords(KEYWORD, "alignas", "alignof", "auto", "break", "case",
+            "catch", "class", "const", "constexpr", "const_cast", "continue", "decltype", "default", "delete",
+            "do", "dynamic_cast", "else", "enum", "explicit", "export", "extern", "false", "for", "friend",
+            "goto", "if", "inline", "mutable", "namespace", "new", "noexcept", "nullptr", "operator", "override",
+            "private", "protected", "public", "register", "reinterpret_cast", "return", "sizeof", "static",
+            "static_assert", "static_cast", "struct", "switch", "template", "this", "throw", "true", "try",
+            "typedef", "typeid", "typename", "union", "using", "virtual", "volatile", "while", "NULL");
+    static final Keywords CPP_TYPES = new Keywords(TYPE, "bool", "char", "double", "float", "int", "long",
+            "short", "signed", "unsigned", "void", "wchar_t", "size_t", "string", "std");
+
+    /**
+     * 'CLikeLexer' lexes Java, C and C++: comments, string and character
+     * literals, numbers, keywords, and either annotations and text blocks
+     * (Java) or preprocessor lines (C, C++).
+     */
+    static final class CLikeLexer extends SyntaxLexer {
+        private final Keywords keywords, types;
+        private final boolean java;
+
+        CLikeLexer(Keywords keywords, Keywords types, boolean java) {
+            this.keywords = keywords;
+            this.types = types;
+            this.java = java;
+        }
+
+        @Override
+        int scan(char[] text, int start, int end, int state) {
+            int i = start;
+            if (state == BLOCK_COMMENT) {
+                int close = indexOf(text, i, end, "*/");
+                if (close < 0) {
+                    token(i, end, COMMENT);
+                    return BLOCK_COMMENT;
+                }
+                token(i, close + 2, COMMENT);
+                i = close + 2;
+            } else if (state == TEXT_BLOCK) {
+                int close = closingTextBlock(text, i, end);
+                if (close < 0) {
+                    token(i, end, STRING);
+                    return TEXT_BLOCK;
+                }
+                token(i, close, STRING);
+                i = close;
+            } else if (state == PREPROCESSOR_LINE) {
+                token(i, end, PREPROCESSOR);
+                return continued(text, start, end) ? PREPROCESSOR_LINE : INITIAL;
+            }
+            boolean lineStart = true;
+            while (i < end) {
+                char c = text[i];
+                char next = i + 1 < end ? text[i + 1] : 0;
+                if (c == '/' && next == '/') {
+                    token(i, end, COMMENT);
+                    return INITIAL;
+                } else if (c == '/' && next == '*') {
+                    int close = indexOf(text, i + 2, end, "*/");
+                    if (close < 0) {
+                        token(i, end, COMMENT);
+                        return BLOCK_COMMENT;
+                    }
+                    token(i, close + 2, COMMENT);
+                    i = close + 2;
+                } else if (java && c == '"' && next == '"' && i + 2 < end && text[i + 2] == '"') {
+                    int close = closingTextBlock(text, i + 3, end);
+                    if (close < 0) {
+                        token(i, end, STRING);
+                        return TEXT_BLOCK;
+                    }
+                    token(i, close, STRING);
+                    i = close;
+                } else if (c == '"' || c == '\'') {
+                    int j = i + 1;
+                    while (j < end && text[j] != c) {
+                        j += text[j] == '\\' ? 2 : 1;
+                    }
+                    j = Math.min(j + 1, end);
+                    token(i, j, STRING);
+                    i = j;
+                } else if (!java && c == '#' && lineStart) {
+                    token(i, end, PREPROCESSOR);
+                    return continued(text, start, end) ? PREPROCESSOR_LINE : INITIAL;
+                } else if (java && c == '@' && Character.isJavaIdentifierStart(next)) {
+                    int j = i + 1;
+                    while (j < end && (Character.isJavaIdentifierPart(text[j]) || text[j] == '.')) {
+                        j++;
+                    }
+                    token(i, j, ANNOTATION);
+                    i = j;
+                } else if (Character.isJavaIdentifierStart(c)) {
+                    int j = i + 1;
+                    while (j < end && Character.isJavaIdentifierPart(text[j])) {
+                        j++;
+                    }
+                    byte kind = keywords.kindOf(text, i, j);
+                    token(i, j, kind != PLAIN ? kind : types.kindOf(text, i, j));
+                    i = j;
+                } else if (Character.isDigit(c) || (c == '.' && Character.isDigit(next))) {
+                    int j = i + 1;
+                    while (j < end && (Character.isLetterOrDigit(text[j]) || text[j] == '.' || text[j] == '_'
+                            || (text[j] == '\'' && !java))) {
+                        j++;
+                    }
+                    token(i, j, NUMBER);
+                    i = j;
+                } else {
+                    i++;
+                }
+                lineStart &= Character.isWhitespace(c);
+            }
+            return INITIAL;
+        }
+
+        // Returns the offset after the """ closing a text block, or -1.
+        private static int closingTextBlock(char[] text, int from, int end) {
+            for (int i = from; i < end; i++) {
+                if (text[i] == '\\') {
+                    i++;
+                } else if (text[i] == '"' && i + 2 < end && text[i + 1] == '"' && text[i + 2] == '"') {
+                    return i + 3;
+                }
+            }
+            return -1;
+        }
+
+        // True if a preprocessor line is continued on the next line.
+        private static boolean continued(char[] text, int start, int end) {
+            int last = end - 1;
+            while (last >= start && (text[last] == '\r' || text[last] == ' ')) {
+                last--;
+            }
+            return last >= start && text[last] == '\\';
+        }
+    }
+
+    /**
+     * 'HtmlLexer' lexes HTML (and XML): tags with their attributes and quoted
+     * values, comments and character entities. A tag, a value and a comment
+     * may span several lines.
+     */
+    static final class HtmlLexer extends SyntaxLexer {
+
+        @Override
+        int scan(char[] text, int start, int end, int state) {
+            int i = start;
+            while (i < end) {
+                switch (state) {
+                case HTML_COMMENT: {
+                    int close = indexOf(text, i, end, "-->");
+                    if (close < 0) {
+                        token(i, end, COMMENT);
+                        return HTML_COMMENT;
+                    }
+                    token(i, close + 3, COMMENT);
+                    i = close + 3;
+                    state = INITIAL;
+                    break;
+                }
+                case HTML_DOUBLE_QUOTED:
+                case HTML_SINGLE_QUOTED: {
+                    char quote = state == HTML_DOUBLE_QUOTED ? '"' : '\'';
+                    int j = i;
+                    while (j < end && text[j] != quote) {
+                        j++;
+                    }
+                    if (j == end) {
+                        token(i, end, STRING);
+                        return state;
+                    }
+                    token(i, j + 1, STRING);
+                    i = j + 1;
+                    state = HTML_TAG;
+                    break;
+                }
+                case HTML_TAG: {
+                    char c = text[i];
+                    if (c == '>' || (c == '/' && i + 1 < end && text[i + 1] == '>')) {
+                        int j = c == '>' ? i + 1 : i + 2;
+                        token(i, j, TAG);
+                        i = j;
+                        state = INITIAL;
+                    } else if (c == '"' || c == '\'') {
+                        token(i, i + 1, STRING);
+                        i++;
+                        state = c == '"' ? HTML_DOUBLE_QUOTED : HTML_SINGLE_QUOTED;
+                    } else if (isNameChar(c)) {
+                        int j = i + 1;
+                        while (j < end && isNameChar(text[j])) {
+                            j++;
+                        }
+                        token(i, j, ATTRIBUTE);
+                        i = j;
+                    } else {
+                        i++;
+                    }
+                    break;
+                }
+                default: {
+                    char c = text[i];
+                    if (c == '<' && indexOf(text, i, Math.min(end, i + 4), "<!--") == i) {
+                        state = HTML_COMMENT;
+                        token(i, i + 4, COMMENT);
+                        i += 4;
+                    } else if (c == '<' && i + 1 < end
+                            && (Character.isLetter(text[i + 1]) || text[i + 1] == '/' || text[i + 1] == '!'
+                                    || text[i + 1] == '?')) {
+                        int j = i + 2;
+                        while (j < end && isNameChar(text[j])) {
+                            j++;
+                        }
+                        token(i, j, TAG);
+                        i = j;
+                        state = HTML_TAG;
+                    } else if (c == '&') {
+                        int j = i + 1;
+                        while (j < end && j - i < 12 && (Character.isLetterOrDigit(text[j]) || text[j] == '#')) {
+                            j++;
+                        }
+                        if (j < end && text[j] == ';') {
+                            token(i, j + 1, ENTITY);
+                            i = j + 1;
+                        } else {
+                            i++;
+                        }
+                    } else {
+                        i++;
+                    }
+                }
+                }
+            }
+            return state;
+        }
+
+        private static boolean isNameChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == ':' || c == '.';
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.BufferedReader;
+import java.io.IOException; // Handles input/output exceptions.
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService; // Notices templates edited while the editor runs.
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 'TemplateRegistry' holds the boilerplate code of every language mode, read
+ * from the "*BoilerPlateCode.txt" files once and compiled into a
+ * 'BoilerplateTemplate', so selecting a language in the 'language' menu costs
+ * no disk access and no parsing.
+ *
+ * Templates are read from 'TEMPLATE_DIRECTORY' (the working directory unless
+ * -Dnotepadpro.templates=<dir> is given). Languages without a file there are
+ * looked up as resources on the class path. A daemon thread watches the
+ * directory with a 'WatchService' and reloads a template when its file is
+ * created, changed or deleted. The templates are read with "\n" line breaks
+ * and rendered into a string that goes into a document in one operation.
+ */
+final class TemplateRegistry {
+
+    // The directory the template files are read from and watched in.
+    static final Path TEMPLATE_DIRECTORY = Paths.get(System.getProperty("notepadpro.templates", "."));
+
+    // Suffix of a template file; the language mode comes before it ("java", "cpp", ...).
+    static final String SUFFIX = "BoilerPlateCode.txt";
+
+    // The language modes looked up on the class path when no file is found.
+    private static final String[] BUILT_IN = { "java", "c", "cpp", "html" };
+
+    // The templates by language mode.
+    private static final Map<String, BoilerplateTemplate> TEMPLATES = new ConcurrentHashMap<>();
+
+    private static boolean loaded;
+
+    private TemplateRegistry() {
+    }
+
+    /**
+     * Reads every template and starts watching the template directory. Only
+     * the first call does anything.
+     */
+    static synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        for (String fileFormat : BUILT_IN) {
+            reload(fileFormat);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(TEMPLATE_DIRECTORY, "*" + SUFFIX)) {
+            for (Path file : files) {
+                reload(fileFormatOf(file));
+            }
+        } catch (IOException e) {
+            // Without a template directory only the class path templates are available.
+        }
+        watch();
+    }
+
+    /**
+     * Returns the template of the language mode 'fileFormat', or null if
+     * there is none.
+     */
+    static BoilerplateTemplate get(String fileFormat) {
+        load();
+        return TEMPLATES.get(fileFormat);
+    }
+
+    /**
+     * Reads the template of 'fileFormat' again, from its file or else from
+     * the class path.
+     */
+    private static void reload(String fileFormat) {
+        String template = null;
+        Path file = TEMPLATE_DIRECTORY.resolve(fileFormat + SUFFIX);
+        if (Files.isRegularFile(file)) {
+            try (Reader reader = Files.newBufferedReader(file, Charset.defaultCharset())) {
+                template = read(reader);
+            } catch (IOException e) {
+                // An unreadable file is treated as missing.
+            }
+        }
+        if (template == null) {
+            InputStream resource = TemplateRegistry.class.getResourceAsStream("/" + fileFormat + SUFFIX);
+            if (resource != null) {
+                try (Reader reader = new InputStreamReader(resource, Charset.defaultCharset())) {
+                    template = read(reader);
+                } catch (IOException e) {
+                    // A broken resource is treated as missing.
+                }
+            }
+        }
+        if (template != null) {
+            TEMPLATES.put(fileFormat, BoilerplateTemplate.compile(template));
+        } else {
+            TEMPLATES.remove(fileFormat);
+        }
+    }
+
+    // Reads a template, ending every line with "\n".
+    private static String read(Reader reader) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        StringBuilder template = new StringBuilder();
+        String line;
+        while ((line = lines.readLine()) != null) {
+            template.append(line).append('\n');
+        }
+        return template.toString();
+    }
+
+    private static String fileFormatOf(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.length() - SUFFIX.length());
+    }
+
+    /**
+     * Starts the daemon thread reloading the templates changed on disk.
+     */
+    private static void watch() {
+        WatchService watcher;
+        try {
+            watcher = TEMPLATE_DIRECTORY.getFileSystem().newWatchService();
+            TEMPLATE_DIRECTORY.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException | UnsupportedOperationException e) {
+            // The templates simply aren't refreshed.
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watcher.take();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // Events were lost: reload every template known.
+                            TEMPLATES.keySet().forEach(TemplateRegistry::reload);
+                            continue;
+                        }
+                        Object context = event.context();
+                        if (context instanceof Path && context.toString().endsWith(SUFFIX)) {
+                            reload(fileFormatOf((Path) context));
+                        }
+                    }
+                    if (!key.reset()) {
+                        // The directory is gone.
+                        return;
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // The editor is shutting down.
+            }
+        }, "NotepadPro-templates");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,422 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue; // Tells which input event caused an edit.
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.JTextComponent;
+
+/**
+ * 'UndoHistory' is the undo/redo history of a text component whose document
+ * is stored in a 'PieceTableContent'.
+ *
+ * Instead of keeping Swing's 'UndoableEdit' objects (a document event with its
+ * element changes and a copy of the text for every edit), the history is
+ * recorded straight from the content: each step holds compact records of
+ * offset, length and the affected text as fragments of the piece table's
+ * buffers. Removing text, even all of a huge file, therefore never copies it.
+ * When the content replaces its added buffer, the fragments are moved to the
+ * grown buffer, or copied out of a dropped one, so the history never keeps a
+ * whole old buffer alive for a few characters of it, and its estimated cost
+ * holds.
+ *
+ * Consecutive keystrokes are merged into one step, as are all edits caused by
+ * the same input event (typing over a selection) and edits made between
+ * 'beginCompound' and 'endCompound'. The estimated memory held by the history
+ * is capped; when it is exceeded the oldest steps are dropped first.
+ */
+class UndoHistory implements PieceTableContent.EditRecorder {
+
+    // Default memory cap of the history; can be changed with -Dnotepadpro.undo.limit=<bytes>.
+    static final long DEFAULT_MEMORY_LIMIT = Long.getLong("notepadpro.undo.limit", 64L << 20);
+
+    // Keystrokes further apart than this start a new step.
+    static final long COALESCE_MILLIS = 1000;
+
+    // Estimated size of a record and of a fragment object, besides the characters.
+    private static final int RECORD_OVERHEAD = 40, FRAGMENT_OVERHEAD = 32;
+
+    /**
+     * 'Record' is one insert or remove of a step.
+     */
+    static final class Record {
+        final boolean insert;
+        int offset;
+        int length;
+        final ArrayList<PieceTableContent.Fragment> text;
+
+        Record(boolean insert, int offset, List<PieceTableContent.Fragment> text) {
+            this.insert = insert;
+            this.offset = offset;
+            this.text = new ArrayList<>(text);
+            for (PieceTableContent.Fragment fragment : text) {
+                length += fragment.length;
+            }
+        }
+
+        long cost() {
+            return RECORD_OVERHEAD + (long) text.size() * FRAGMENT_OVERHEAD + 2L * length;
+        }
+
+        // The characters of the record, copied only when they are put back into the document.
+        String string() {
+            StringBuilder string = new StringBuilder(length);
+            for (PieceTableContent.Fragment fragment : text) {
+                string.append(fragment.buffer, fragment.start, fragment.length);
+            }
+            return string.toString();
+        }
+
+        char lastChar() {
+            PieceTableContent.Fragment last = text.get(text.size() - 1);
+            return last.buffer[last.start + last.length - 1];
+        }
+    }
+
+    /**
+     * 'Step' is what one undo or redo reverts: the records in the order they
+     * were made.
+     */
+    static final class Step {
+        final ArrayList<Record> records = new ArrayList<>(1);
+        long cost;
+
+        // The input event and time of the last record, used to merge keystrokes.
+        AWTEvent event;
+        long time;
+
+        void add(Record record) {
+            records.add(record);
+            cost += record.cost();
+        }
+    }
+
+    private final JTextComponent textComponent;
+    private final Document document;
+
+    private final ArrayDeque<Step> undoSteps = new ArrayDeque<>();
+    private final ArrayDeque<Step> redoSteps = new ArrayDeque<>();
+    private long memoryUsed;
+    private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+
+    // The newest step while later edits may still be merged into it, else null.
+    private Step openStep;
+
+    // Nesting depth of 'beginCompound'.
+    private int compoundDepth;
+
+    // Collects the records made while a step is undone or redone.
+    private Step replayed;
+
+    private boolean recording = true;
+
+    /**
+     * Creates the history of 'textComponent' and starts recording the edits of
+     * its content.
+     *
+     * @param textComponent The component whose document is undone and redone.
+     * @param content       The content of that document.
+     */
+    UndoHistory(JTextComponent textComponent, PieceTableContent content) {
+        this.textComponent = textComponent;
+        this.document = textComponent.getDocument();
+        content.addRecorder(this);
+    }
+
+    /**
+     * Stops or resumes recording (e.g. while a file is loaded).
+     */
+    void setRecording(boolean recording) {
+        this.recording = recording;
+    }
+
+    /**
+     * Sets the estimated number of bytes the history may hold.
+     */
+    void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+        trim();
+    }
+
+    long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    boolean canUndo() {
+        return !undoSteps.isEmpty();
+    }
+
+    boolean canRedo() {
+        return !redoSteps.isEmpty();
+    }
+
+    /**
+     * Forgets every step, e.g. when another file is opened.
+     */
+    void discardAllEdits() {
+        undoSteps.clear();
+        redoSteps.clear();
+        memoryUsed = 0;
+        openStep = null;
+    }
+
+    /**
+     * Starts a compound edit: everything until the matching 'endCompound' is
+     * undone as one step.
+     */
+    void beginCompound() {
+        if (compoundDepth++ == 0) {
+            openStep = null;
+        }
+    }
+
+    void endCompound() {
+        if (--compoundDepth == 0) {
+            openStep = null;
+        }
+    }
+
+    @Override
+    public void inserted(int where, PieceTableContent.Fragment text) {
+        if (!recording) {
+            return;
+        }
+        if (replayed != null) {
+            replayed.add(new Record(true, where, List.of(text)));
+            return;
+        }
+        Step step = stepFor(true, where, text.length);
+        if (step != null && isTyping(step)) {
+            // Typing on: extend the previous record, in place when the characters are adjacent.
+            Record last = step.records.get(0);
+            long before = last.cost();
+            PieceTableContent.Fragment previous = last.text.get(last.text.size() - 1);
+            if (previous.buffer == text.buffer && previous.start + previous.length == text.start) {
+                last.text.set(last.text.size() - 1,
+                        new PieceTableContent.Fragment(text.buffer, previous.start, previous.length + text.length));
+            } else {
+                last.text.add(text);
+            }
+            last.length += text.length;
+            grown(step, last.cost() - before);
+            return;
+        }
+        record(step, new Record(true, where, List.of(text)));
+    }
+
+    @Override
+    public void removed(int where, List<PieceTableContent.Fragment> text) {
+        if (!recording) {
+            return;
+        }
+        if (replayed != null) {
+            replayed.add(new Record(false, where, text));
+            return;
+        }
+        int length = 0;
+        for (PieceTableContent.Fragment fragment : text) {
+            length += fragment.length;
+        }
+        Step step = stepFor(false, where, length);
+        if (step != null && isTyping(step)) {
+            // Backspace prepends the removed characters, delete appends them.
+            Record last = step.records.get(0);
+            long before = last.cost();
+            if (where == last.offset) {
+                last.text.addAll(text);
+            } else {
+                last.text.addAll(0, text);
+                last.offset = where;
+            }
+            last.length += length;
+            grown(step, last.cost() - before);
+            return;
+        }
+        record(step, new Record(false, where, text));
+    }
+
+    /**
+     * Returns the step a new record may be merged into, or null if it must
+     * start a new step: edits of a compound, edits caused by the same input
+     * event, and single-character typing go together.
+     */
+    private Step stepFor(boolean insert, int where, int length) {
+        Step step = openStep;
+        if (step == null || undoSteps.peekLast() != step) {
+            return null;
+        }
+        if (compoundDepth > 0) {
+            return step;
+        }
+        AWTEvent event = EventQueue.getCurrentEvent();
+        if (event != null && event == step.event) {
+            return step;
+        }
+        boolean keystroke = length == 1 && System.currentTimeMillis() - step.time <= COALESCE_MILLIS;
+        Record last = step.records.get(step.records.size() - 1);
+        if (!keystroke || last.insert != insert || step.records.size() != 1) {
+            return null;
+        }
+        if (insert) {
+            // A new line ends the typed step.
+            return where == last.offset + last.length && last.lastChar() != '\n' ? step : null;
+        }
+        return where + length == last.offset || where == last.offset ? step : null;
+    }
+
+    // True if the step returned by 'stepFor' is merged with as a keystroke.
+    private boolean isTyping(Step step) {
+        AWTEvent event = EventQueue.getCurrentEvent();
+        return compoundDepth == 0 && (event == null || event != step.event);
+    }
+
+    // Accounts for a record of 'step' that grew by 'cost' bytes.
+    private void grown(Step step, long cost) {
+        step.cost += cost;
+        memoryUsed += cost;
+        touched(step);
+        trim();
+    }
+
+    /**
+     * Adds a record to 'step', or to a new step if 'step' is null. Any redo
+     * steps are dropped, since the document now took another course.
+     */
+    private void record(Step step, Record record) {
+        if (!redoSteps.isEmpty()) {
+            for (Step redo : redoSteps) {
+                memoryUsed -= redo.cost;
+            }
+            redoSteps.clear();
+        }
+        if (step == null) {
+            step = new Step();
+            undoSteps.addLast(step);
+            openStep = step;
+        }
+        step.add(record);
+        memoryUsed += record.cost();
+        touched(step);
+        trim();
+    }
+
+    private void touched(Step step) {
+        step.event = EventQueue.getCurrentEvent();
+        step.time = System.currentTimeMillis();
+    }
+
+    /**
+     * Reverts the newest step. Does nothing while the history isn't recording
+     * or the text component isn't editable (a file is loaded or followed).
+     */
+    void undo() {
+        if (!recording || !textComponent.isEditable()) {
+            return;
+        }
+        Step step = undoSteps.pollLast();
+        if (step == null) {
+            return;
+        }
+        memoryUsed -= step.cost;
+        redoSteps.addLast(revert(step));
+        trim();
+    }
+
+    /**
+     * Reapplies the newest undone step, under the same conditions as 'undo'.
+     */
+    void redo() {
+        if (!recording || !textComponent.isEditable()) {
+            return;
+        }
+        Step step = redoSteps.pollLast();
+        if (step == null) {
+            return;
+        }
+        memoryUsed -= step.cost;
+        undoSteps.addLast(revert(step));
+        trim();
+    }
+
+    /**
+     * Reverts the records of 'step', newest first, and returns the step
+     * recorded while doing so, which reverts them again.
+     */
+    private Step revert(Step step) {
+        openStep = null;
+        replayed = new Step();
+        int caret = -1;
+        try {
+            for (int i = step.records.size() - 1; i >= 0; i--) {
+                Record record = step.records.get(i);
+                if (record.insert) {
+                    document.remove(record.offset, record.length);
+                    caret = record.offset;
+                } else {
+                    document.insertString(record.offset, record.string(), null);
+                    caret = record.offset + record.length;
+                }
+            }
+        } catch (BadLocationException e) {
+            // The records always describe the current document.
+            e.printStackTrace();
+        } finally {
+            Step inverse = replayed;
+            replayed = null;
+            memoryUsed += inverse.cost;
+            step = inverse;
+        }
+        if (caret >= 0) {
+            textComponent.setCaretPosition(Math.min(caret, document.getLength()));
+        }
+        return step;
+    }
+
+    @Override
+    public void bufferReplaced(char[] old, char[] grown) {
+        for (Step step : undoSteps) {
+            moveFragments(step, old, grown);
+        }
+        for (Step step : redoSteps) {
+            moveFragments(step, old, grown);
+        }
+        if (replayed != null) {
+            moveFragments(replayed, old, grown);
+        }
+    }
+
+    // Moves the fragments of 'step' in 'old' to 'grown', or copies them out of 'old' if it is null.
+    private static void moveFragments(Step step, char[] old, char[] grown) {
+        for (Record record : step.records) {
+            for (int i = 0; i < record.text.size(); i++) {
+                PieceTableContent.Fragment fragment = record.text.get(i);
+                if (fragment.buffer == old) {
+                    record.text.set(i, grown != null
+                            ? new PieceTableContent.Fragment(grown, fragment.start, fragment.length)
+                            : new PieceTableContent.Fragment(
+                                    Arrays.copyOfRange(old, fragment.start, fragment.start + fragment.length), 0,
+                                    fragment.length));
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the oldest steps while the history holds more than its memory
+     * limit. The newest step is always kept, so even an edit larger than the
+     * limit can be undone.
+     */
+    private void trim() {
+        while (memoryUsed > memoryLimit && undoSteps.size() + redoSteps.size() > 1) {
+            Step dropped = undoSteps.size() > 1 || redoSteps.isEmpty() ? undoSteps.pollFirst()
+                    : redoSteps.pollFirst();
+            if (dropped == openStep) {
+                openStep = null;
+            }
+            memoryUsed -= dropped.cost;
+        }
+    }
+}
@@ -0,0 +1,452 @@
+import java.awt.FontMetrics;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer; // Measures the paragraphs in short slices while the event thread is idle.
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+
+/**
+ * 'WrapLayout' caches where the paragraphs (lines) of a document break into
+ * rows when its text area wraps lines, for a 'WrappedTextView'.
+ *
+ * Swing's 'WrappedPlainView' measures every paragraph of the document again
+ * whenever the width or the font changes, which takes seconds for a large
+ * file. Here a 'Layout' is kept per width, font and wrap style, holding the
+ * number of rows of every paragraph and, for the paragraphs painted recently,
+ * their break positions. A new layout starts with estimated row counts (from
+ * the length of each paragraph); the paragraphs painted are measured right
+ * away and the rest in short slices on the event thread while it is idle.
+ * The row counts are summed per block of paragraphs, so finding the
+ * paragraph at a given row doesn't walk the whole document.
+ *
+ * An edit measures only the paragraphs it touched. Layouts for other widths
+ * or fonts are kept while the text doesn't change, so toggling word wrap or
+ * zooming back and forth reuses them; the first edit drops them.
+ */
+final class WrapLayout {
+
+    // Number of paragraphs whose rows are summed together.
+    static final int BLOCK = 256;
+
+    // Number of layouts (widths, fonts) kept while the text doesn't change.
+    static final int LAYOUTS = 4;
+
+    // Number of paragraphs per layout whose break positions are kept.
+    static final int CACHED_BREAKS = 4096;
+
+    // Paragraphs added by one edit that are measured at once; more are estimated.
+    static final int MEASURED_AT_ONCE = 64;
+
+    // Time the event thread spends measuring per idle slice.
+    static final long SLICE_NANOS = 8_000_000;
+
+    private final Document document;
+    private final Element root;
+
+    // The layouts, the one in use first.
+    private final ArrayList<Layout> layouts = new ArrayList<>();
+
+    // The last edit applied; the highlighter and the view both pass it on.
+    private DocumentEvent lastEvent;
+
+    // Told when row counts changed outside of an edit (measured estimates).
+    private Runnable rowsChangedListener;
+    private boolean rowsChangedPending;
+
+    private final Timer idleMeasuring = new Timer(0, e -> measureSlice());
+
+    // Reused to read the paragraphs.
+    private final Segment text = new Segment();
+    private final Segment row = new Segment();
+
+    /**
+     * 'Layout' is the wrapping of the document for one width, font and wrap
+     * style. A row count is negative while it is only an estimate.
+     */
+    final class Layout implements TabExpander {
+        final FontMetrics metrics;
+        final int width;
+        final boolean wordWrap;
+        final float tabSize;
+
+        private int[] rows;
+        private int count;
+        private int[] blockRows;
+
+        // The first row of every block, summed on demand: valid up to block 'startsValid'.
+        private int[] blockStarts;
+        private int startsValid;
+        private int totalRows;
+
+        // No paragraph before this one is estimated.
+        private int estimatedFrom;
+
+        // The break positions (row ends relative to the paragraph start) of
+        // the paragraphs with more than one row painted recently.
+        private final LinkedHashMap<Element, int[]> breaks = new LinkedHashMap<Element, int[]>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Element, int[]> eldest) {
+                return size() > CACHED_BREAKS;
+            }
+        };
+
+        Layout(FontMetrics metrics, int width, boolean wordWrap, float tabSize) {
+            this.metrics = metrics;
+            this.width = width;
+            this.wordWrap = wordWrap;
+            this.tabSize = tabSize;
+            count = root.getElementCount();
+            rows = new int[Math.max(count, 16)];
+            for (int i = 0; i < count; i++) {
+                rows[i] = estimate(root.getElement(i));
+            }
+            sumBlocks(0);
+        }
+
+        boolean matches(FontMetrics metrics, int width, boolean wordWrap, float tabSize) {
+            return this.metrics.getFont().equals(metrics.getFont()) && this.width == width
+                    && this.wordWrap == wordWrap && this.tabSize == tabSize;
+        }
+
+        // Tab stops are measured from the start of the row.
+        @Override
+        public float nextTabStop(float x, int tabOffset) {
+            if (tabSize == 0) {
+                return x;
+            }
+            return ((int) (x / tabSize) + 1) * tabSize;
+        }
+
+        int getTotalRows() {
+            return totalRows;
+        }
+
+        int getParagraphCount() {
+            return count;
+        }
+
+        /**
+         * Returns the row the paragraph starts in.
+         */
+        int rowOf(int paragraph) {
+            int block = paragraph / BLOCK, row = blockStart(block);
+            for (int i = block * BLOCK; i < paragraph; i++) {
+                row += Math.abs(rows[i]);
+            }
+            return row;
+        }
+
+        /**
+         * Returns the paragraph holding 'row'; the last one for rows past the end.
+         */
+        int paragraphAt(int row) {
+            if (row >= totalRows) {
+                return count - 1;
+            }
+            // The last block starting at or before 'row'.
+            int low = 0, high = (count - 1) / BLOCK;
+            blockStart(high);
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (blockStarts[mid] <= row) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            row -= blockStarts[low];
+            int i = low * BLOCK;
+            while (row >= Math.abs(rows[i])) {
+                row -= Math.abs(rows[i++]);
+            }
+            return i;
+        }
+
+        /**
+         * Returns the row ends of a paragraph relative to its start, or null if
+         * it fits in one row, measuring it if needed.
+         */
+        int[] breaksOf(int paragraph) {
+            if (rows[paragraph] == 1) {
+                return null;
+            }
+            Element line = root.getElement(paragraph);
+            int[] ends = rows[paragraph] > 0 ? breaks.get(line) : null;
+            if (ends == null) {
+                int before = rows[paragraph];
+                ends = measure(paragraph);
+                if (ends != null) {
+                    breaks.put(line, ends);
+                }
+                if (rows[paragraph] != Math.abs(before)) {
+                    // An estimate was wrong: the rows below moved.
+                    fireRowsChanged();
+                }
+            }
+            return ends;
+        }
+
+        // Measures a paragraph, storing its exact row count; true if that changed.
+        private boolean measureRows(int paragraph) {
+            int before = Math.abs(rows[paragraph]);
+            measure(paragraph);
+            return rows[paragraph] != before;
+        }
+
+        private int[] measure(int paragraph) {
+            int[] ends = breakLines(this, root.getElement(paragraph));
+            setRows(paragraph, ends == null ? 1 : ends.length);
+            return ends;
+        }
+
+        // An estimate of the rows of a paragraph, from its length.
+        private int estimate(Element line) {
+            int length = line.getEndOffset() - line.getStartOffset();
+            long pixels = (long) length * metrics.charWidth('n');
+            return pixels <= width ? -1 : -(int) Math.min(Integer.MAX_VALUE, (pixels + width - 1) / width);
+        }
+
+        private void setRows(int paragraph, int value) {
+            int delta = Math.abs(value) - Math.abs(rows[paragraph]);
+            rows[paragraph] = value;
+            blockRows[paragraph / BLOCK] += delta;
+            startsValid = Math.min(startsValid, paragraph / BLOCK);
+            totalRows += delta;
+        }
+
+        /**
+         * Replaces 'removed' paragraphs at 'index' by 'added.length' new ones.
+         */
+        private void replace(int index, int removed, Element[] added) {
+            int newCount = count - removed + added.length;
+            if (newCount > rows.length) {
+                rows = Arrays.copyOf(rows, Math.max(newCount, rows.length * 2));
+            }
+            System.arraycopy(rows, index + removed, rows, index + added.length, count - index - removed);
+            count = newCount;
+            for (int i = 0; i < added.length; i++) {
+                rows[index + i] = estimate(added[i]);
+            }
+            sumBlocks(index / BLOCK);
+            if (added.length <= MEASURED_AT_ONCE) {
+                for (int i = 0; i < added.length; i++) {
+                    measure(index + i);
+                }
+            } else {
+                estimatedFrom = Math.min(estimatedFrom, index);
+                idleMeasuring.restart();
+            }
+        }
+
+        // Sums the rows of the blocks from 'block' on, and the total.
+        private void sumBlocks(int block) {
+            int blocks = (count + BLOCK - 1) / BLOCK;
+            if (blockRows == null || blockRows.length < blocks) {
+                blockRows = Arrays.copyOf(blockRows == null ? new int[0] : blockRows, Math.max(blocks, 16));
+            }
+            if (blockStarts == null || blockStarts.length < blockRows.length) {
+                blockStarts = new int[blockRows.length];
+                startsValid = 0;
+            }
+            startsValid = Math.min(startsValid, block);
+            Arrays.fill(blockRows, block, blockRows.length, 0);
+            for (int i = block * BLOCK; i < count; i++) {
+                blockRows[i / BLOCK] += Math.abs(rows[i]);
+            }
+            totalRows = 0;
+            for (int b = 0; b < blocks; b++) {
+                totalRows += blockRows[b];
+            }
+        }
+
+        // The first row of 'block', summing the blocks before it if needed.
+        private int blockStart(int block) {
+            while (startsValid < block) {
+                blockStarts[startsValid + 1] = blockStarts[startsValid] + blockRows[startsValid];
+                startsValid++;
+            }
+            return blockStarts[block];
+        }
+
+        long getMemoryUsed() {
+            long bytes = 4L * (rows.length + 2 * blockRows.length);
+            for (int[] ends : breaks.values()) {
+                bytes += 16 + 4L * ends.length;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Creates the layout cache of 'document'. Every edit of the document must
+     * be passed to 'edited', before the views are asked about their layout.
+     */
+    WrapLayout(Document document) {
+        this.document = document;
+        this.root = document.getDefaultRootElement();
+        idleMeasuring.setRepeats(false);
+    }
+
+    /**
+     * Sets the listener told when measuring changed the number of rows
+     * outside of an edit (the view showing the layout).
+     */
+    void setRowsChangedListener(Runnable listener) {
+        rowsChangedListener = listener;
+    }
+
+    /**
+     * Returns the layout for the given width, font and wrap style, reusing a
+     * kept one if there is one. A new layout is estimated and then measured
+     * in the background.
+     */
+    Layout layoutFor(FontMetrics metrics, int width, boolean wordWrap, float tabSize) {
+        for (int i = 0; i < layouts.size(); i++) {
+            Layout layout = layouts.get(i);
+            if (layout.matches(metrics, width, wordWrap, tabSize)) {
+                if (i > 0) {
+                    layouts.add(0, layouts.remove(i));
+                    idleMeasuring.restart();
+                }
+                return layout;
+            }
+        }
+        Layout layout = new Layout(metrics, width, wordWrap, tabSize);
+        layouts.add(0, layout);
+        if (layouts.size() > LAYOUTS) {
+            layouts.remove(LAYOUTS);
+        }
+        idleMeasuring.restart();
+        return layout;
+    }
+
+    /**
+     * Returns the estimated number of bytes held by the layouts.
+     */
+    long getMemoryUsed() {
+        long bytes = 0;
+        for (Layout layout : layouts) {
+            bytes += layout.getMemoryUsed();
+        }
+        return bytes;
+    }
+
+    /**
+     * Applies an edit to the layout in use, measuring the paragraphs it
+     * touched, and drops the other layouts. Both the highlighter and the view
+     * pass every edit on, whichever is told first; an edit is applied only
+     * once.
+     */
+    void edited(DocumentEvent e) {
+        if (e == lastEvent) {
+            return;
+        }
+        lastEvent = e;
+        while (layouts.size() > 1) {
+            layouts.remove(layouts.size() - 1);
+        }
+        if (layouts.isEmpty()) {
+            return;
+        }
+        Layout layout = layouts.get(0);
+        DocumentEvent.ElementChange change = e.getChange(root);
+        if (change != null) {
+            for (Element removed : change.getChildrenRemoved()) {
+                layout.breaks.remove(removed);
+            }
+            layout.replace(change.getIndex(), change.getChildrenRemoved().length, change.getChildrenAdded());
+        } else {
+            int paragraph = root.getElementIndex(e.getOffset());
+            layout.breaks.remove(root.getElement(paragraph));
+            layout.measure(paragraph);
+        }
+    }
+
+    /**
+     * Measures estimated paragraphs of the layout in use for one slice of time,
+     * then yields to other events and continues in the next slice.
+     */
+    private void measureSlice() {
+        if (layouts.isEmpty()) {
+            return;
+        }
+        Layout layout = layouts.get(0);
+        long deadline = System.nanoTime() + SLICE_NANOS;
+        boolean changed = false;
+        int paragraph = layout.estimatedFrom;
+        while (paragraph < layout.count && ((paragraph & 63) != 0 || System.nanoTime() < deadline)) {
+            if (layout.rows[paragraph] < 0) {
+                changed |= layout.measureRows(paragraph);
+            }
+            paragraph++;
+        }
+        layout.estimatedFrom = paragraph;
+        if (changed) {
+            fireRowsChanged();
+        }
+        if (paragraph < layout.count) {
+            idleMeasuring.restart();
+        }
+    }
+
+    /**
+     * Tells the listener that row counts changed, once the current event
+     * (e.g. the painting that measured them) is finished.
+     */
+    private void fireRowsChanged() {
+        if (!rowsChangedPending && rowsChangedListener != null) {
+            rowsChangedPending = true;
+            SwingUtilities.invokeLater(() -> {
+                rowsChangedPending = false;
+                rowsChangedListener.run();
+            });
+        }
+    }
+
+    /**
+     * Breaks a paragraph into rows the way 'WrappedPlainView' does: at the
+     * last whitespace that fits (word wrap) or the last character that fits.
+     *
+     * @return The row ends relative to the start of the paragraph, or null if
+     *         it fits in one row.
+     */
+    private int[] breakLines(Layout layout, Element line) {
+        int start = line.getStartOffset(), end = line.getEndOffset();
+        try {
+            document.getText(start, end - start, text);
+        } catch (BadLocationException e) {
+            // The paragraph is part of the document.
+            e.printStackTrace();
+            return null;
+        }
+        int[] ends = null;
+        int rowCount = 0;
+        int p0 = start;
+        while (p0 < end) {
+            row.array = text.array;
+            row.offset = text.offset + p0 - start;
+            row.count = end - p0;
+            int p = p0 + (layout.wordWrap
+                    ? Utilities.getBreakLocation(row, layout.metrics, 0f, layout.width, layout, p0)
+                    : Utilities.getTabbedTextOffset(row, layout.metrics, 0f, layout.width, layout, p0, false));
+            p0 = p == p0 ? p + 1 : p;
+            if (rowCount == 0 && p0 >= end) {
+                return null;
+            }
+            if (ends == null || rowCount == ends.length) {
+                ends = Arrays.copyOf(ends == null ? new int[0] : ends, Math.max(4, rowCount * 2));
+            }
+            ends[rowCount++] = p0 - start;
+        }
+        return Arrays.copyOf(ends, rowCount);
+    }
+}
@@ -0,0 +1,324 @@
+import java.awt.Color;
+import java.awt.Container;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Caret;
+import javax.swing.text.Element;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.LayeredHighlighter;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+import javax.swing.text.View; // Paints the wrapped lines from the rows cached by 'WrapLayout'.
+import javax.swing.text.ViewFactory;
+
+/**
+ * 'WrappedTextView' shows a document with its lines wrapped at the width of
+ * the text area, in place of 'WrappedPlainView'.
+ *
+ * 'WrappedPlainView' keeps a child view per line and lays all of them out
+ * whenever the width or font changes. This view has no children: where the
+ * lines break is kept by a 'WrapLayout' shared by every view of the text area,
+ * and only the rows being painted (or looked up for the caret) need their
+ * break positions. The lines are broken exactly as 'WrappedPlainView' breaks
+ * them, at the last space that fits (word wrap) or the last character.
+ */
+class WrappedTextView extends View implements TabExpander {
+
+    private final boolean wordWrap;
+    private final WrapLayout wrapLayout;
+
+    // The layout for the current width and font, and the metrics it is measured with.
+    private WrapLayout.Layout layout;
+    private FontMetrics metrics;
+    private float tabSize;
+    private int width;
+
+    // The x position tabs are expanded from while painting.
+    private int tabBase;
+
+    // Painting state: the selection and the colours of the text.
+    private int sel0, sel1;
+    private Color unselected, selected;
+
+    // Reused to read the text.
+    private final Segment text = new Segment();
+
+    /**
+     * Creates the view of the root element 'element'.
+     *
+     * @param wordWrap   Whether lines break at the end of words, or anywhere.
+     * @param wrapLayout The break positions, kept across views of the same document.
+     */
+    WrappedTextView(Element element, boolean wordWrap, WrapLayout wrapLayout) {
+        super(element);
+        this.wordWrap = wordWrap;
+        this.wrapLayout = wrapLayout;
+    }
+
+    /**
+     * Picks the layout for the current font and width of the host.
+     */
+    private void updateLayout() {
+        Container host = getContainer();
+        metrics = host.getFontMetrics(host.getFont());
+        Integer size = (Integer) getDocument().getProperty(PlainDocument.tabSizeAttribute);
+        tabSize = (size != null ? size : 8) * metrics.charWidth('m');
+        // Until the view is laid out its lines aren't wrapped.
+        layout = wrapLayout.layoutFor(metrics, width > 0 ? width : Integer.MAX_VALUE / 2, wordWrap, tabSize);
+    }
+
+    @Override
+    public void setParent(View parent) {
+        super.setParent(parent);
+        if (parent != null) {
+            wrapLayout.setRowsChangedListener(() -> preferenceChanged(null, false, true));
+        }
+    }
+
+    @Override
+    public void setSize(float width, float height) {
+        if ((int) width != this.width) {
+            this.width = (int) width;
+            updateLayout();
+            preferenceChanged(null, false, true);
+        }
+    }
+
+    @Override
+    public float getPreferredSpan(int axis) {
+        if (axis == X_AXIS) {
+            return width > 0 ? width : 100;
+        }
+        if (width <= 0) {
+            // Not laid out yet: one row per line, rather than a layout for no width.
+            Container host = getContainer();
+            return (float) getElement().getElementCount() * host.getFontMetrics(host.getFont()).getHeight();
+        }
+        updateLayout();
+        return (float) layout.getTotalRows() * metrics.getHeight();
+    }
+
+    @Override
+    public float getMinimumSpan(int axis) {
+        return axis == X_AXIS ? 0 : getPreferredSpan(axis);
+    }
+
+    // Tab stops are measured from the start of the row.
+    @Override
+    public float nextTabStop(float x, int tabOffset) {
+        if (tabSize == 0) {
+            return x;
+        }
+        return ((int) ((x - tabBase) / tabSize) + 1) * tabSize + tabBase;
+    }
+
+    @Override
+    public void paint(Graphics g, Shape a) {
+        Rectangle alloc = a.getBounds();
+        updateLayout();
+        tabBase = alloc.x;
+        JTextComponent host = (JTextComponent) getContainer();
+        sel0 = host.getSelectionStart();
+        sel1 = host.getSelectionEnd();
+        unselected = host.isEnabled() ? host.getForeground() : host.getDisabledTextColor();
+        Caret caret = host.getCaret();
+        selected = caret.isSelectionVisible() && host.getHighlighter() != null ? host.getSelectedTextColor()
+                : unselected;
+        g.setFont(host.getFont());
+        Highlighter h = host.getHighlighter();
+        LayeredHighlighter dh = h instanceof LayeredHighlighter ? (LayeredHighlighter) h : null;
+
+        // Only the rows inside the clip are painted.
+        Rectangle clip = g.getClipBounds();
+        int height = metrics.getHeight();
+        int firstRow = Math.max(0, (clip != null ? clip.y - alloc.y : 0) / height);
+        int lastRow = clip != null ? (clip.y + clip.height - alloc.y) / height : layout.getTotalRows() - 1;
+        Element root = getElement();
+        int paragraph = layout.paragraphAt(firstRow);
+        int row = layout.rowOf(paragraph);
+        int y = alloc.y + row * height + metrics.getAscent();
+        while (row <= lastRow && paragraph < layout.getParagraphCount()) {
+            Element line = root.getElement(paragraph);
+            int start = line.getStartOffset(), end = line.getEndOffset();
+            int[] ends = layout.breaksOf(paragraph);
+            int rows = ends == null ? 1 : ends.length;
+            int p0 = start;
+            for (int i = 0; i < rows; i++) {
+                int p1 = ends == null ? end : start + ends[i];
+                if (row + i >= firstRow) {
+                    if (dh != null) {
+                        dh.paintLayeredHighlights(g, p0, p1 == end ? p1 - 1 : p1, alloc, host, this);
+                    }
+                    try {
+                        drawRow(g, p0, p1, alloc.x, y);
+                    } catch (BadLocationException e) {
+                        // The row is part of the document.
+                        e.printStackTrace();
+                    }
+                    y += height;
+                }
+                p0 = p1;
+            }
+            row += rows;
+            paragraph++;
+        }
+    }
+
+    // Draws the text of one row, the selected part in the selected colour.
+    private void drawRow(Graphics g, int p0, int p1, float x, float y) throws BadLocationException {
+        p1 = Math.min(getDocument().getLength(), p1);
+        Graphics2D g2 = (Graphics2D) g;
+        if (sel0 == sel1 || selected == unselected || sel1 <= p0 || sel0 >= p1) {
+            drawUnselectedText(g2, x, y, p0, p1);
+            return;
+        }
+        int from = Math.max(p0, sel0), to = Math.min(p1, sel1);
+        x = drawUnselectedText(g2, x, y, p0, from);
+        x = drawSelectedText(g2, x, y, from, to);
+        drawUnselectedText(g2, x, y, to, p1);
+    }
+
+    /**
+     * Draws the text between 'p0' and 'p1' (part of one row) that isn't
+     * selected and returns the x position after it.
+     */
+    protected float drawUnselectedText(Graphics2D g, float x, float y, int p0, int p1) throws BadLocationException {
+        g.setColor(unselected);
+        return drawText(g, x, y, p0, p1);
+    }
+
+    /**
+     * Draws the selected text between 'p0' and 'p1' and returns the x
+     * position after it.
+     */
+    protected float drawSelectedText(Graphics2D g, float x, float y, int p0, int p1) throws BadLocationException {
+        g.setColor(selected);
+        return drawText(g, x, y, p0, p1);
+    }
+
+    private float drawText(Graphics2D g, float x, float y, int p0, int p1) throws BadLocationException {
+        if (p0 >= p1) {
+            return x;
+        }
+        getDocument().getText(p0, p1 - p0, text);
+        return Utilities.drawTabbedText(text, x, y, g, this, p0);
+    }
+
+    /**
+     * Returns the start of the row holding 'pos' and the number of that row.
+     */
+    private int[] findRow(int pos) {
+        Element root = getElement();
+        int paragraph = root.getElementIndex(pos);
+        int start = root.getElement(paragraph).getStartOffset();
+        int row = layout.rowOf(paragraph);
+        int[] ends = layout.breaksOf(paragraph);
+        int i = 0;
+        while (ends != null && i < ends.length - 1 && start + ends[i] <= pos) {
+            i++;
+        }
+        return new int[] { i == 0 ? start : start + ends[i - 1], row + i };
+    }
+
+    @Override
+    public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+        if (pos < 0 || pos > getDocument().getLength() + 1) {
+            throw new BadLocationException("Position out of range", pos);
+        }
+        updateLayout();
+        Rectangle alloc = a.getBounds();
+        // A position at a break belongs to the row before it when biased backward.
+        int lineStart = getElement().getElement(getElement().getElementIndex(pos)).getStartOffset();
+        int[] rowStart = findRow(b == Position.Bias.Backward ? Math.max(lineStart, pos - 1) : pos);
+        int p0 = rowStart[0];
+        float x = alloc.x;
+        if (pos > p0) {
+            getDocument().getText(p0, pos - p0, text);
+            tabBase = alloc.x;
+            x += Utilities.getTabbedTextWidth(text, metrics, x, this, p0);
+        }
+        return new Rectangle2D.Float(x, alloc.y + rowStart[1] * metrics.getHeight(), 1, metrics.getHeight());
+    }
+
+    @Override
+    public int viewToModel(float fx, float fy, Shape a, Position.Bias[] bias) {
+        bias[0] = Position.Bias.Forward;
+        updateLayout();
+        Rectangle alloc = a.getBounds();
+        if (fy < alloc.y) {
+            return getStartOffset();
+        }
+        int row = (int) (fy - alloc.y) / metrics.getHeight();
+        if (row >= layout.getTotalRows()) {
+            return getEndOffset() - 1;
+        }
+        int paragraph = layout.paragraphAt(row);
+        Element line = getElement().getElement(paragraph);
+        int start = line.getStartOffset();
+        int[] ends = layout.breaksOf(paragraph);
+        int i = Math.min(row - layout.rowOf(paragraph), ends == null ? 0 : ends.length - 1);
+        int p0 = i == 0 ? start : start + ends[i - 1];
+        int p1 = ends == null ? line.getEndOffset() : start + ends[i];
+        if (fx < alloc.x) {
+            return p0;
+        }
+        try {
+            getDocument().getText(p0, p1 - p0, text);
+        } catch (BadLocationException e) {
+            // The row is part of the document.
+            e.printStackTrace();
+            return p0;
+        }
+        tabBase = alloc.x;
+        int n = Utilities.getTabbedTextOffset(text, metrics, alloc.x, fx, this, p0, false);
+        return Math.min(p0 + n, p1 - 1);
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        update(e, a);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        update(e, a);
+    }
+
+    /**
+     * Lets the layout measure the edited lines, then repaints them, and
+     * everything below if the number of rows changed.
+     */
+    private void update(DocumentEvent e, Shape a) {
+        if (layout == null) {
+            return;
+        }
+        int before = layout.getTotalRows();
+        wrapLayout.edited(e);
+        updateLayout();
+        Container host = getContainer();
+        if (a == null || host == null) {
+            return;
+        }
+        Rectangle alloc = a.getBounds();
+        int paragraph = getElement().getElementIndex(e.getOffset());
+        int y = alloc.y + layout.rowOf(paragraph) * metrics.getHeight();
+        if (layout.getTotalRows() != before || e.getChange(getElement()) != null) {
+            preferenceChanged(null, false, true);
+            host.repaint(alloc.x, y, alloc.width, Math.max(0, host.getHeight() - y));
+        } else {
+            int[] ends = layout.breaksOf(paragraph);
+            host.repaint(alloc.x, y, alloc.width, (ends == null ? 1 : ends.length) * metrics.getHeight());
+        }
+    }
+}
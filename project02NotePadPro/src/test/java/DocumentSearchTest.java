@@ -0,0 +1,85 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that 'DocumentSearch.findAll' reports exactly the matches of one
+ * left-to-right search, also when the document is split into chunks that are
+ * searched in parallel and merged.
+ */
+class DocumentSearchTest {
+
+    // Long enough for several chunks, with matches running across their boundaries.
+    private static String text;
+    private static PieceTableContent.SnapshotText snapshotText;
+
+    @BeforeAll
+    static void createText() {
+        Random random = new Random(3);
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 5 * DocumentSearch.CHUNK_SIZE) {
+            switch (random.nextInt(4)) {
+            case 0:
+                // Runs of 'a', in which "aa" matches depend on where the run starts.
+                builder.append("a".repeat(1 + random.nextInt(9)));
+                break;
+            case 1:
+                // A span for "<[^>]*>", sometimes longer than a chunk's overlap.
+                int length = random.nextInt(50) == 0 ? DocumentSearch.REGEX_OVERLAP + random.nextInt(1000)
+                        : random.nextInt(3000);
+                builder.append('<').append("b".repeat(length)).append('>');
+                break;
+            default:
+                builder.append(" word ").append(random.nextInt(100)).append('\n');
+            }
+        }
+        text = builder.toString();
+        snapshotText = new PieceTableContent(text.toCharArray()).snapshot().asCharSequence();
+    }
+
+    @Test
+    void literalMatchesAreTheSequentialOnes() throws InterruptedException {
+        assertFindsSequentialMatches(DocumentSearch.forLiteral("aa", true), Pattern.compile("aa"));
+        assertFindsSequentialMatches(DocumentSearch.forLiteral("WORD 7", false),
+                Pattern.compile("word 7", Pattern.CASE_INSENSITIVE));
+    }
+
+    @Test
+    void regexMatchesAreTheSequentialOnes() throws InterruptedException {
+        assertFindsSequentialMatches(DocumentSearch.forRegex("<[^>]*>", true), Pattern.compile("<[^>]*>"));
+        assertFindsSequentialMatches(DocumentSearch.forRegex("a+|^ word \\d$", true),
+                Pattern.compile("a+|^ word \\d$", Pattern.MULTILINE));
+    }
+
+    @Test
+    void regexMatchOutgrowingTheOverlapIsWhole() throws InterruptedException {
+        // The optional group only matches after the run of 'b', which goes past the overlap of the first chunk.
+        String text = "x".repeat(DocumentSearch.CHUNK_SIZE - 1) + "<" + "b".repeat(DocumentSearch.REGEX_OVERLAP + 10)
+                + ">" + "x".repeat(2 * DocumentSearch.CHUNK_SIZE);
+        assertFindsSequentialMatches(DocumentSearch.forRegex("<(b*>)?", true), Pattern.compile("<(b*>)?"), text,
+                new PieceTableContent(text.toCharArray()).snapshot().asCharSequence());
+    }
+
+    private static void assertFindsSequentialMatches(DocumentSearch search, Pattern pattern)
+            throws InterruptedException {
+        assertFindsSequentialMatches(search, pattern, text, snapshotText);
+    }
+
+    private static void assertFindsSequentialMatches(DocumentSearch search, Pattern pattern, String text,
+            PieceTableContent.SnapshotText searched) throws InterruptedException {
+        DocumentSearch.Matches found = search.findAll(searched);
+        DocumentSearch.Matches expected = new DocumentSearch.Matches();
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            expected.add(matcher.start(), matcher.end());
+        }
+        assertArrayEquals(Arrays.copyOf(expected.starts, expected.count), Arrays.copyOf(found.starts, found.count));
+        assertArrayEquals(Arrays.copyOf(expected.ends, expected.count), Arrays.copyOf(found.ends, found.count));
+    }
+}
@@ -0,0 +1,58 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks 'LineIndex' against the line elements 'PlainDocument' keeps.
+ */
+class LineIndexTest {
+
+    @Test
+    void followsRandomEditsLikeTheLineElements() throws BadLocationException {
+        PlainDocument document = new PlainDocument(new PieceTableContent());
+        document.insertString(0, "first\nsecond\n\nfourth", null);
+        LineIndex index = new LineIndex(document);
+        document.addDocumentListener(index);
+
+        Random random = new Random(2);
+        for (int i = 0; i < 3000; i++) {
+            int length = document.getLength();
+            if (random.nextBoolean() || length == 0) {
+                String text = random.nextInt(3) == 0 ? "a\nb\n\nc" : random.nextBoolean() ? "\n" : "text";
+                document.insertString(random.nextInt(length + 1), text, null);
+            } else {
+                int where = random.nextInt(length);
+                document.remove(where, 1 + random.nextInt(Math.min(30, length - where)));
+            }
+            if (i % 100 == 0) {
+                assertSameLines(document, index);
+            }
+        }
+        assertSameLines(document, index);
+    }
+
+    @Test
+    void anEmptyDocumentHasOneLine() {
+        LineIndex index = new LineIndex(new PlainDocument(new PieceTableContent()));
+        assertEquals(1, index.getLineCount());
+        assertEquals(0, index.getLineStart(0));
+        assertEquals(0, index.getLineOfOffset(0));
+    }
+
+    private static void assertSameLines(PlainDocument document, LineIndex index) {
+        Element root = document.getDefaultRootElement();
+        assertEquals(root.getElementCount(), index.getLineCount());
+        for (int line = 0; line < root.getElementCount(); line++) {
+            assertEquals(root.getElement(line).getStartOffset(), index.getLineStart(line), "line " + line);
+        }
+        for (int offset = 0; offset <= document.getLength(); offset += 7) {
+            assertEquals(root.getElementIndex(offset), index.getLineOfOffset(offset), "offset " + offset);
+        }
+    }
+}
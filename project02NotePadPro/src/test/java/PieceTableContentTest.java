@@ -0,0 +1,147 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.GapContent;
+import javax.swing.text.Position;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks 'PieceTableContent' against Swing's 'GapContent', which it replaces:
+ * both get the same edits and must then hold the same text and positions.
+ */
+class PieceTableContentTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void randomEditsKeepTextAndPositionsLikeGapContent() throws BadLocationException {
+        Random random = new Random(1);
+        PieceTableContent content = new PieceTableContent("line one\nline two\n".toCharArray());
+        GapContent expected = new GapContent();
+        expected.insertString(0, "line one\nline two\n");
+        List<Position> positions = new ArrayList<>(), expectedPositions = new ArrayList<>();
+
+        for (int i = 0; i < 5000; i++) {
+            int length = content.length() - 1;
+            int operation = random.nextInt(10);
+            if (operation < 5 || length == 0) {
+                int where = random.nextInt(length + 1);
+                String text = random.nextInt(8) == 0 ? "\n" : "abcdefgh".substring(random.nextInt(8));
+                content.insertString(where, text);
+                expected.insertString(where, text);
+            } else if (operation < 9) {
+                int where = random.nextInt(length);
+                int count = 1 + random.nextInt(Math.min(20, length - where));
+                content.remove(where, count);
+                expected.remove(where, count);
+            } else {
+                int offset = random.nextInt(length + 1);
+                positions.add(content.createPosition(offset));
+                expectedPositions.add(expected.createPosition(offset));
+            }
+        }
+        assertEquals(expected.getString(0, expected.length()), content.getString(0, content.length()));
+        for (int i = 0; i < positions.size(); i++) {
+            assertEquals(expectedPositions.get(i).getOffset(), positions.get(i).getOffset(), "position " + i);
+        }
+    }
+
+    @Test
+    void removingEverythingStartsOverWithEmptyBuffers() throws BadLocationException {
+        PieceTableContent content = new PieceTableContent("original text".toCharArray());
+        content.insertString(8, "added ");
+        Position end = content.createPosition(content.length() - 1);
+        content.remove(0, content.length() - 1);
+        assertEquals("\n", content.getString(0, content.length()));
+        assertEquals(0, end.getOffset());
+
+        content.insertString(0, "again");
+        assertEquals("again\n", content.getString(0, content.length()));
+        // As in 'GapContent', a position at the start stays there.
+        assertEquals(0, end.getOffset());
+    }
+
+    @Test
+    void compactKeepsTextPositionsAndOlderSnapshots() throws BadLocationException {
+        PieceTableContent content = new PieceTableContent();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            String line = "line " + i + "\n";
+            content.insertString(content.length() - 1, line);
+            text.append(line);
+        }
+        PieceTableContent.Snapshot before = content.snapshot();
+        int removed = text.indexOf("line 900\n");
+        Position line950 = content.createPosition(text.indexOf("line 950\n"));
+        content.remove(0, removed);
+        content.compact();
+
+        assertEquals(text.substring(removed) + "\n", content.getString(0, content.length()));
+        assertEquals(text.indexOf("line 950\n") - removed, line950.getOffset());
+        assertEquals(text.toString(), before.asCharSequence().toString());
+
+        content.insertString(0, "head\n");
+        assertEquals("head\n" + text.substring(removed) + "\n", content.getString(0, content.length()));
+    }
+
+    @Test
+    void savesCopyUnchangedPiecesFromTheRebasedFile() throws Exception {
+        PieceTableContent content = new PieceTableContent();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("line ").append(i).append(" éè 😀\n");
+        }
+        content.insertString(0, text.toString());
+        Path first = directory.resolve("first.txt");
+        save(content, first, "\r\n");
+
+        // Edits in the middle; the rest is copied from 'first' by the next save.
+        content.insertString(100, "inserted\n");
+        content.remove(5000, 300);
+        text.insert(100, "inserted\n").delete(5000, 5300);
+        Path second = directory.resolve("second.txt");
+        save(content, second, "\r\n");
+
+        assertEquals(text.toString().replace("\n", "\r\n"), Files.readString(second, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void aReplacedSourceFileIsNotCopiedFrom() throws Exception {
+        PieceTableContent content = new PieceTableContent();
+        content.insertString(0, "aaaa\nbbbb\ncccc\n");
+        Path file = directory.resolve("file.txt");
+        save(content, file, "\n");
+
+        // Another file of the same size and time takes its place, as 'cp -p' would leave it.
+        FileTime time = Files.getLastModifiedTime(file);
+        Path other = directory.resolve("other.txt");
+        Files.writeString(other, "xxxx\nyyyy\nzzzz\n");
+        Files.setLastModifiedTime(other, time);
+        Files.move(other, file, StandardCopyOption.REPLACE_EXISTING);
+
+        Path target = directory.resolve("target.txt");
+        save(content, target, "\n");
+        assertArrayEquals("aaaa\nbbbb\ncccc\n".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(target));
+    }
+
+    // Saves as 'DocumentSaver.save' does, on this thread.
+    private static void save(PieceTableContent content, Path target, String lineSeparator) throws Exception {
+        PieceTableContent.Snapshot snapshot = content.snapshot();
+        long[] offsets = DocumentSaver.write(snapshot, lineSeparator, StandardCharsets.UTF_8, target);
+        content.rebase(snapshot, offsets,
+                PieceTableContent.SourceFile.of(target, StandardCharsets.UTF_8, lineSeparator));
+    }
+}
@@ -0,0 +1,144 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import javax.swing.JTextArea;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks which edits 'UndoHistory' merges into one step, and that it drops
+ * the oldest steps beyond its memory limit.
+ */
+class UndoHistoryTest {
+
+    private PieceTableContent content;
+    private JTextArea textArea;
+    private Document document;
+    private UndoHistory history;
+
+    @BeforeEach
+    void createTextArea() {
+        content = new PieceTableContent();
+        textArea = new JTextArea(new PlainDocument(content));
+        document = textArea.getDocument();
+        history = new UndoHistory(textArea, content);
+    }
+
+    @Test
+    void typedCharactersAreUndoneTogether() throws BadLocationException {
+        type("hello");
+        history.undo();
+        assertEquals("", text());
+        assertFalse(history.canUndo());
+
+        history.redo();
+        assertEquals("hello", text());
+    }
+
+    @Test
+    void aNewLineEndsTheTypedStep() throws BadLocationException {
+        type("ab\ncd");
+        history.undo();
+        assertEquals("ab\n", text());
+        history.undo();
+        assertEquals("", text());
+    }
+
+    @Test
+    void backspacesAreUndoneTogether() throws BadLocationException {
+        document.insertString(0, "hello world", null);
+        for (int i = 0; i < 5; i++) {
+            document.remove(document.getLength() - 1, 1);
+        }
+        assertEquals("hello ", text());
+        history.undo();
+        assertEquals("hello world", text());
+        history.undo();
+        assertEquals("", text());
+    }
+
+    @Test
+    void aCompoundIsOneStep() throws BadLocationException {
+        document.insertString(0, "one two three", null);
+        history.beginCompound();
+        document.remove(4, 3);
+        document.insertString(4, "2", null);
+        document.insertString(0, ">", null);
+        history.endCompound();
+        assertEquals(">one 2 three", text());
+
+        history.undo();
+        assertEquals("one two three", text());
+        history.redo();
+        assertEquals(">one 2 three", text());
+    }
+
+    @Test
+    void theOldestStepsAreDroppedBeyondTheLimit() throws BadLocationException {
+        history.setMemoryLimit(10_000);
+        String block = "x".repeat(1000) + "\n";
+        for (int i = 0; i < 20; i++) {
+            document.insertString(document.getLength(), block, null);
+        }
+        assertTrue(history.getMemoryUsed() <= 10_000, "used " + history.getMemoryUsed());
+
+        int undone = 0;
+        while (history.canUndo()) {
+            history.undo();
+            undone++;
+        }
+        assertTrue(undone < 20 && undone > 0, "undone " + undone);
+        assertEquals(block.repeat(20 - undone), text());
+    }
+
+    @Test
+    void undoesAcrossGrowthsOfTheAddedBuffer() throws BadLocationException {
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            history.beginCompound();
+            document.insertString(document.getLength(), "line " + i + "\n", null);
+            history.endCompound();
+            expected.append("line ").append(i).append('\n');
+        }
+        document.remove(0, document.getLength());
+        history.undo();
+        assertEquals(expected.toString(), text());
+        for (int i = 0; i < 5000; i++) {
+            history.undo();
+        }
+        assertEquals("", text());
+        for (int i = 0; i < 5000; i++) {
+            history.redo();
+        }
+        assertEquals(expected.toString(), text());
+    }
+
+    @Test
+    void nothingIsUndoneWhileTheTextAreaIsLocked() throws BadLocationException {
+        type("text");
+        textArea.setEditable(false);
+        history.undo();
+        assertEquals("text", text());
+
+        textArea.setEditable(true);
+        history.setRecording(false);
+        history.undo();
+        assertEquals("text", text());
+    }
+
+    // Inserts 'text' a character at a time at the end, as typing does.
+    private void type(String text) throws BadLocationException {
+        for (int i = 0; i < text.length(); i++) {
+            document.insertString(document.getLength(), text.substring(i, i + 1), null);
+        }
+    }
+
+    private String text() throws BadLocationException {
+        return document.getText(0, document.getLength());
+    }
+}